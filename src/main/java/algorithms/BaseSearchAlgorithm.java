@@ -2,6 +2,7 @@ package algorithms;
 
 import static nl.uu.cs.aplib.AplibEDSL.SEQ;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -92,6 +93,28 @@ public class BaseSearchAlgorithm {
 	 */
 	public boolean forceGoalExecutionToTerminateWhenStuckIsDetected = true ;
 	
+	/**
+	 * If true, toggling a button that was toggled before after the same prefix of
+	 * buttons is replayed from {@link #replayCache}: the agent's navigation memory is
+	 * restored and it walks the recorded route straight to the button. The
+	 * exploration after a toggle is then also skipped when the next button is known
+	 * to be replayable; exploration only happens at the end of the replayed prefix.
+	 * 
+	 * <p>Note that the belief built up during such a replay is less complete than 
+	 * after a full exploration at every step.
+	 * Default: false.
+	 */
+	public boolean fastPrefixReplay = false ;
+	
+	PrefixReplayCache replayCache = new PrefixReplayCache() ;
+	
+	/**
+	 * If not null, the state the algorithm has learned is periodically saved with this,
+	 * see {@link Checkpointer}. Only algorithms that learn something across runs
+	 * (Q-learning, MCTS, evolutionary) write checkpoints.
+	 */
+	public Checkpointer checkpointer = null ;
+	
 	
 	public int getTotalSearchBudget() { 
 		return totalSearchBudget ;
@@ -114,9 +137,27 @@ public class BaseSearchAlgorithm {
 	 * If {@link #topGoalPredicate} is specified, this checks if it is achieved.
 	 */
 	public boolean isTopGoalSolved() {
-		if (topGoalPredicate != null) 
-			return topGoalPredicate.test(getBelief()) ;
-		return false ;
+		return topGoalPredicateHolds(getBelief()) ;
+	}
+	
+	XBelief goalCheckedOn = null ;
+	long goalCheckedAtUpdate = -1 ;
+	boolean goalCheckResult ;
+	
+	/**
+	 * Check if {@link #topGoalPredicate} holds on the given state; false if there
+	 * is no such predicate. The predicate is evaluated at most once per update of 
+	 * the state; the result is remembered until the state is updated again.
+	 */
+	boolean topGoalPredicateHolds(XBelief S) {
+		if (topGoalPredicate == null) 
+			return false ;
+		if (S != goalCheckedOn || S.numberOfUpdates != goalCheckedAtUpdate) {
+			goalCheckResult = topGoalPredicate.test(S) ;
+			goalCheckedOn = S ;
+			goalCheckedAtUpdate = S.numberOfUpdates ;
+		}
+		return goalCheckResult ;
 	}
 	
 	/**
@@ -166,6 +207,24 @@ public class BaseSearchAlgorithm {
 	public void setRndSeed(int seed) {
 		rnd = new Random(seed) ;
 	}
+	
+	/**
+	 * Copy the parameters of this search (budgets, delay, and the goal predicate)
+	 * to another instance, e.g. to a worker that runs episodes on behalf of this
+	 * instance. The SUT is not shared, so closeSUT is not copied.
+	 */
+	void copySearchParametersTo(BaseSearchAlgorithm other) {
+		other.topGoalPredicate = this.topGoalPredicate ;
+		other.budget_per_task = this.budget_per_task ;
+		other.explorationBudget = this.explorationBudget ;
+		other.delayBetweenAgentUpateCycles = this.delayBetweenAgentUpateCycles ;
+		other.forceGoalExecutionToTerminateWhenStuckIsDetected = this.forceGoalExecutionToTerminateWhenStuckIsDetected ;
+		other.assumedExtentOfAgent = this.assumedExtentOfAgent ;
+		other.fastPrefixReplay = this.fastPrefixReplay ;
+		other.replayCache = this.replayCache ;
+		other.totalSearchBudget = this.totalSearchBudget ;
+		other.remainingSearchBudget = this.remainingSearchBudget ;
+	}
   
 	/**
 	 * Just returning the BeliefState of the test agent.
@@ -176,16 +235,13 @@ public class BaseSearchAlgorithm {
 	
 	
 	/**
-	 * Register all buttons and doors currently in the agent's belief to the models
-	 * of rooms and connections that it keeps track.
+	 * Update the models of rooms and connections that the agent keeps track with the
+	 * buttons and doors it found. Newly seen buttons and doors are already added to
+	 * the connection model when the agent's state is updated; this only assigns them
+	 * to rooms, and only does work if something new was seen.
 	 */
 	void registerFoundGameObjects() {
-		for(WorldEntity e : getBelief().knownButtons()) {
-			getBelief().registerButton(e.id);
-		}
-		for(WorldEntity e : agent.getState().knownDoors()) {
-			getBelief().registerDoor(e.id);
-		}
+		getBelief().updateRooms() ;
 	}
 	
 	/**
@@ -334,6 +390,54 @@ public class BaseSearchAlgorithm {
 		solveGoal("Exploring", G, budget) ;
 	}
 	
+	/**
+	 * Toggle the given button, where prefix is the sequence of buttons toggled so 
+	 * far in the current episode. If {@link #fastPrefixReplay} is on and the same
+	 * button was toggled after the same prefix before, the recorded route is
+	 * replayed. If that fails, or if there is nothing to replay, the button is
+	 * toggled as usual, and the way the agent got to it is recorded.
+	 */
+	ProgressStatus toggleButton(List<String> prefix, String button) throws Exception {
+		if (fastPrefixReplay) {
+			var step = replayCache.get(prefix,button) ;
+			if (step != null) {
+				getBelief().markNavigationNodesAsSeen(step.seenNavNodes) ;
+				var G = SEQ(positionsVisited(step.route), entityInteracted(button)) ;
+				var status = solveGoal("Replaying the toggling of button " + button, G, budget_per_task) ;
+				if (status.success()) {
+					replayCache.hits.incrementAndGet() ;
+					return status ;
+				}
+				replayCache.misses.incrementAndGet() ;
+				if (getBelief().worldmodel().health <= 0) 
+					return status ;
+				// fall back to the normal way:
+				getBelief().wipeOutNavigationMemory();
+				doExplore(explorationBudget) ;
+			}
+		}
+		int[] seen = fastPrefixReplay ? PrefixReplayCache.seenNavNodes(getBelief().pathfinder()) : null ;
+		int start = visitedLocations.size() ;
+		var status = solveGoal("Toggling button " + button, entityInteracted(button), budget_per_task) ;
+		if (fastPrefixReplay && status.success()) {
+			replayCache.record(prefix, button, seen, visitedLocations.subList(start, visitedLocations.size())) ;
+		}
+		return status ;
+	}
+	
+	/**
+	 * Explore, after toggling the last button in the given trace. The exploration 
+	 * starts with a wiped navigation memory, so that the agent also revisits areas
+	 * whose doors may have changed. If {@link #fastPrefixReplay} is on and the next 
+	 * button to toggle is given and can be replayed, the exploration is skipped.
+	 */
+	void exploreAfterToggle(List<String> trace, String nextButton) throws Exception {
+		if (fastPrefixReplay && nextButton != null && replayCache.contains(trace,nextButton)) 
+			return ;
+		getBelief().wipeOutNavigationMemory();
+		doExplore(explorationBudget) ;
+	}
+	
 	/**
 	 * Move the agent towards a door to get its actual current state. This assumes the door
 	 * is reachable.
@@ -380,7 +484,9 @@ public class BaseSearchAlgorithm {
 	 * position, and is currently closed.
 	 * To open the door, the agent interacts with buttons. Buttons that are know
 	 * to be connected with the door are tried first. If none opens the door, other buttons,
-	 * whose connectivity to the door is still unknown are tried
+	 * whose connectivity to the door is still unknown are tried. Within each group, the
+	 * buttons are tried in the order of the distance the agent has to walk, to the
+	 * button and from there to the door.
 	 * <p> The agent stops when the door becomes open.
 	 * 
 	 * <p>The method returns true if the door is open, and else false.
@@ -390,8 +496,8 @@ public class BaseSearchAlgorithm {
 		
 		// we will first try doors that are known to be connected to the door, then we add the buttons
 		// that the agents don't know if they are connected to the door.
-		List<String> candidates = getBelief().getConnectedButtons(door) ;
-		candidates.addAll(getBelief().getUnexploredButtons(door)) ;
+		List<String> candidates = byTravelDistance(getBelief().getConnectedButtons(door), door) ;
+		candidates.addAll(byTravelDistance(getBelief().getUnexploredButtons(door), door)) ;
 		
 		if (candidates.isEmpty()) {
 			DebugUtil.log(">>>> the agent tries to open " + door + ", but it does know any button that can be a candidate to do that.");
@@ -410,6 +516,46 @@ public class BaseSearchAlgorithm {
 		return false ;
 	}
 	
+	/**
+	 * Sort the buttons by the length of the walk from the agent to the button, and then
+	 * to the door. Buttons the agent cannot reach keep their order, at the end.
+	 */
+	List<String> byTravelDistance(List<String> buttons, String door) {
+		var belief = getBelief() ;
+		Map<String,Float> walk = new HashMap<>() ;
+		for (String b : buttons) 
+			walk.put(b, belief.travelDistanceFromAgent(b) + belief.travelDistance(b,door)) ;
+		List<String> sorted = new ArrayList<>(buttons) ;
+		sorted.sort((b1,b2) -> Float.compare(walk.get(b1), walk.get(b2))) ;
+		return sorted ;
+	}
+	
+	/**
+	 * A snapshot of what the algorithm has learned so far, for {@link #checkpointer};
+	 * null if there is nothing to save.
+	 */
+	byte[] checkpointData() throws IOException {
+		return null ;
+	}
+	
+	/**
+	 * Hand a snapshot to the {@link #checkpointer}, if there is one, and if a
+	 * checkpoint is due or forced. Only the snapshot is taken on this thread; the
+	 * file is written in the background.
+	 */
+	void checkpoint(boolean force) {
+		if (checkpointer == null || ! (force || checkpointer.isDue()))
+			return ;
+		try {
+			var data = checkpointData() ;
+			if (data != null) 
+				checkpointer.submit(data) ;
+		}
+		catch(IOException e) {
+			DebugUtil.log(">>>> failed to take a checkpoint: " + e) ;
+		}
+	}
+	
 	/**
 	 * Copy a list, and randomly shuffling the result.
 	 */
@@ -497,7 +643,9 @@ public class BaseSearchAlgorithm {
 	
 	/**
 	 * Close the agen's connection to the SUT. If {@link #closeSUT} is defined,
-	 * it will also be invoked to close the SUT.
+	 * it will also be invoked to close the SUT, after which we wait a bit to let
+	 * the SUT shut down. If it is not defined, the SUT is kept alive, e.g. to
+	 * reload the level on it for the next episode, and there is no need to wait.
 	 * @throws InterruptedException 
 	 */
 	void closeEnv() throws InterruptedException {
@@ -505,8 +653,8 @@ public class BaseSearchAlgorithm {
 		agent.env().close() ;
 		if (closeSUT != null) {
 			closeSUT.apply(null) ;
+			Thread.sleep(3000);
 		}
-		Thread.sleep(3000);
 		var duration = System.currentTimeMillis() - t0 ;
 		// add this back to the time accounting, as we won't count LR closing as exec-time:
 		this.remainingSearchBudget += (int) duration ;		
@@ -0,0 +1,146 @@
+package algorithms;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Periodically writes the learned state of a search algorithm (e.g. the Q-table of
+ * {@link QAlg}, the tree of {@link MCTS}, the population of {@link Evolutionary}) to
+ * a binary checkpoint file, so that a run that crashes or is stopped can be resumed,
+ * or a new run on the same level can be warm-started from it.
+ *
+ * <p>The search thread only encodes the snapshot in memory; writing the file is done
+ * by a background thread. If a snapshot comes in while an older one is still waiting
+ * to be written, the older one is dropped. A checkpoint is written to a temporary
+ * file first, and then moved over the old one, so a crash while writing leaves the
+ * previous checkpoint intact.
+ */
+public class Checkpointer {
+
+	/**
+	 * Identifies checkpoint files; followed by a byte that tells which algorithm wrote
+	 * it, and a byte with the {@link #VERSION} of the format.
+	 */
+	static final int MAGIC = 0x4C524350 ; // "LRCP"
+
+	/**
+	 * The version of the checkpoint format. Increase it whenever what an algorithm
+	 * writes changes, so that an older checkpoint is refused rather than misread.
+	 * Version 2: the MCTS tree is written by {@link MCTSNodeStore}.
+	 */
+	static final byte VERSION = 2 ;
+
+	static final byte QALG = 1 ;
+	static final byte MCTS = 2 ;
+	static final byte EVO = 3 ;
+
+	public final Path file ;
+
+	/**
+	 * The minimum time (ms) between two checkpoints.
+	 */
+	public long intervalMillis ;
+
+	long lastSnapshot = System.currentTimeMillis() ;
+
+	AtomicReference<byte[]> pending = new AtomicReference<>() ;
+
+	ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+		var t = new Thread(r, "checkpoint-writer") ;
+		t.setDaemon(true) ;
+		return t ;
+	}) ;
+
+	public final AtomicInteger numberOfWrites = new AtomicInteger() ;
+
+	public Checkpointer(Path file, long intervalMillis) {
+		this.file = file ;
+		this.intervalMillis = intervalMillis ;
+	}
+
+	/**
+	 * True if the last snapshot was taken at least {@link #intervalMillis} ago.
+	 */
+	public boolean isDue() {
+		return System.currentTimeMillis() - lastSnapshot >= intervalMillis ;
+	}
+
+	/**
+	 * Write the snapshot in the background.
+	 */
+	public void submit(byte[] snapshot) {
+		lastSnapshot = System.currentTimeMillis() ;
+		if (pending.getAndSet(snapshot) == null)
+			writer.submit(this::writePending) ;
+	}
+
+	void writePending() {
+		byte[] snapshot = pending.getAndSet(null) ;
+		if (snapshot == null)
+			return ;
+		try {
+			Files.createDirectories(file.toAbsolutePath().getParent()) ;
+			Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp") ;
+			Files.write(tmp, snapshot) ;
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE) ;
+			numberOfWrites.incrementAndGet() ;
+		}
+		catch (IOException e) {
+			DebugUtil.log(">>>> failed to write checkpoint " + file + ": " + e) ;
+		}
+	}
+
+	/**
+	 * Wait until the submitted snapshots are written.
+	 */
+	public void flush() throws InterruptedException {
+		var done = writer.submit(() -> { }) ;
+		try {
+			done.get(1, TimeUnit.MINUTES) ;
+		}
+		catch (Exception e) {
+			DebugUtil.log(">>>> checkpoint writer did not finish: " + e) ;
+		}
+	}
+
+	/**
+	 * Start a snapshot of the given kind.
+	 */
+	static DataOutputStream header(ByteArrayOutputStream bytes, byte kind) throws IOException {
+		var out = new DataOutputStream(bytes) ;
+		out.writeInt(MAGIC) ;
+		out.writeByte(kind) ;
+		out.writeByte(VERSION) ;
+		return out ;
+	}
+
+	/**
+	 * Open a checkpoint of the given kind, or return null if the file does not exist.
+	 * A checkpoint of another kind, or in another version of the format, is refused.
+	 */
+	static DataInputStream open(Path file, byte kind) throws IOException {
+		if (!Files.exists(file))
+			return null ;
+		var in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file))) ;
+		if (in.readInt() != MAGIC || in.readByte() != kind)
+			throw new IOException(file + " is not a checkpoint of this algorithm") ;
+		byte version = in.readByte() ;
+		if (version != VERSION)
+			throw new IOException(file + " has checkpoint format version " + version + ", expected " + VERSION) ;
+		return in ;
+	}
+
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null) ;
+		if (s != null) out.writeUTF(s) ;
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null ;
+	}
+}
@@ -0,0 +1,208 @@
+package algorithms;
+
+import java.util.*;
+
+import algorithms.XBelief.LinkStatus;
+import nl.uu.cs.aplib.utils.Pair;
+
+/**
+ * Keeps track of the believed connectivity between every known button and every
+ * known door. Button and door IDs are interned to dense integers, in the order
+ * they are registered. The status of each pair is kept in a packed
+ * buttons x doors matrix (two bits per pair). Additionally, for every door the
+ * sets of LINKED and UNKNOWN buttons, and for every button the set of LINKED
+ * doors, are kept as bitsets, so that the queries the search algorithms use
+ * cost time proportional to the size of their answer rather than to the number
+ * of pairs.
+ */
+public class ConnectionModel {
+
+	// encoding of a status in the matrix; 0 means the pair is not registered
+	static final int ABSENT = 0 ;
+	static final int UNKNOWN = 1 ;
+	static final int LINKED = 2 ;
+	static final int NOCONNECTON = 3 ;
+
+	static final LinkStatus[] DECODE = { null, LinkStatus.UNKNOWN, LinkStatus.LINKED, LinkStatus.NOCONNECTON } ;
+
+	Map<String,Integer> buttonIndex = new HashMap<>() ;
+	Map<String,Integer> doorIndex = new HashMap<>() ;
+	List<String> buttons = new ArrayList<>() ;
+	List<String> doors = new ArrayList<>() ;
+
+	/**
+	 * matrix[b] is the row of button b: two bits per door.
+	 */
+	long[][] matrix = new long[0][] ;
+
+	List<BitSet> linkedButtonsOfDoor = new ArrayList<>() ;
+	List<BitSet> unknownButtonsOfDoor = new ArrayList<>() ;
+	List<BitSet> linkedDoorsOfButton = new ArrayList<>() ;
+
+	/**
+	 * Number of pairs with each status, indexed by the status' encoding.
+	 */
+	int[] count = new int[4] ;
+
+	public int numberOfButtons() {
+		return buttons.size() ;
+	}
+
+	public int numberOfDoors() {
+		return doors.size() ;
+	}
+
+	public int numberOfLinked() {
+		return count[LINKED] ;
+	}
+
+	public int numberOfNoConnections() {
+		return count[NOCONNECTON] ;
+	}
+
+	public int numberOfUnknowns() {
+		return count[UNKNOWN] ;
+	}
+
+	public boolean isKnownButton(String button) {
+		return buttonIndex.containsKey(button) ;
+	}
+
+	public boolean isKnownDoor(String door) {
+		return doorIndex.containsKey(door) ;
+	}
+
+	/**
+	 * Register a button. It is paired, with status UNKNOWN, with every door already
+	 * registered. Returns true if the button was not registered yet.
+	 */
+	public boolean addButton(String button) {
+		if (buttonIndex.containsKey(button))
+			return false ;
+		int b = buttons.size() ;
+		buttonIndex.put(button,b) ;
+		buttons.add(button) ;
+		if (b >= matrix.length)
+			matrix = Arrays.copyOf(matrix, Math.max(8, 2*matrix.length)) ;
+		matrix[b] = new long[rowLength(Math.max(8,doors.size()))] ;
+		linkedDoorsOfButton.add(new BitSet()) ;
+		for (int d = 0 ; d < doors.size() ; d++)
+			write(b,d,UNKNOWN) ;
+		return true ;
+	}
+
+	/**
+	 * Register a door. It is paired, with status UNKNOWN, with every button already
+	 * registered. Returns true if the door was not registered yet.
+	 */
+	public boolean addDoor(String door) {
+		if (doorIndex.containsKey(door))
+			return false ;
+		int d = doors.size() ;
+		doorIndex.put(door,d) ;
+		doors.add(door) ;
+		linkedButtonsOfDoor.add(new BitSet()) ;
+		unknownButtonsOfDoor.add(new BitSet()) ;
+		for (int b = 0 ; b < buttons.size() ; b++) {
+			if (matrix[b].length < rowLength(d+1))
+				matrix[b] = Arrays.copyOf(matrix[b], rowLength(2*(d+1))) ;
+			write(b,d,UNKNOWN) ;
+		}
+		return true ;
+	}
+
+	static int rowLength(int numberOfDoors) {
+		// 32 doors per long:
+		return (numberOfDoors + 31) / 32 ;
+	}
+
+	int read(int b, int d) {
+		long[] row = matrix[b] ;
+		int word = d >>> 5 ;
+		if (word >= row.length)
+			return ABSENT ;
+		return (int) (row[word] >>> ((d & 31) << 1)) & 3 ;
+	}
+
+	void write(int b, int d, int status) {
+		int old = read(b,d) ;
+		if (old == status)
+			return ;
+		long[] row = matrix[b] ;
+		int word = d >>> 5 ;
+		int shift = (d & 31) << 1 ;
+		row[word] = (row[word] & ~(3L << shift)) | ((long) status << shift) ;
+		if (old != ABSENT) count[old]-- ;
+		count[status]++ ;
+		linkedButtonsOfDoor.get(d).set(b, status == LINKED) ;
+		unknownButtonsOfDoor.get(d).set(b, status == UNKNOWN) ;
+		linkedDoorsOfButton.get(b).set(d, status == LINKED) ;
+	}
+
+	/**
+	 * Get the status of the pair, or null if it is not registered.
+	 */
+	public LinkStatus get(String button, String door) {
+		Integer b = buttonIndex.get(button) ;
+		Integer d = doorIndex.get(door) ;
+		if (b == null || d == null)
+			return null ;
+		return DECODE[read(b,d)] ;
+	}
+
+	/**
+	 * Set the status of the pair. The button and the door are registered, if they
+	 * are not registered yet.
+	 */
+	public void set(String button, String door, LinkStatus status) {
+		addButton(button) ;
+		addDoor(door) ;
+		int code ;
+		switch(status) {
+			case LINKED : code = LINKED ; break ;
+			case NOCONNECTON : code = NOCONNECTON ; break ;
+			default : code = UNKNOWN ;
+		}
+		write(buttonIndex.get(button), doorIndex.get(door), code) ;
+	}
+
+	List<String> buttonsIn(BitSet S) {
+		List<String> result = new LinkedList<>() ;
+		for (int b = S.nextSetBit(0) ; b >= 0 ; b = S.nextSetBit(b+1))
+			result.add(buttons.get(b)) ;
+		return result ;
+	}
+
+	/**
+	 * The buttons believed to be connected to the door.
+	 */
+	public List<String> linkedButtons(String door) {
+		Integer d = doorIndex.get(door) ;
+		if (d == null)
+			return new LinkedList<>() ;
+		return buttonsIn(linkedButtonsOfDoor.get(d)) ;
+	}
+
+	/**
+	 * The buttons whose connectivity to the door is still unknown.
+	 */
+	public List<String> unknownButtons(String door) {
+		Integer d = doorIndex.get(door) ;
+		if (d == null)
+			return new LinkedList<>() ;
+		return buttonsIn(unknownButtonsOfDoor.get(d)) ;
+	}
+
+	/**
+	 * All pairs (button,door) believed to be connected.
+	 */
+	public Set<Pair<String,String>> linkedPairs() {
+		Set<Pair<String,String>> result = new HashSet<>() ;
+		for (int b = 0 ; b < buttons.size() ; b++) {
+			var S = linkedDoorsOfButton.get(b) ;
+			for (int d = S.nextSetBit(0) ; d >= 0 ; d = S.nextSetBit(d+1))
+				result.add(new Pair<>(buttons.get(b), doors.get(d))) ;
+		}
+		return result ;
+	}
+}
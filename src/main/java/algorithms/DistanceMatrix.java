@@ -0,0 +1,162 @@
+package algorithms;
+
+import java.util.*;
+
+import eu.iv4xr.framework.extensions.pathfinding.SurfaceNavGraph;
+import eu.iv4xr.framework.spatial.Vec3;
+
+/**
+ * The lengths of the navigation paths between pairs of entities, e.g. all known
+ * buttons and doors. The matrix is filled lazily: when the distance between two
+ * entities is first asked, a single {@link ReachabilityMap} flood from the first one
+ * fills its whole row (and, as the graph is undirected, its column).
+ *
+ * <p>The distances depend on the seen part of the navigation graph and on which
+ * obstacles block; the owner should {@link #clear()} the matrix when either changes.
+ * Entities can be added at any time; they keep their index.
+ */
+public class DistanceMatrix {
+
+	/**
+	 * The max. distance between an entity's location and the navigation node where
+	 * paths to it end. This is larger than {@link ReachabilityMap#nodeTolerance}, so
+	 * that a closed door, whose own nodes are blocked, is reached at the nodes in
+	 * front of it.
+	 */
+	public static float tolerance = 1f ;
+
+	SurfaceNavGraph nav ;
+
+	/**
+	 * The index over the obstacles of nav used by the floods, or null.
+	 */
+	ObstacleIndex obstacles ;
+
+	List<String> ids = new ArrayList<>() ;
+	List<Vec3> locations = new ArrayList<>() ;
+	Map<String,Integer> index = new HashMap<>() ;
+
+	/**
+	 * The node where paths to each entity end, looked up when first needed: -2 if it
+	 * was not looked up yet, -1 if there is none.
+	 */
+	int[] nodes = new int[0] ;
+
+	/**
+	 * The number of rows/columns allocated in {@link #distance}.
+	 */
+	int capacity = 0 ;
+
+	/**
+	 * distance[i*capacity + j] is the length of the shortest path between entities i
+	 * and j, infinity if there is none, or NaN if it was not computed yet.
+	 */
+	float[] distance = new float[0] ;
+
+	/**
+	 * Number of rows computed, i.e. the number of floods done.
+	 */
+	public int numberOfFloods = 0 ;
+
+	public DistanceMatrix(SurfaceNavGraph nav) {
+		this(nav, null) ;
+	}
+
+	public DistanceMatrix(SurfaceNavGraph nav, ObstacleIndex obstacles) {
+		this.nav = nav ;
+		this.obstacles = obstacles ;
+	}
+
+	/**
+	 * Add an entity, if it is not there yet. The location is where paths to the entity
+	 * end, e.g. its floor position.
+	 */
+	public void add(String id, Vec3 location) {
+		if (index.containsKey(id))
+			return ;
+		int n = ids.size() ;
+		if (n == capacity) {
+			int newCapacity = Math.max(8, 2 * capacity) ;
+			float[] grown = new float[newCapacity * newCapacity] ;
+			Arrays.fill(grown, Float.NaN) ;
+			for (int i = 0; i < n; i++)
+				System.arraycopy(distance, i * capacity, grown, i * newCapacity, n) ;
+			distance = grown ;
+			capacity = newCapacity ;
+			nodes = Arrays.copyOf(nodes, newCapacity) ;
+		}
+		nodes[n] = -2 ;
+		index.put(id, n) ;
+		ids.add(id) ;
+		locations.add(location) ;
+	}
+
+	public boolean contains(String id) {
+		return index.containsKey(id) ;
+	}
+
+	public int size() {
+		return ids.size() ;
+	}
+
+	/**
+	 * Forget all computed distances, but keep the entities.
+	 */
+	public void clear() {
+		Arrays.fill(distance, Float.NaN) ;
+		Arrays.fill(nodes, -2) ;
+	}
+
+	/**
+	 * The length of the shortest navigation path between the two entities, or infinity
+	 * if there is none or either entity is unknown.
+	 */
+	public float get(String a, String b) {
+		Integer i = index.get(a) ;
+		Integer j = index.get(b) ;
+		if (i == null || j == null)
+			return Float.POSITIVE_INFINITY ;
+		float d = distance[i * capacity + j] ;
+		if (Float.isNaN(d)) {
+			fillRow(i) ;
+			d = distance[i * capacity + j] ;
+		}
+		return d ;
+	}
+
+	/**
+	 * The navigation node where paths to the entity end, or null if the entity is
+	 * unknown or there is no unblocked node near it.
+	 */
+	public Integer nodeOf(String id) {
+		Integer i = index.get(id) ;
+		if (i == null)
+			return null ;
+		if (nodes[i] == -2) {
+			Integer v = nav.getNearestUnblockedVertex(locations.get(i), tolerance) ;
+			nodes[i] = v == null ? -1 : v ;
+		}
+		return nodes[i] < 0 ? null : nodes[i] ;
+	}
+
+	void fillRow(int i) {
+		int n = ids.size() ;
+		Integer s = nodeOf(ids.get(i)) ;
+		ReachabilityMap M = null ;
+		if (s != null) {
+			numberOfFloods++ ;
+			M = new ReachabilityMap(nav, obstacles, nav.vertices.get(s), Collections.emptyMap()) ;
+		}
+		for (int j = 0; j < n; j++) {
+			float d = Float.POSITIVE_INFINITY ;
+			if (i == j)
+				d = 0 ;
+			else if (M != null) {
+				Integer t = nodeOf(ids.get(j)) ;
+				if (t != null) d = M.cost[t] ;
+			}
+			distance[i * capacity + j] = d ;
+			distance[j * capacity + i] = d ;
+		}
+	}
+}
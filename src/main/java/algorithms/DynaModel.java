@@ -0,0 +1,108 @@
+package algorithms;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+import helperclasses.LongIntHashMap;
+
+/**
+ * The model of the game that {@link QAlg} learns in its Dyna mode: for every
+ * (state,action) pair that was tried, the reward and the next state it led to the last
+ * time. States are the keys of {@link QAlg.LRQstate} in the Q-table, and actions
+ * are button indices. A transition that ended the episode (the agent died, the
+ * action failed, or the goal was reached) is terminal; its reward is then the value
+ * the Q-update assigned to the action.
+ *
+ * <p>The transitions are kept in parallel primitive arrays. The transitions from the
+ * same state are chained, starting from the index found via {@link #firstOf}.
+ */
+public class DynaModel {
+
+	LongIntHashMap firstOf = new LongIntHashMap() ;
+
+	long[] from = new long[16] ;
+	int[] action = new int[16] ;
+	float[] reward = new float[16] ;
+	long[] to = new long[16] ;
+	boolean[] terminal = new boolean[16] ;
+
+	/**
+	 * The index of the next transition from the same state, or -1.
+	 */
+	int[] nextOfSameState = new int[16] ;
+
+	int size = 0 ;
+
+	/**
+	 * Record that doing the action in the state gave the reward and led to the next
+	 * state. This replaces an earlier recording of the same (state,action) pair.
+	 */
+	public void record(long state, int a, float r, long next, boolean isTerminal) {
+		int first = firstOf.get(state) ;
+		int k = first ;
+		while (k >= 0 && action[k] != a)
+			k = nextOfSameState[k] ;
+		if (k < 0) {
+			if (size == from.length) grow() ;
+			k = size++ ;
+			from[k] = state ;
+			action[k] = a ;
+			nextOfSameState[k] = first ;
+			firstOf.put(state, k) ;
+		}
+		reward[k] = r ;
+		to[k] = next ;
+		terminal[k] = isTerminal ;
+	}
+
+	void grow() {
+		int n = 2 * from.length ;
+		from = Arrays.copyOf(from, n) ;
+		action = Arrays.copyOf(action, n) ;
+		reward = Arrays.copyOf(reward, n) ;
+		to = Arrays.copyOf(to, n) ;
+		terminal = Arrays.copyOf(terminal, n) ;
+		nextOfSameState = Arrays.copyOf(nextOfSameState, n) ;
+	}
+
+	/**
+	 * The number of (state,action) pairs recorded.
+	 */
+	public int size() {
+		return size ;
+	}
+
+	/**
+	 * The index of a transition chosen uniformly at random; the model should not be
+	 * empty.
+	 */
+	int sample(Random rnd) {
+		return rnd.nextInt(size) ;
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(size) ;
+		for (int k = 0 ; k < size ; k++) {
+			out.writeLong(from[k]) ;
+			out.writeInt(action[k]) ;
+			out.writeFloat(reward[k]) ;
+			out.writeLong(to[k]) ;
+			out.writeBoolean(terminal[k]) ;
+		}
+	}
+
+	/**
+	 * Record the transitions written by {@link #write(DataOutputStream)}.
+	 */
+	public void read(DataInputStream in) throws IOException {
+		int n = in.readInt() ;
+		for (int k = 0 ; k < n ; k++)
+			record(in.readLong(), in.readInt(), in.readFloat(), in.readLong(), in.readBoolean()) ;
+	}
+
+	public void clear() {
+		firstOf.clear() ;
+		size = 0 ;
+	}
+}
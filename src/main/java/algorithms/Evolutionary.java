@@ -2,7 +2,13 @@ package algorithms;
 
 import static agents.tactics.GoalLib.entityInteracted;
 
+import java.io.*;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -92,6 +98,23 @@ public class Evolutionary extends BaseSearchAlgorithm {
 	 */
 	Function <Void,LabRecruitsTestAgent> agentConstructor ;
 	
+	/**
+	 * If this contains more than one agent-constructor, the chromosomes of a generation
+	 * are evaluated in parallel: one worker per constructor. Each constructor should
+	 * create agents on its own instance of the SUT, e.g. leased from a
+	 * {@link game.LabRecruitsServerPool}.
+	 * 
+	 * <p>The results of the workers are merged in the order the chromosomes appear
+	 * in the generation, so that for a fixed seed the evolution does not depend
+	 * on which worker happens to finish first. The search budget is then charged
+	 * by wall-clock time.
+	 */
+	public List<Function<Void,LabRecruitsTestAgent>> workerAgentConstructors = new LinkedList<>() ;
+	
+	List<Evolutionary> workers = new LinkedList<>() ;
+	
+	ExecutorService workersExecutor ;
+	
 	Evolutionary() { 
 		myPopulation.rnd = this.rnd ;
 	}
@@ -104,6 +127,11 @@ public class Evolutionary extends BaseSearchAlgorithm {
 	public static class ChromosomeInfo {
 		public List<String> chromosome ;
 		public float fitness ;
+		
+		/**
+		 * The agent's state at the end of playing the chromosome. This is null for
+		 * chromosomes restored from a checkpoint.
+		 */
 		public XBelief belief ;
 		
 		ChromosomeInfo(List<String> chromosome, float value, XBelief belief) {
@@ -200,7 +228,7 @@ public class Evolutionary extends BaseSearchAlgorithm {
 			System.out.println("** #chromosomes=" + population.size()) ;
 			for (var CI : population) {
 				System.out.println("** [" + k + "] val=" + CI.fitness + ", " + CI.chromosome
-						+ ", #connections:" + CI.belief.getConnections().size() 
+						+ ", #connections:" + (CI.belief == null ? "?" : CI.belief.getNumberOfConnections()) 
 						) ;
 				k++ ;
 			}
@@ -256,14 +284,14 @@ public class Evolutionary extends BaseSearchAlgorithm {
 		List<String> buttons = new LinkedList<>() ;
 		buttons.addAll(knownButtons) ;
 		
-		while(buttons.size() > 0 && myPopulation.population.size() < maxPopulationSize) {
+		List<List<String>> initialBatch = new LinkedList<>() ;
+		while(buttons.size() > 0 && initialBatch.size() < maxPopulationSize) {
 			var B = buttons.remove(rnd.nextInt(buttons.size())) ;
 			List<String> tau = new LinkedList<>() ; 
 			tau.add(B) ;
-			myPopulation.add(fitnessValue(tau));
-			totNumberOfRuns++ ;
-			if (isTopGoalSolved()) break ;	
+			initialBatch.add(tau) ;
 		}
+		evaluateAndAdd(initialBatch) ;
 		
 		generationNr = 1  ;
 	}
@@ -339,7 +367,22 @@ public class Evolutionary extends BaseSearchAlgorithm {
 		
 		// now calculate the fitness of every member of the new-batch, and add it to the
 		// population:
-		for (var tau : newBatch) {
+		evaluateAndAdd(newBatch) ;
+		
+		generationNr++ ;
+	}
+	
+	/**
+	 * Calculate the fitness of the chromosomes in the batch that are not in the 
+	 * population yet, and add them to the population. This stops when a chromosome
+	 * is found that solves the top-goal.
+	 */
+	void evaluateAndAdd(List<List<String>> batch) throws Exception {
+		if (workers.size() > 1) {
+			parallelEvaluateAndAdd(batch) ;
+			return ;
+		}
+		for (var tau : batch) {
 			if (myPopulation.memberOf(tau)) {
 				// already in the population, no need to evaluate its fitness again
 				continue ;
@@ -351,8 +394,79 @@ public class Evolutionary extends BaseSearchAlgorithm {
 				// found a solution!
 				break ;
 		}
-		
-		generationNr++ ;
+	}
+	
+	/**
+	 * As {@link #evaluateAndAdd(List)}, but the chromosomes are evaluated by the
+	 * workers, in rounds of one chromosome per worker. After each round the results
+	 * are merged in the order of the batch.
+	 */
+	void parallelEvaluateAndAdd(List<List<String>> batch) throws Exception {
+		List<List<String>> todo = new LinkedList<>() ;
+		for (var tau : batch) {
+			if (! myPopulation.memberOf(tau) && ! todo.contains(tau)) 
+				todo.add(tau) ;
+		}
+		long t0 = System.currentTimeMillis() ;
+		while (! todo.isEmpty()) {
+			int elapsed = (int) (System.currentTimeMillis() - t0) ;
+			if (remainingSearchBudget - elapsed <= 0) 
+				break ;
+			List<Future<ChromosomeInfo>> round = new LinkedList<>() ;
+			List<Evolutionary> busyWorkers = new LinkedList<>() ;
+			for (var W : workers) {
+				if (todo.isEmpty()) break ;
+				var tau = todo.remove(0) ;
+				// give the worker a fresh copy of what we know so far:
+				copySearchParametersTo(W) ;
+				W.remainingSearchBudget = remainingSearchBudget - elapsed ;
+				W.knownButtons.clear();
+				W.knownButtons.addAll(knownButtons) ;
+				W.discoveredConnections.clear();
+				W.visitedLocations.clear();
+				W.turn = 0 ;
+				round.add(workersExecutor.submit(() -> W.fitnessValue(tau))) ;
+				busyWorkers.add(W) ;
+			}
+			// wait for the whole round, then merge in the order of the batch:
+			List<ChromosomeInfo> results = new LinkedList<>() ;
+			for (var F : round) {
+				try {
+					results.add(F.get()) ;
+				}
+				catch(ExecutionException e) {
+					throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e ;
+				}
+			}
+			for (int k = 0 ; k < results.size() ; k++) {
+				var W = busyWorkers.get(k) ;
+				turn += W.turn ;
+				visitedLocations.addAll(W.visitedLocations) ;
+				for (var B : W.knownButtons) {
+					if (! knownButtons.contains(B)) 
+						knownButtons.add(B) ;
+				}
+				discoveredConnections.addAll(W.discoveredConnections) ;
+				totNumberOfRuns++ ;
+				myPopulation.add(results.get(k)) ;
+				if (isTopGoalSolved()) 
+					// found a solution! Results after this one are dropped.
+					return ;
+			}
+		}
+	}
+	
+	void createWorkers() {
+		workers.clear();
+		if (workerAgentConstructors.size() <= 1) 
+			return ;
+		for (var constructor : workerAgentConstructors) {
+			var W = new Evolutionary(constructor) ;
+			W.maxFitness = this.maxFitness ;
+			workers.add(W) ;
+		}
+		workersExecutor = Executors.newFixedThreadPool(workers.size()) ;
+		DebugUtil.log("** Evaluating chromosomes with " + workers.size() + " workers") ;
 	}
 	
 	
@@ -470,7 +584,7 @@ public class Evolutionary extends BaseSearchAlgorithm {
 		
 		int k = 0 ;
 		for (var button : chromosome) {
-			 var status = solveGoal("Toggling button " + button, entityInteracted(button), budget_per_task) ;
+			 var status = toggleButton(chromosome.subList(0,k), button) ;
 			 // this is the right place for k++, don't move it:
 			 k++ ;
 			 // if the agent is dead, break:
@@ -483,12 +597,11 @@ public class Evolutionary extends BaseSearchAlgorithm {
 				 break ;
 			 
 			 // reset exploration, then do full explore:
-			 agent.getState().pathfinder().wipeOutMemory();
-			 doExplore(explorationBudget) ;
+			 exploreAfterToggle(chromosome.subList(0,k), k < chromosome.size() ? chromosome.get(k) : null) ;
 			 
 			 // check if the goal-predicate if we have one, is solved:
 			 var S = getBelief() ;
-			 if (topGoalPredicate != null && topGoalPredicate.test(S)) {
+			 if (topGoalPredicateHolds(S)) {
 				// the search-goal is solved
 				 goalPredicateSolved = true ;
 				 break ;
@@ -499,7 +612,7 @@ public class Evolutionary extends BaseSearchAlgorithm {
 		float fitness = 0 ;
 		
 		// don't replace this with isGoalSolved():
-		if (topGoalPredicate != null && topGoalPredicate.test(S)) {
+		if (topGoalPredicateHolds(S)) {
 			fitness = maxFitness ;	
 		}
 		else {
@@ -509,7 +622,7 @@ public class Evolutionary extends BaseSearchAlgorithm {
 			//}	
 			// let's use the number of discovered connections + the number of
 			// open doors as fitness val:
-			fitness = S.getConnections().size() + S.getNumberOfOpenDoors() ;
+			fitness = S.getNumberOfConnections() + S.getNumberOfOpenDoors() ;
 			// except when the agent dies:
 			if (! agentIsAlive)
 				fitness = -1 ;
@@ -575,8 +688,23 @@ public class Evolutionary extends BaseSearchAlgorithm {
 		if (maxPopulationSize <= 4)
 			throw new IllegalArgumentException("maxPopulationSize should be at least 4.") ;
 		
+		createWorkers() ;
+		try {
+			runEvolution() ;
+		}
+		finally {
+			if (workersExecutor != null) {
+				workersExecutor.shutdownNow() ;
+				workersExecutor = null ;
+			}
+		}
+	}
+	
+	void runEvolution() throws Exception {
 		long time = System.currentTimeMillis() ;
-		createInitialPopulation() ;
+		// a population restored from a checkpoint is continued:
+		if (myPopulation.population.isEmpty())
+			createInitialPopulation() ;
 		printStatus() ;
 	    if (knownButtons.isEmpty())
 	    	throw new IllegalArgumentException("The algorithm cannot find any action to activate.") ;
@@ -588,7 +716,11 @@ public class Evolutionary extends BaseSearchAlgorithm {
 			printStatus() ;
 			long duration = System.currentTimeMillis() - t0 ;
 			this.remainingSearchBudget = this.remainingSearchBudget - (int) duration ;
+			checkpoint(false) ;
 		}
+		checkpoint(true) ;
+		if (checkpointer != null) 
+			checkpointer.flush() ;
 		time = System.currentTimeMillis() - time ;
 		System.out.println("** EVO") ;
 		System.out.println("** total-runtime=" + time + ", #turns=" + this.turn) ;
@@ -604,6 +736,58 @@ public class Evolutionary extends BaseSearchAlgorithm {
 		printStatus() ;
 	}
 	
+	/**
+	 * The population (chromosomes and their fitness, but not the beliefs), the
+	 * generation number, and the known buttons.
+	 */
+	@Override
+	byte[] checkpointData() throws IOException {
+		var bytes = new ByteArrayOutputStream() ;
+		var out = Checkpointer.header(bytes, Checkpointer.EVO) ;
+		out.writeInt(generationNr) ;
+		writeStrings(out, knownButtons) ;
+		out.writeInt(myPopulation.population.size()) ;
+		for (var CI : myPopulation.population) {
+			writeStrings(out, CI.chromosome) ;
+			out.writeFloat(CI.fitness) ;
+		}
+		out.flush() ;
+		return bytes.toByteArray() ;
+	}
+	
+	/**
+	 * Load the population from a checkpoint written by an earlier run on the same
+	 * level, e.g. to resume a run that was stopped, or to warm-start a new one. The
+	 * evolution then continues from it, rather than creating an initial population.
+	 * Returns false if the file does not exist.
+	 */
+	public boolean restoreCheckpoint(Path file) throws IOException {
+		var in = Checkpointer.open(file, Checkpointer.EVO) ;
+		if (in == null) 
+			return false ;
+		generationNr = in.readInt() ;
+		knownButtons = readStrings(in) ;
+		myPopulation.population.clear() ;
+		int n = in.readInt() ;
+		for (int k = 0; k < n; k++) {
+			var chromosome = readStrings(in) ;
+			myPopulation.add(new ChromosomeInfo(chromosome, in.readFloat(), null)) ;
+		}
+		return true ;
+	}
+	
+	static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		out.writeInt(strings.size()) ;
+		for (String s : strings) out.writeUTF(s) ;
+	}
+	
+	static List<String> readStrings(DataInputStream in) throws IOException {
+		List<String> strings = new LinkedList<>() ;
+		int n = in.readInt() ;
+		for (int k = 0; k < n; k++) strings.add(in.readUTF()) ;
+		return strings ;
+	}
+	
 	@Override
 	public Set<Pair<String,String>> getDiscoveredConnections() {
 		//var B = myPopulation.getBest().belief ;
@@ -613,8 +797,9 @@ public class Evolutionary extends BaseSearchAlgorithm {
 	
 	@Override
 	public boolean isTopGoalSolved() {
-		if (topGoalPredicate != null && !myPopulation.population.isEmpty()) 
-			return topGoalPredicate.test(myPopulation.getBest().belief) ;
+		if (topGoalPredicate != null && !myPopulation.population.isEmpty()
+				&& myPopulation.getBest().belief != null) 
+			return topGoalPredicateHolds(myPopulation.getBest().belief) ;
 		return false ;
 	}
 }
@@ -2,7 +2,13 @@ package algorithms;
 
 import static agents.tactics.GoalLib.entityInteracted;
 
+import java.io.*;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -32,108 +38,6 @@ import nl.uu.cs.aplib.utils.Pair;
  */
 public class MCTS extends BaseSearchAlgorithm {
 	
-	static class Node {
-		float totalReward ;
-		float averageReward ;
-		int numberOfPlays = 0 ;
-		int depth ;
-		
-		/**
-		 * The action that leads to this node. Null if this is the root node.
-		 */
-		String action = null ;
-		
-		/**
-		 * A node is fully explored if it is a terminal node, or or all its children are
-		 * fully explored.
-		 */
-		boolean fullyExplored = false ;
-		
-		/**
-		 * A node is a terminal node if no further action is possible, or if max-depth is reached.
-		 */
-		boolean terminal = false ;
-		
-		Node parent ;
-		
-		List<Node> children ;
-		
-		float ucbValue() {
-			if (numberOfPlays == 0) return Float.POSITIVE_INFINITY ;
-			
-			return averageReward 
-					+ 2f * (float) Math.sqrt(Math.log((float) parent.numberOfPlays)
-					                         / (float) numberOfPlays) ;	
-		}
-		
-		/**
-		 * Recursively back-propagate a reward. Also takes care of marking if
-		 * a node is fully explored.
-		 */
-		void backPropagate(float newReward) {
-			numberOfPlays++ ;
-			totalReward += newReward ;
-			averageReward = totalReward / (float) numberOfPlays ;
-			//System.out.println(">>> update avrg rew: " + averageReward) ;
-			if (parent != null)
-				parent.backPropagate(newReward) ;
-		}
-		
-		/**
-		 * Mark this node as fully explored, and propagate the information towards the 
-		 * root.
-		 */
-		void propagateFullyExploredStatus() {
-			if (children != null && children.stream().allMatch(ch -> ch.fullyExplored)) {
-				fullyExplored = true ;
-				if (parent != null)
-					parent.propagateFullyExploredStatus() ;
-			}
-		}
-		
-		List<Node> getPathLeadingToThisNode() {
-			List<Node> path = null ;
-			if (parent != null)
-				path = parent.getPathLeadingToThisNode() ;
-			else
-				path = new LinkedList<>() ;
-			path.add(this) ;
-			return path ;
-		}
-		
-		List<String> getTraceLeadingToThisNode() {
-			List<String> tr =  getPathLeadingToThisNode()
-					  .stream()
-					  .map(nd -> nd.action)
-					  .collect(Collectors.toList()) ;
-			// first element is null, remove it:
-			tr.remove(0) ;
-			return tr ;
-		}
-		
-		@Override
-		public String toString() {
-			return toStringWorker("") ;
-		}
-		
-		public String toStringWorker(String indent) {
-			String z = "" + indent + this.action 
-					+ ", avrgReward=" +  this.averageReward 
-					+ ", fully explored:" + this.fullyExplored ;
-			if (children == null) {
-				z += " X" ;
-				return z ;
-			}
-			for (var ch : children) {
-				var u = ch.toStringWorker("  " + indent) ;
-				z += "\n" ;
-				z += u ;
-			}
-			return z ;
-		}
-		
-	}
-	
 	static class PlayResult {
 		/**
 		 * The list of actions that were played.
@@ -153,9 +57,11 @@ public class MCTS extends BaseSearchAlgorithm {
 	Function <Void,LabRecruitsTestAgent> agentConstructor ;
 	
 	/**
-	 * The Monte Carlo Tree.
+	 * The Monte Carlo Tree. Its nodes are ids in the store; the root is
+	 * {@link MCTSNodeStore#ROOT}. When the tree is shared by multiple workers, it is
+	 * only read and updated while holding its lock.
 	 */
-	public Node mctree ;
+	public MCTSNodeStore mctree ;
 	
 	/**
 	 * When true, the mcts algorithm will terminates as soon as a winning play is
@@ -163,7 +69,15 @@ public class MCTS extends BaseSearchAlgorithm {
 	 */
 	public boolean singleSearchMode = true ;
 	
-	public List<String> winningplay = null ;
+	public volatile List<String> winningplay = null ;
+	
+	/**
+	 * The buttons found to be reachable in the state after a given trace. The game is
+	 * assumed to be deterministic, so this is recorded the first time the state is
+	 * visited, in a rollout or a replay, and then used to expand the corresponding
+	 * node without having to replay it.
+	 */
+	Map<List<String>,List<String>> reachableButtonsAfter = new ConcurrentHashMap<>() ;
 	
 	Set<Pair<String,String>> discoveredConnections = new HashSet<>() ;
 	
@@ -171,9 +85,31 @@ public class MCTS extends BaseSearchAlgorithm {
 	
 	public float maxReward = 10000 ;
 	
+	/**
+	 * If this contains more than one agent-constructor, the search runs in parallel
+	 * with one worker per constructor. Each constructor should create agents on
+	 * its own instance of the SUT, e.g. leased from a {@link game.LabRecruitsServerPool}.
+	 * 
+	 * <p>By default the workers share a single tree (tree-parallel), using virtual
+	 * loss to spread out over different leaves. If {@link #rootParallel} is true,
+	 * each worker instead builds its own tree, and the trees are merged at the end.
+	 */
+	public List<Function<Void,LabRecruitsTestAgent>> workerAgentConstructors = new LinkedList<>() ;
+	
+	public boolean rootParallel = false ;
+	
+	/**
+	 * For a worker, the MCTS instance it works for. Null otherwise.
+	 */
+	MCTS master ;
+	
+	/**
+	 * Set by the master to tell its workers to stop.
+	 */
+	volatile boolean stopWorkers = false ;
+	
 	MCTS() { 
-		mctree = new Node() ;
-		mctree.depth = 0 ;
+		mctree = new MCTSNodeStore() ;
 	}
 	
 	public MCTS(Function <Void,LabRecruitsTestAgent> agentConstructor) {
@@ -193,14 +129,14 @@ public class MCTS extends BaseSearchAlgorithm {
 	 * Execute all the actions in the path towards and until the given node. The method
 	 * returns true if the whole sequence can be executed, and else false.
 	 */
-	boolean runPath(Node node, boolean closeEnvAtTheEnd) throws Exception {
+	boolean runPath(int node, boolean closeEnvAtTheEnd) throws Exception {
 		var t0 = System.currentTimeMillis() ;
 		instantiateAgent() ;
 		var duration = System.currentTimeMillis() - t0 ;
 		// add this back to the time accounting, as we won't count LR initialization as exec-time:
 		this.remainingSearchBudget += (int) duration ;
 		
-		var trace = node.getTraceLeadingToThisNode() ;
+		var trace = traceTo(node) ;
 
 		System.out.println(">>> executing prefix " + trace);
 		
@@ -211,8 +147,9 @@ public class MCTS extends BaseSearchAlgorithm {
 			doExplore(explorationBudget) ;
 		}
 		
-		for (var button : trace) {
-			 var status = solveGoal("Toggling button " + button, entityInteracted(button), budget_per_task) ;
+		for (int k = 0 ; k < trace.size() ; k++) {
+			 var button = trace.get(k) ;
+			 var status = toggleButton(trace.subList(0,k), button) ;
 			 // if the agent is dead, break:
 			 if (agent.getState().worldmodel().health <= 0) {
 				 success = false ;
@@ -225,8 +162,7 @@ public class MCTS extends BaseSearchAlgorithm {
 			 }
 			 
 			 // reset exploration, then do full explore:
-			 getBelief().pathfinder().wipeOutMemory();
-			 doExplore(explorationBudget) ;
+			 exploreAfterToggle(trace.subList(0,k+1), k+1 < trace.size() ? trace.get(k+1) : null) ;
 		}
 		
 		var cons = getBelief().getConnections() ;
@@ -244,10 +180,10 @@ public class MCTS extends BaseSearchAlgorithm {
 	 */
 	float rewardOfCurrentGameState() {
 		var S = this.getBelief() ;
-		if (topGoalPredicate != null && topGoalPredicate.test(S)) {
+		if (topGoalPredicateHolds(S)) {
 			return maxReward ;
 		}
-		return S.getConnections().size() + S.getNumberOfOpenDoors() ;
+		return S.getNumberOfConnections() + S.getNumberOfOpenDoors() ;
 	}
 	
 	/**
@@ -258,9 +194,9 @@ public class MCTS extends BaseSearchAlgorithm {
 	 * of the play, and the reward obtained by the play.
 	 * @throws Exception 
 	 */
-	PlayResult rollout(Node node) throws Exception {
+	PlayResult rollout(int node) throws Exception {
 		
-		List<String> trace = node.getTraceLeadingToThisNode() ;
+		List<String> trace = traceTo(node) ;
 		
 		var success = runPath(node,false) ;
 
@@ -272,36 +208,25 @@ public class MCTS extends BaseSearchAlgorithm {
 			closeEnv();
 			return R ;
 		}
-		
+		return continueRollout(trace) ;
+	}
+	
+	/**
+	 * Continue a play from the current game state, which is assumed to be the state
+	 * after playing the given trace, until a terminal state or the max-depth is
+	 * reached. The agent's session is closed at the end.
+	 */
+	PlayResult continueRollout(List<String> trace) throws Exception {
 		int depth = trace.size() ;
-		//boolean goalPredicateSolved = false ;
 		while (depth < maxdepth) {
-			var S = getBelief() ;
-			var buttons = S.reachableButtons() ;
+			var buttons = recordReachableButtons(trace) ;
 			if (buttons.isEmpty()) break ;
 			var chosen = buttons.get(rnd.nextInt(buttons.size())) ;
-			trace.add(chosen.id) ;
-			// ask the agent to toggle the button:
-			var status = solveGoal("Toggling button " + chosen.id, entityInteracted(chosen.id), budget_per_task) ;
+			var prefix = new LinkedList<String>(trace) ;
+			trace.add(chosen) ;
 			depth++ ;
-			// if the agent is dead, break:
-			 if (getBelief().worldmodel().health <= 0)
-				 break ;
-			 // also break the execution if a button fails:
-			 if (!status.success()) 
-				 break ;
-			 
-			 // reset exploration, then do full explore:
-			 getBelief().pathfinder().wipeOutMemory();
-			 doExplore(explorationBudget) ;
-			 
-			 // check if the goal-predicate if we have one, is solved:
-			 if (topGoalPredicate != null && topGoalPredicate.test(getBelief())) {
-				// the search-goal is solved
-				 //goalPredicateSolved = true ;
-				 break ;
-			}
-			
+			if (! playAction(prefix, chosen))
+				break ;
 		}
 		
 		var cons = getBelief().getConnections() ;
@@ -315,41 +240,54 @@ public class MCTS extends BaseSearchAlgorithm {
 		closeEnv();
 		return R ;	
 	}
-		
-	List<Node> generateChildren(Node node) throws Exception {
-		List<Node> children = new LinkedList<>() ;
-		var success = runPath(node,true) ;
-		if (success) {
-			var S = getBelief() ;
-			var buttons = S.reachableButtons() ;
-			for (var B : buttons) {
-				Node child = new Node() ;
-				child.action = B.id ;
-				children.add(child) ;
-			}
+	
+	/**
+	 * Toggle the given button, after the given prefix of buttons, then explore. 
+	 * Returns true if the play can continue after this; so, if the toggling succeeded,
+	 * the agent is still alive, and the search-goal is not solved yet.
+	 */
+	boolean playAction(List<String> prefix, String button) throws Exception {
+		// ask the agent to toggle the button:
+		var status = toggleButton(prefix, button) ;
+		// if the agent is dead, break:
+		if (getBelief().worldmodel().health <= 0)
+			return false ;
+		// also break the execution if a button fails:
+		if (!status.success()) 
+			return false ;
+		 
+		// reset exploration, then do full explore:
+		var trace = new LinkedList<String>(prefix) ;
+		trace.add(button) ;
+		exploreAfterToggle(trace, null) ;
+		 
+		// check if the goal-predicate if we have one, is solved:
+		if (topGoalPredicateHolds(getBelief())) {
+			// the search-goal is solved
+			return false ;
 		}
-		closeEnv() ;
-		return children ;
+		return true ;
 	}
 	
-	Node chooseLeaf(Node nd) {
-		if (nd.children == null) return nd ;
-		if (nd.children.isEmpty())
-			throw new IllegalArgumentException() ;
-		
-		float bestUCB = Float.NEGATIVE_INFINITY ;
-		for (var ch : nd.children) {
-			float U = ch.ucbValue() ;
-			if (U > bestUCB) {
-				bestUCB = U ;
-			}
-		}
-		final float bestUCB_ = bestUCB ;
-		// we might have multiple maxes. If so, we choose randomly among the maxes:
-		var maxes = nd.children.stream().filter(ch -> ch.ucbValue() >= bestUCB_)
+	/**
+	 * Get the buttons that are reachable in the current game state, which is the
+	 * state after the given trace, and remember them for the node of the trace.
+	 */
+	List<String> recordReachableButtons(List<String> trace) {
+		List<String> buttons = getBelief().reachableButtons().stream()
+				.map(B -> B.id)
 				.collect(Collectors.toList()) ;
-		Node bestChild = maxes.get(rnd.nextInt(maxes.size())) ;
-		return  chooseLeaf(bestChild) ;
+		reachableButtonsAfter.putIfAbsent(new LinkedList<>(trace), buttons) ;
+		return buttons ;
+	}
+	
+	/**
+	 * The actions leading to the node.
+	 */
+	List<String> traceTo(int node) {
+		synchronized(mctree) {
+			return mctree.traceTo(node) ;
+		}
 	}
 	
 	/**
@@ -358,35 +296,52 @@ public class MCTS extends BaseSearchAlgorithm {
 	void mcts() throws Exception {
 		while (! terminationConditionIsReached()) {
 			long t0 = System.currentTimeMillis() ;
-			Node leaf = chooseLeaf(mctree) ;
+			int leaf = mctree.chooseLeaf(MCTSNodeStore.ROOT, rnd) ;
+			if (leaf < 0) 
+				// the tree is fully explored:
+				break ;
 			evaluateLeaf(leaf) ;
-			System.out.println(">>> MCTS #plays = " + mctree.numberOfPlays 
-					+ ", avrg reward=" + mctree.averageReward) ;
+			if (master != null) 
+				reportToMaster() ;
+			else
+				checkpoint(false) ;
+			System.out.println(">>> MCTS #plays = " + mctree.numberOfPlays(MCTSNodeStore.ROOT) 
+					+ ", avrg reward=" + mctree.averageReward(MCTSNodeStore.ROOT)) ;
 			long time = System.currentTimeMillis() - t0 ;
 			this.remainingSearchBudget = this.remainingSearchBudget - (int) time ;
 		}	
 	}
 	
-	void evaluateLeaf(Node leaf) throws Exception {
+	void evaluateLeaf(int leaf) throws Exception {
 		
-		System.out.println(">>> EVAL " + leaf.action) ;
+		String action ;
+		int depth ;
+		int plays ;
+		synchronized(mctree) {
+			if (mctree.isTerminal(leaf) || mctree.isFullyExplored(leaf)) 
+				throw new IllegalArgumentException() ;
+			action = mctree.action(leaf) ;
+			depth = mctree.depth(leaf) ;
+			plays = mctree.numberOfPlays(leaf) ;
+		}
 		
-		if (leaf.terminal || leaf.fullyExplored) 
-			throw new IllegalArgumentException() ;
+		System.out.println(">>> EVAL " + action) ;
 		
 		// the leaf is at the max-depth:
-		if (leaf.depth >= maxdepth) {
-			leaf.terminal = true ;
-			leaf.fullyExplored = true ;
+		if (depth >= maxdepth) {
+			synchronized(mctree) {
+				mctree.markTerminal(leaf) ;
+			}
 			runPath(leaf,true) ;
 			totNumberOfRuns++ ;
 			var R = rewardOfCurrentGameState() ;
-			leaf.backPropagate(R);
-			if (leaf.parent != null) 
-				leaf.parent.propagateFullyExploredStatus();
+			synchronized(mctree) {
+				mctree.backPropagate(leaf, R) ;
+				mctree.propagateFullyExploredStatus(mctree.parent(leaf)) ;
+			}
 			// the case when the state after this node is a winning state:
 			if (singleSearchMode && R >= maxReward) {
-				winningplay = leaf.getTraceLeadingToThisNode() ;
+				winningplay = traceTo(leaf) ;
 				discoveredConnections = getBelief().getConnections()  ;
 			}
 			closeEnv() ;
@@ -394,11 +349,13 @@ public class MCTS extends BaseSearchAlgorithm {
 		}
 		
 		// leaf is not at max-depth and has not been sampled/played before:
-		if (leaf.numberOfPlays == 0) {
+		if (plays == 0) {
 			System.out.println(">>> ROLLOUT") ;
 			var R = rollout(leaf) ;
 			totNumberOfRuns++ ;
-			leaf.backPropagate(R.reward) ;
+			synchronized(mctree) {
+				mctree.backPropagate(leaf, R.reward) ;
+			}
 			if (singleSearchMode && R.reward >= maxReward) {
 				winningplay = R.trace ;
 				discoveredConnections = getBelief().getConnections()  ;
@@ -406,29 +363,272 @@ public class MCTS extends BaseSearchAlgorithm {
 			return ;
 		}
 		
-		// last case is that the leaf has been sampled. In this case we expand:
-		leaf.children = generateChildren(leaf) ;
-		if (leaf.children.isEmpty()) {
-			// no further actions from the leaf is possible, mark it as terminal:
-			leaf.terminal = true ;
-			leaf.fullyExplored = true ;
-			if (leaf.parent != null) 
-				leaf.parent.propagateFullyExploredStatus();
+		// last case is that the leaf has been sampled. In this case we expand.
+		// Its reachable buttons were normally recorded when it was played before, so
+		// we don't need to replay it. If not, we replay the path to the leaf, and
+		// then continue the play in the same session into a child.
+		var trace = traceTo(leaf) ;
+		var buttons = reachableButtonsAfter.get(trace) ;
+		boolean inSession = false ;
+		if (buttons == null) {
+			inSession = runPath(leaf,false) ;
+			if (inSession) {
+				buttons = recordReachableButtons(trace) ;
+			}
+			else {
+				buttons = new LinkedList<>() ;
+				closeEnv() ;
+			}
+		}
+		// if there are children, go to a random one and evaluate it. The children are
+		// added together, so their ids are consecutive. Like a selected leaf, the
+		// chosen child is busy and has a virtual loss until its evaluation is done, so
+		// that other workers do not select it meanwhile:
+		int k = buttons.isEmpty() ? -1 : rnd.nextInt(buttons.size()) ;
+		int chosen = -1 ;
+		synchronized(mctree) {
+			int firstChild = mctree.expand(leaf, buttons) ;
+			if (buttons.isEmpty()) {
+				// no further actions from the leaf is possible, mark it as terminal:
+				mctree.markTerminal(leaf) ;
+				mctree.propagateFullyExploredStatus(mctree.parent(leaf)) ;
+			}
+			else {
+				chosen = firstChild + k ;
+				mctree.set(chosen, MCTSNodeStore.BUSY, true) ;
+				mctree.addVirtualLoss(chosen) ;
+			}
+		}
+		if (buttons.isEmpty()) {
+			if (inSession) 
+				closeEnv() ;
 			return ;
 		}
 		
 		System.out.println(">>> EXPAND") ;
 
-		// else, go to a random child, and evaluate it:
-		for (var ch : leaf.children) {
-			ch.parent = leaf ;
-			ch.depth = leaf.depth+1 ;
+		try {
+			if (inSession) 
+				rolloutInSession(chosen, buttons.get(k), depth + 1, trace) ;
+			else
+				evaluateLeaf(chosen) ;
+		}
+		finally {
+			synchronized(mctree) {
+				mctree.removeVirtualLoss(chosen) ;
+				mctree.set(chosen, MCTSNodeStore.BUSY, false) ;
+			}
+		}
+	}
+	
+	/**
+	 * Evaluate a freshly created child, given that the current game state is the
+	 * state of its parent, whose trace is given. The child's action is played,
+	 * and the play continues from there as a normal rollout.
+	 */
+	void rolloutInSession(int child, String action, int depth, List<String> parentTrace) throws Exception {
+		System.out.println(">>> EVAL " + action + ", in-session") ;
+		var trace = new LinkedList<String>(parentTrace) ;
+		trace.add(action) ;
+		boolean maxDepthReached = depth >= maxdepth ;
+		if (maxDepthReached) {
+			synchronized(mctree) {
+				mctree.markTerminal(child) ;
+			}
+		}
+		PlayResult R ;
+		if (playAction(parentTrace, action) && ! maxDepthReached) {
+			R = continueRollout(trace) ;
+		}
+		else {
+			var cons = getBelief().getConnections() ;
+			for (var c : cons) {
+				discoveredConnections.add(c) ;
+			}
+			R = new PlayResult() ;
+			R.trace = trace ;
+			R.reward = rewardOfCurrentGameState() ;
+			closeEnv() ;
+		}
+		totNumberOfRuns++ ;
+		synchronized(mctree) {
+			mctree.backPropagate(child, R.reward) ;
+			if (maxDepthReached) 
+				mctree.propagateFullyExploredStatus(mctree.parent(child)) ;
+		}
+		if (singleSearchMode && R.reward >= maxReward) {
+			winningplay = R.trace ;
+			discoveredConnections = getBelief().getConnections()  ;
+		}
+	}
+	
+	/**
+	 * Parallel MCTS. The workers run in their own threads; this thread only keeps
+	 * track of the budget, which is charged by wall-clock time, and tells the workers
+	 * to stop when the search terminates.
+	 */
+	void parallelMcts() throws Exception {
+		List<MCTS> workers = createWorkers() ;
+		var executor = Executors.newFixedThreadPool(workers.size()) ;
+		List<Future<?>> running = new LinkedList<>() ;
+		for (var W : workers) {
+			running.add(executor.submit(() -> {
+				if (rootParallel) 
+					W.mcts() ;
+				else 
+					W.treeParallelWorker() ;
+				return null ;
+			})) ;
+		}
+		try {
+			while (! running.stream().allMatch(F -> F.isDone())) {
+				long t0 = System.currentTimeMillis() ;
+				Thread.sleep(200) ;
+				this.remainingSearchBudget = this.remainingSearchBudget - (int) (System.currentTimeMillis() - t0) ;
+				if (terminationConditionIsReached()) 
+					stopWorkers = true ;
+				// in the root-parallel mode, the tree is only complete after merging:
+				if (! rootParallel) 
+					checkpoint(false) ;
+			}
+			for (var F : running) {
+				try {
+					F.get() ;
+				}
+				catch(ExecutionException e) {
+					throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e ;
+				}
+			}
+		}
+		finally {
+			stopWorkers = true ;
+			executor.shutdownNow() ;
+		}
+		if (rootParallel) {
+			for (var W : workers) 
+				mergeTree(mctree, W.mctree) ;
+		}
+	}
+	
+	List<MCTS> createWorkers() {
+		List<MCTS> workers = new LinkedList<>() ;
+		for (var constructor : workerAgentConstructors) {
+			var W = new MCTS(constructor) ;
+			copySearchParametersTo(W) ;
+			W.maxdepth = this.maxdepth ;
+			W.maxReward = this.maxReward ;
+			W.singleSearchMode = this.singleSearchMode ;
+			W.rnd = new Random(rnd.nextLong()) ;
+			W.master = this ;
+			W.reachableButtonsAfter = this.reachableButtonsAfter ;
+			if (! rootParallel) 
+				W.mctree = this.mctree ;
+			workers.add(W) ;
+		}
+		DebugUtil.log("** MCTS with " + workers.size() + " workers" 
+				+ (rootParallel ? ", root-parallel" : ", tree-parallel")) ;
+		return workers ;
+	}
+	
+	/**
+	 * The loop of a worker in the tree-parallel mode. A selected leaf is marked
+	 * as busy and gets a virtual loss on its path, until its evaluation is done.
+	 * A leaf that is busy is skipped. The worker stops when nothing is left to
+	 * explore.
+	 */
+	void treeParallelWorker() throws Exception {
+		while (! terminationConditionIsReached()) {
+			int leaf ;
+			synchronized(mctree) {
+				leaf = mctree.chooseLeaf(MCTSNodeStore.ROOT, rnd) ;
+				if (leaf < 0) 
+					// the tree is fully explored:
+					return ;
+				if (mctree.is(leaf, MCTSNodeStore.BUSY)) {
+					leaf = -1 ;
+				}
+				else {
+					mctree.set(leaf, MCTSNodeStore.BUSY, true) ;
+					mctree.addVirtualLoss(leaf) ;
+				}
+			}
+			if (leaf < 0) {
+				// the best leaf is being evaluated by another worker; wait a bit:
+				Thread.sleep(50) ;
+				continue ;
+			}
+			try {
+				evaluateLeaf(leaf) ;
+			}
+			finally {
+				synchronized(mctree) {
+					mctree.removeVirtualLoss(leaf) ;
+					mctree.set(leaf, MCTSNodeStore.BUSY, false) ;
+				}
+			}
+			reportToMaster() ;
+		}
+	}
+	
+	/**
+	 * Pass the statistics and findings of this worker to its master.
+	 */
+	void reportToMaster() {
+		synchronized(master) {
+			master.turn += turn ;
+			turn = 0 ;
+			master.totNumberOfRuns += totNumberOfRuns ;
+			totNumberOfRuns = 0 ;
+			master.visitedLocations.addAll(visitedLocations) ;
+			visitedLocations.clear() ;
+			master.discoveredConnections.addAll(discoveredConnections) ;
+			if (winningplay != null && master.winningplay == null) 
+				master.winningplay = winningplay ;
 		}
-		evaluateLeaf(leaf.children.get(rnd.nextInt(leaf.children.size()))) ;
+	}
+	
+	/**
+	 * Merge the statistics of the source tree into the target tree. Nodes are
+	 * matched by their actions; subtrees that only exist in the source are
+	 * added to the target.
+	 */
+	static void mergeTree(MCTSNodeStore target, MCTSNodeStore source) {
+		target.merge(MCTSNodeStore.ROOT, source, MCTSNodeStore.ROOT) ;
+	}
+	
+	/**
+	 * The search tree, with its statistics and fully-explored flags.
+	 */
+	@Override
+	byte[] checkpointData() throws IOException {
+		var bytes = new ByteArrayOutputStream() ;
+		var out = Checkpointer.header(bytes, Checkpointer.MCTS) ;
+		synchronized(mctree) {
+			mctree.write(out) ;
+		}
+		out.flush() ;
+		return bytes.toByteArray() ;
+	}
+	
+	/**
+	 * Load the search tree from a checkpoint written by an earlier run on the same
+	 * level, e.g. to resume a run that was stopped, or to warm-start a new one. This
+	 * should be done before the algorithm is run. Returns false if the file does not
+	 * exist.
+	 */
+	public boolean restoreCheckpoint(Path file) throws IOException {
+		var in = Checkpointer.open(file, Checkpointer.MCTS) ;
+		if (in == null) 
+			return false ;
+		mctree = MCTSNodeStore.read(in) ;
+		return true ;
 	}
 	
 	@Override
 	boolean terminationConditionIsReached() {
+		if (master != null && master.stopWorkers) {
+			return true ;
+		}
 		if (remainingSearchBudget <= 0) {
 			DebugUtil.log("*** TOTAL BUDGET IS EXHAUSTED.") ;
 			//System.out.println("*** TOTAL BUDGET IS EXHAUSTED.") ;
@@ -438,7 +638,11 @@ public class MCTS extends BaseSearchAlgorithm {
 			DebugUtil.log("*** The search FOUND its global-goal. YAY!") ;
 			return true ;
 		}
-		if (mctree.fullyExplored) {
+		boolean fullyExplored ;
+		synchronized(mctree) {
+			fullyExplored = mctree.isFullyExplored(MCTSNodeStore.ROOT) ;
+		}
+		if (fullyExplored) {
 			DebugUtil.log("*** The search tree is fully explored.") ;
 			//System.out.println("*** The search tree is fully explored.") ;
 			return true ;
@@ -450,14 +654,21 @@ public class MCTS extends BaseSearchAlgorithm {
 	@Override
 	public void runAlgorithm() throws Exception {
 		long time = System.currentTimeMillis() ;
-		mcts() ;
+		if (workerAgentConstructors.size() > 1)
+			parallelMcts() ;
+		else
+			mcts() ;
+		checkpoint(true) ;
+		if (checkpointer != null) 
+			checkpointer.flush() ;
 		time = System.currentTimeMillis() - time ;
 		System.out.println("** MCTS") ;
 		System.out.println("** total-runtime=" + time + ", #turns=" + this.turn) ;
 		System.out.println("** Total budget=" + this.totalSearchBudget
 				+ ", unused=" + Math.max(0,this.remainingSearchBudget)) ;
-		System.out.println("** #plays=" + mctree.numberOfPlays) ;
-		System.out.println("** avrg reward=" + mctree.averageReward) ;
+		System.out.println("** #plays=" + mctree.numberOfPlays(MCTSNodeStore.ROOT)) ;
+		System.out.println("** avrg reward=" + mctree.averageReward(MCTSNodeStore.ROOT)) ;
+		System.out.println("** tree: " + mctree.memoryReport()) ;
 		System.out.print("** Search-goal: ") ;
 		if (topGoalPredicate == null) {
 			System.out.println(" none specified") ;
@@ -0,0 +1,431 @@
+package algorithms;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The tree of {@link MCTS}, stored as a structure of arrays: a node is an int id,
+ * and its statistics, flags and links are entries in parallel primitive arrays. This
+ * keeps millions of nodes compact and free of per-node objects, and lets selection
+ * and back-propagation run as loops without allocating. The root is node
+ * {@link #ROOT}; the arrays grow by doubling.
+ *
+ * <p>The children of a node are linked through {@link #firstChild} and
+ * {@link #nextSibling}, in the order they were added. A node whose children are
+ * not known yet (it was not expanded) has -1 as its number of children. The actions
+ * (button ids) are interned.
+ *
+ * <p>The store is not synchronized itself. When workers share it, they update it
+ * while holding its lock, as {@link MCTS} does.
+ */
+public class MCTSNodeStore {
+
+	public static final int ROOT = 0 ;
+
+	static final byte FULLY_EXPLORED = 1 ;
+	static final byte TERMINAL = 2 ;
+	static final byte BUSY = 4 ;
+
+	int size = 0 ;
+
+	float[] totalReward ;
+	float[] averageReward ;
+	int[] numberOfPlays ;
+
+	/**
+	 * The number of workers currently playing through the node, in the parallel mode.
+	 * Each counts as a play with reward 0 until the worker back-propagates its actual
+	 * reward.
+	 */
+	int[] virtualLoss ;
+	int[] depth ;
+	int[] parent ;
+	int[] firstChild ;
+	int[] lastChild ;
+	int[] nextSibling ;
+	int[] numberOfChildren ;
+
+	/**
+	 * The index in {@link #actions} of the action that leads to the node; -1 for the
+	 * root.
+	 */
+	int[] action ;
+
+	/**
+	 * {@link #FULLY_EXPLORED}: the node is terminal, or all its children are fully
+	 * explored. {@link #TERMINAL}: no further action is possible, or max-depth is
+	 * reached. {@link #BUSY}: a worker is evaluating the node.
+	 */
+	byte[] flags ;
+
+	List<String> actions = new ArrayList<>() ;
+	Map<String,Integer> actionIndex = new HashMap<>() ;
+
+	public MCTSNodeStore() {
+		this(1024) ;
+	}
+
+	public MCTSNodeStore(int initialCapacity) {
+		allocate(Math.max(1, initialCapacity)) ;
+		newNode(-1, null) ;
+	}
+
+	void allocate(int capacity) {
+		totalReward = new float[capacity] ;
+		averageReward = new float[capacity] ;
+		numberOfPlays = new int[capacity] ;
+		virtualLoss = new int[capacity] ;
+		depth = new int[capacity] ;
+		parent = new int[capacity] ;
+		firstChild = new int[capacity] ;
+		lastChild = new int[capacity] ;
+		nextSibling = new int[capacity] ;
+		numberOfChildren = new int[capacity] ;
+		action = new int[capacity] ;
+		flags = new byte[capacity] ;
+	}
+
+	void grow() {
+		int n = 2 * flags.length ;
+		totalReward = Arrays.copyOf(totalReward, n) ;
+		averageReward = Arrays.copyOf(averageReward, n) ;
+		numberOfPlays = Arrays.copyOf(numberOfPlays, n) ;
+		virtualLoss = Arrays.copyOf(virtualLoss, n) ;
+		depth = Arrays.copyOf(depth, n) ;
+		parent = Arrays.copyOf(parent, n) ;
+		firstChild = Arrays.copyOf(firstChild, n) ;
+		lastChild = Arrays.copyOf(lastChild, n) ;
+		nextSibling = Arrays.copyOf(nextSibling, n) ;
+		numberOfChildren = Arrays.copyOf(numberOfChildren, n) ;
+		action = Arrays.copyOf(action, n) ;
+		flags = Arrays.copyOf(flags, n) ;
+	}
+
+	/**
+	 * Add a node with the given parent (-1 for the root) and action, as the last child
+	 * of the parent. The parent becomes expanded if it was not.
+	 */
+	int newNode(int p, String a) {
+		if (size == flags.length) grow() ;
+		int nd = size++ ;
+		parent[nd] = p ;
+		depth[nd] = p < 0 ? 0 : depth[p] + 1 ;
+		firstChild[nd] = -1 ;
+		lastChild[nd] = -1 ;
+		nextSibling[nd] = -1 ;
+		numberOfChildren[nd] = -1 ;
+		if (a == null) {
+			action[nd] = -1 ;
+		}
+		else {
+			Integer k = actionIndex.get(a) ;
+			if (k == null) {
+				k = actions.size() ;
+				actions.add(a) ;
+				actionIndex.put(a, k) ;
+			}
+			action[nd] = k ;
+		}
+		if (p >= 0) {
+			if (numberOfChildren[p] < 0) numberOfChildren[p] = 0 ;
+			if (firstChild[p] < 0) firstChild[p] = nd ;
+			else nextSibling[lastChild[p]] = nd ;
+			lastChild[p] = nd ;
+			numberOfChildren[p]++ ;
+		}
+		return nd ;
+	}
+
+	/**
+	 * Expand the node with a child per action. Returns the first new child, or -1 if
+	 * there are no actions.
+	 */
+	int expand(int nd, List<String> childActions) {
+		if (numberOfChildren[nd] < 0) numberOfChildren[nd] = 0 ;
+		int first = -1 ;
+		for (String a : childActions) {
+			int ch = newNode(nd, a) ;
+			if (first < 0) first = ch ;
+		}
+		return first ;
+	}
+
+	public int size() {
+		return size ;
+	}
+
+	public String action(int nd) {
+		return action[nd] < 0 ? null : actions.get(action[nd]) ;
+	}
+
+	public int depth(int nd) {
+		return depth[nd] ;
+	}
+
+	public int parent(int nd) {
+		return parent[nd] ;
+	}
+
+	public int numberOfPlays(int nd) {
+		return numberOfPlays[nd] ;
+	}
+
+	public float averageReward(int nd) {
+		return averageReward[nd] ;
+	}
+
+	public boolean isExpanded(int nd) {
+		return numberOfChildren[nd] >= 0 ;
+	}
+
+	/**
+	 * The number of children, or -1 if the node was not expanded.
+	 */
+	public int numberOfChildren(int nd) {
+		return numberOfChildren[nd] ;
+	}
+
+	/**
+	 * The k-th child of the node.
+	 */
+	public int child(int nd, int k) {
+		int ch = firstChild[nd] ;
+		for ( ; k > 0 ; k--) ch = nextSibling[ch] ;
+		return ch ;
+	}
+
+	/**
+	 * The child of the node with the given action, or -1.
+	 */
+	public int findChild(int nd, String a) {
+		Integer k = actionIndex.get(a) ;
+		if (k == null) return -1 ;
+		for (int ch = firstChild[nd] ; ch >= 0 ; ch = nextSibling[ch]) {
+			if (action[ch] == k) return ch ;
+		}
+		return -1 ;
+	}
+
+	boolean is(int nd, byte flag) {
+		return (flags[nd] & flag) != 0 ;
+	}
+
+	void set(int nd, byte flag, boolean on) {
+		if (on) flags[nd] |= flag ;
+		else flags[nd] &= ~flag ;
+	}
+
+	public boolean isTerminal(int nd) {
+		return is(nd, TERMINAL) ;
+	}
+
+	public boolean isFullyExplored(int nd) {
+		return is(nd, FULLY_EXPLORED) ;
+	}
+
+	/**
+	 * Mark the node as terminal, and so also as fully explored.
+	 */
+	void markTerminal(int nd) {
+		flags[nd] |= TERMINAL | FULLY_EXPLORED ;
+	}
+
+	/**
+	 * The UCB value of a node, given the logarithm of the number of plays of its parent
+	 * (computed once for all children).
+	 */
+	float ucbValue(int nd, float logParentPlays) {
+		int plays = numberOfPlays[nd] + virtualLoss[nd] ;
+		if (plays == 0) return Float.POSITIVE_INFINITY ;
+		return totalReward[nd] / (float) plays
+				+ 2f * (float) Math.sqrt(logParentPlays / (float) plays) ;
+	}
+
+	/**
+	 * Go down from the node, each time to the child with the highest UCB value (a
+	 * random one among equals), until a node that is not expanded yet. Fully explored
+	 * subtrees are skipped. Returns -1 if there is nothing left to explore below the
+	 * node.
+	 */
+	int chooseLeaf(int nd, Random rnd) {
+		if (is(nd, FULLY_EXPLORED))
+			return -1 ;
+		while (numberOfChildren[nd] >= 0) {
+			float logPlays = (float) Math.log((float) (numberOfPlays[nd] + virtualLoss[nd])) ;
+			float best = Float.NEGATIVE_INFINITY ;
+			int chosen = -1 ;
+			int ties = 0 ;
+			for (int ch = firstChild[nd] ; ch >= 0 ; ch = nextSibling[ch]) {
+				if (is(ch, FULLY_EXPLORED))
+					continue ;
+				float U = ucbValue(ch, logPlays) ;
+				if (U > best || chosen < 0) {
+					best = U ;
+					chosen = ch ;
+					ties = 1 ;
+				}
+				else if (U == best && rnd.nextInt(++ties) == 0) {
+					// reservoir sampling: each of the tied children ends up chosen with
+					// the same probability
+					chosen = ch ;
+				}
+			}
+			if (chosen < 0)
+				return -1 ;
+			nd = chosen ;
+		}
+		return nd ;
+	}
+
+	/**
+	 * Add the reward to the node and all its ancestors.
+	 */
+	void backPropagate(int nd, float reward) {
+		for ( ; nd >= 0 ; nd = parent[nd]) {
+			numberOfPlays[nd]++ ;
+			totalReward[nd] += reward ;
+			averageReward[nd] = totalReward[nd] / (float) numberOfPlays[nd] ;
+		}
+	}
+
+	void addVirtualLoss(int nd) {
+		for ( ; nd >= 0 ; nd = parent[nd]) virtualLoss[nd]++ ;
+	}
+
+	void removeVirtualLoss(int nd) {
+		for ( ; nd >= 0 ; nd = parent[nd]) virtualLoss[nd]-- ;
+	}
+
+	/**
+	 * Mark the node as fully explored if all its children are, and continue so towards
+	 * the root.
+	 */
+	void propagateFullyExploredStatus(int nd) {
+		for ( ; nd >= 0 ; nd = parent[nd]) {
+			if (numberOfChildren[nd] < 0)
+				return ;
+			for (int ch = firstChild[nd] ; ch >= 0 ; ch = nextSibling[ch]) {
+				if (!is(ch, FULLY_EXPLORED)) return ;
+			}
+			flags[nd] |= FULLY_EXPLORED ;
+		}
+	}
+
+	/**
+	 * The node after the given one in a pre-order walk over the tree, or -1 if it is
+	 * the last one.
+	 */
+	int nextInPreOrder(int nd) {
+		if (firstChild[nd] >= 0)
+			return firstChild[nd] ;
+		while (nd != ROOT && nextSibling[nd] < 0) nd = parent[nd] ;
+		return nd == ROOT ? -1 : nextSibling[nd] ;
+	}
+
+	/**
+	 * The actions leading from the root to the node.
+	 */
+	List<String> traceTo(int nd) {
+		LinkedList<String> trace = new LinkedList<>() ;
+		for ( ; parent[nd] >= 0 ; nd = parent[nd]) trace.addFirst(action(nd)) ;
+		return trace ;
+	}
+
+	/**
+	 * Add the statistics of the source subtree to the target subtree. Nodes are matched
+	 * by their actions; subtrees that only exist in the source are added to the target.
+	 */
+	void merge(int target, MCTSNodeStore source, int s) {
+		Deque<int[]> todo = new ArrayDeque<>() ;
+		todo.push(new int[] { target, s }) ;
+		while (!todo.isEmpty()) {
+			var pair = todo.pop() ;
+			int t = pair[0] ;
+			int u = pair[1] ;
+			numberOfPlays[t] += source.numberOfPlays[u] ;
+			totalReward[t] += source.totalReward[u] ;
+			averageReward[t] = numberOfPlays[t] == 0 ? 0 : totalReward[t] / (float) numberOfPlays[t] ;
+			flags[t] |= source.flags[u] & (TERMINAL | FULLY_EXPLORED) ;
+			if (source.numberOfChildren[u] < 0)
+				continue ;
+			if (numberOfChildren[t] < 0) numberOfChildren[t] = 0 ;
+			for (int ch = source.firstChild[u] ; ch >= 0 ; ch = source.nextSibling[ch]) {
+				String a = source.action(ch) ;
+				int tch = findChild(t, a) ;
+				if (tch < 0) tch = newNode(t, a) ;
+				todo.push(new int[] { tch, ch }) ;
+			}
+		}
+	}
+
+	/**
+	 * The approximate number of bytes taken by the node arrays.
+	 */
+	public long memoryInBytes() {
+		// 2 float and 9 int arrays, and the flags:
+		return (long) flags.length * (2 * 4 + 9 * 4 + 1) ;
+	}
+
+	public String memoryReport() {
+		return "#nodes=" + size + ", capacity=" + flags.length + ", #actions=" + actions.size()
+				+ ", node-arrays=" + (memoryInBytes() / 1024) + " KB" ;
+	}
+
+	/**
+	 * Write the tree, in pre-order. The bookkeeping of parallel workers (virtual loss,
+	 * busy) is not written.
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(size) ;
+		for (int nd = ROOT ; nd >= 0 ; nd = nextInPreOrder(nd)) {
+			Checkpointer.writeString(out, action(nd)) ;
+			out.writeFloat(totalReward[nd]) ;
+			out.writeFloat(averageReward[nd]) ;
+			out.writeInt(numberOfPlays[nd]) ;
+			out.writeByte(flags[nd] & (TERMINAL | FULLY_EXPLORED)) ;
+			out.writeInt(numberOfChildren[nd]) ;
+		}
+	}
+
+	static MCTSNodeStore read(DataInputStream in) throws IOException {
+		int n = in.readInt() ;
+		var store = new MCTSNodeStore(n) ;
+		// the nodes whose children are still to be read, with their remaining count:
+		Deque<int[]> open = new ArrayDeque<>() ;
+		for (int k = 0 ; k < n ; k++) {
+			while (!open.isEmpty() && open.peek()[1] == 0) open.pop() ;
+			String a = Checkpointer.readString(in) ;
+			int nd ;
+			if (open.isEmpty()) {
+				nd = ROOT ;
+			}
+			else {
+				open.peek()[1]-- ;
+				nd = store.newNode(open.peek()[0], a) ;
+			}
+			store.totalReward[nd] = in.readFloat() ;
+			store.averageReward[nd] = in.readFloat() ;
+			store.numberOfPlays[nd] = in.readInt() ;
+			store.flags[nd] = in.readByte() ;
+			int children = in.readInt() ;
+			if (children >= 0) {
+				store.numberOfChildren[nd] = 0 ;
+				open.push(new int[] { nd, children }) ;
+			}
+		}
+		return store ;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder z = new StringBuilder() ;
+		for (int nd = ROOT ; nd >= 0 ; nd = nextInPreOrder(nd)) {
+			if (nd != ROOT) z.append("\n") ;
+			z.append("  ".repeat(depth[nd])).append(action(nd))
+			 .append(", avrgReward=").append(averageReward[nd])
+			 .append(", fully explored:").append(isFullyExplored(nd)) ;
+			if (numberOfChildren[nd] < 0) z.append(" X") ;
+		}
+		return z.toString() ;
+	}
+}
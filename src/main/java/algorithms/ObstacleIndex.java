@@ -0,0 +1,136 @@
+package algorithms;
+
+import java.util.*;
+
+import eu.iv4xr.framework.extensions.pathfinding.SurfaceNavGraph;
+import eu.iv4xr.framework.spatial.LineIntersectable;
+import eu.iv4xr.framework.spatial.Obstacle;
+import eu.iv4xr.framework.spatial.Vec3;
+import world.LabEntity;
+
+/**
+ * An index over the obstacles of a navigation graph: by entity id, and by location,
+ * using a uniform grid over the obstacles' bounding boxes (projected on the xz-plane).
+ * A segment test then only needs to look at the obstacles in the cells the segment
+ * passes, rather than at all obstacles.
+ *
+ * <p>Obstacles are only ever added to the navigation graph; the index picks up new
+ * ones when it is {@link #sync()}-ed. Queries can run concurrently, also with a sync.
+ */
+public class ObstacleIndex {
+
+	/**
+	 * The width of a grid cell.
+	 */
+	public static float cellSize = 2f ;
+
+	/**
+	 * Added to the extent of an obstacle when computing its bounding box, to be on the
+	 * safe side.
+	 */
+	public static float margin = 0.5f ;
+
+	/**
+	 * The indexed obstacles, by their position in the navigation graph, by id, and by
+	 * grid cell (the positions of the obstacles in the cell). A snapshot is never
+	 * changed once published; {@link #sync()} publishes a new one.
+	 */
+	static class Snapshot {
+		final List<Obstacle<LineIntersectable>> obstacles ;
+		final Map<String,Obstacle<LineIntersectable>> byId ;
+		final Map<Long,List<Integer>> cells ;
+
+		Snapshot(List<Obstacle<LineIntersectable>> obstacles, Map<String,Obstacle<LineIntersectable>> byId, Map<Long,List<Integer>> cells) {
+			this.obstacles = obstacles ;
+			this.byId = byId ;
+			this.cells = cells ;
+		}
+	}
+
+	SurfaceNavGraph nav ;
+	volatile Snapshot snapshot = new Snapshot(new ArrayList<>(), new HashMap<>(), new HashMap<>()) ;
+
+	public ObstacleIndex(SurfaceNavGraph nav) {
+		this.nav = nav ;
+		sync() ;
+	}
+
+	static int cell(float x) {
+		return (int) Math.floor(x / cellSize) ;
+	}
+
+	static long cellKey(int cx, int cz) {
+		return (((long) cx) << 32) ^ (cz & 0xffffffffL) ;
+	}
+
+	/**
+	 * Add the obstacles that were added to the navigation graph since the last sync.
+	 * The new obstacles go in a copy of the index, which then replaces it, so that
+	 * queries may run concurrently with a sync.
+	 */
+	public synchronized void sync() {
+		var old = snapshot ;
+		int N = nav.obstacles.size() ;
+		int numberOfIndexed = old.obstacles.size() ;
+		if (N == numberOfIndexed)
+			return ;
+		List<Obstacle<LineIntersectable>> obstacles = new ArrayList<>(old.obstacles) ;
+		Map<String,Obstacle<LineIntersectable>> byId = new HashMap<>(old.byId) ;
+		Map<Long,List<Integer>> cells = new HashMap<>(old.cells) ;
+		// the cells of the old snapshot are shared, and copied when they get a new obstacle:
+		Set<Long> copied = new HashSet<>() ;
+		int k = 0 ;
+		for (Obstacle<LineIntersectable> o : nav.obstacles) {
+			if (k >= numberOfIndexed) {
+				obstacles.add(o) ;
+				LabEntity e = (LabEntity) o.obstacle ;
+				byId.put(e.id, o) ;
+				float hx = Math.abs(e.extent.x) + margin ;
+				float hz = Math.abs(e.extent.z) + margin ;
+				for (int cx = cell(e.position.x - hx) ; cx <= cell(e.position.x + hx) ; cx++)
+					for (int cz = cell(e.position.z - hz) ; cz <= cell(e.position.z + hz) ; cz++) {
+						long c = cellKey(cx,cz) ;
+						var C = cells.get(c) ;
+						if (copied.add(c)) {
+							C = C == null ? new ArrayList<>() : new ArrayList<>(C) ;
+							cells.put(c, C) ;
+						}
+						C.add(k) ;
+					}
+			}
+			k++ ;
+		}
+		snapshot = new Snapshot(obstacles, byId, cells) ;
+	}
+
+	public Obstacle<LineIntersectable> get(String id) {
+		return snapshot.byId.get(id) ;
+	}
+
+	public int size() {
+		return snapshot.obstacles.size() ;
+	}
+
+	/**
+	 * The obstacles whose bounding box may come within the given distance of the
+	 * segment pq. The result may contain obstacles that do not.
+	 */
+	public List<Obstacle<LineIntersectable>> near(Vec3 p, Vec3 q, float distance) {
+		var S = snapshot ;
+		BitSet found = new BitSet() ;
+		int cx0 = cell(Math.min(p.x,q.x) - distance) ;
+		int cx1 = cell(Math.max(p.x,q.x) + distance) ;
+		int cz0 = cell(Math.min(p.z,q.z) - distance) ;
+		int cz1 = cell(Math.max(p.z,q.z) + distance) ;
+		for (int cx = cx0 ; cx <= cx1 ; cx++)
+			for (int cz = cz0 ; cz <= cz1 ; cz++) {
+				var C = S.cells.get(cellKey(cx,cz)) ;
+				if (C != null)
+					for (int k : C) found.set(k) ;
+			}
+		List<Obstacle<LineIntersectable>> result = new ArrayList<>(found.cardinality()) ;
+		for (int k = found.nextSetBit(0) ; k >= 0 ; k = found.nextSetBit(k+1))
+			result.add(S.obstacles.get(k)) ;
+		return result ;
+	}
+}
@@ -0,0 +1,163 @@
+package algorithms;
+
+import java.util.*;
+
+import eu.iv4xr.framework.extensions.pathfinding.SurfaceNavGraph;
+import eu.iv4xr.framework.spatial.LineIntersectable;
+import eu.iv4xr.framework.spatial.Obstacle;
+import eu.iv4xr.framework.spatial.Vec3;
+import world.LabEntity;
+
+/**
+ * A hypothetical change to the blocking state of obstacles: some doors are treated as
+ * open, some as blocking, and the rest as they currently are. The extents of some
+ * doors can also be inflated, so that they block a wider area, e.g. to also cut off
+ * the corners next to them. Path queries can be asked under an overlay without
+ * changing the actual state of the pathfinder, so that such "what if" queries leave
+ * the belief untouched and can run concurrently.
+ *
+ * <p>An overlay is immutable; {@link #open(String...)}, {@link #blocking(String...)}
+ * and {@link #inflated(float, String...)} return a new overlay.
+ */
+public class ObstacleOverlay {
+
+	public static final ObstacleOverlay NONE = new ObstacleOverlay(Collections.emptySet(), Collections.emptySet(), Collections.emptyMap()) ;
+
+	final Set<String> open ;
+	final Set<String> blocking ;
+
+	/**
+	 * How much is added to the half-extents (in x and z) of obstacles, by their id.
+	 */
+	final Map<String,Float> inflation ;
+
+	/**
+	 * The largest value in {@link #inflation}, or 0.
+	 */
+	final float maxInflation ;
+
+	ObstacleOverlay(Set<String> open, Set<String> blocking, Map<String,Float> inflation) {
+		this.open = open ;
+		this.blocking = blocking ;
+		this.inflation = inflation ;
+		float max = 0 ;
+		for (float a : inflation.values()) max = Math.max(max, a) ;
+		maxInflation = max ;
+	}
+
+	/**
+	 * Return an overlay that, additionally, treats the given obstacles as open.
+	 */
+	public ObstacleOverlay open(String ... ids) {
+		Set<String> open_ = new HashSet<>(open) ;
+		Set<String> blocking_ = new HashSet<>(blocking) ;
+		for (String id : ids) {
+			open_.add(id) ;
+			blocking_.remove(id) ;
+		}
+		return new ObstacleOverlay(open_, blocking_, inflation) ;
+	}
+
+	/**
+	 * Return an overlay that, additionally, treats the given obstacles as blocking.
+	 */
+	public ObstacleOverlay blocking(String ... ids) {
+		Set<String> open_ = new HashSet<>(open) ;
+		Set<String> blocking_ = new HashSet<>(blocking) ;
+		for (String id : ids) {
+			blocking_.add(id) ;
+			open_.remove(id) ;
+		}
+		return new ObstacleOverlay(open_, blocking_, inflation) ;
+	}
+
+	/**
+	 * Return an overlay that, additionally, treats the given obstacles as if their
+	 * half-extents in x and z were larger by the given amount.
+	 */
+	public ObstacleOverlay inflated(float amount, String ... ids) {
+		Map<String,Float> inflation_ = new HashMap<>(inflation) ;
+		for (String id : ids) inflation_.put(id, amount) ;
+		return new ObstacleOverlay(open, blocking, inflation_) ;
+	}
+
+	public boolean isEmpty() {
+		return open.isEmpty() && blocking.isEmpty() && inflation.isEmpty() ;
+	}
+
+	/**
+	 * The ids of all obstacles the overlay says something about.
+	 */
+	Set<String> mentioned() {
+		Set<String> ids = new HashSet<>(open) ;
+		ids.addAll(blocking) ;
+		ids.addAll(inflation.keySet()) ;
+		return ids ;
+	}
+
+	/**
+	 * Whether the obstacle is blocking under this overlay.
+	 */
+	public boolean isBlocking(Obstacle<LineIntersectable> o) {
+		String id = ((LabEntity) o.obstacle).id ;
+		if (open.contains(id)) return false ;
+		if (blocking.contains(id)) return true ;
+		return o.isBlocking ;
+	}
+
+	/**
+	 * Whether the edge between the two navigation nodes is blocked by an obstacle,
+	 * under this overlay. An inflated obstacle blocks the edge if the edge crosses its
+	 * inflated bounding box.
+	 */
+	boolean edgeIsBlocked(SurfaceNavGraph nav, ObstacleIndex index, int v, int w) {
+		Vec3 p = nav.vertices.get(v) ;
+		Vec3 q = nav.vertices.get(w) ;
+		for (Obstacle<LineIntersectable> o : index.near(p,q,maxInflation)) {
+			if (!isBlocking(o))
+				continue ;
+			LabEntity e = (LabEntity) o.obstacle ;
+			Float a = inflation.get(e.id) ;
+			boolean crosses = a == null
+					? ! o.obstacle.intersect(p,q).isEmpty()
+					: Rooms.segmentCrossesRectangle(p, q, e.position,
+							Math.abs(e.extent.x) + a, Math.abs(e.extent.z) + a) ;
+			if (crosses)
+				return true ;
+		}
+		return false ;
+	}
+
+	/**
+	 * Check if there is a path over the seen part of the navigation graph between the
+	 * nodes nearest to the two locations, with the obstacles blocking as this overlay
+	 * says. This only reads the navigation graph. The index is used to find the
+	 * obstacles near each edge; it should be in sync with the graph.
+	 */
+	public boolean pathExists(SurfaceNavGraph nav, ObstacleIndex index, Vec3 from, Vec3 to) {
+		if (from == null || to == null)
+			return false ;
+		Integer s = nav.getNearestUnblockedVertex(from, ReachabilityMap.nodeTolerance) ;
+		Integer t = nav.getNearestUnblockedVertex(to, ReachabilityMap.nodeTolerance) ;
+		if (s == null || t == null)
+			return false ;
+		if (s.equals(t))
+			return true ;
+		BitSet visited = new BitSet() ;
+		Deque<Integer> frontier = new ArrayDeque<>() ;
+		visited.set(s) ;
+		frontier.add(s) ;
+		while (!frontier.isEmpty()) {
+			int v = frontier.poll() ;
+			for (Integer w : nav.edges.neighbours(v)) {
+				if (visited.get(w) || !nav.hasbeenSeen(w) || edgeIsBlocked(nav,index,v,w))
+					continue ;
+				if (w.equals(t))
+					return true ;
+				visited.set(w) ;
+				frontier.add(w) ;
+			}
+		}
+		return false ;
+	}
+}
@@ -0,0 +1,106 @@
+package algorithms;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.iv4xr.framework.extensions.pathfinding.SurfaceNavGraph;
+import eu.iv4xr.framework.spatial.Vec3;
+
+/**
+ * Remembers, for every sequence of buttons toggled so far (the prefix) and the
+ * button toggled next, what the agent needed to get from the state after the
+ * prefix to that next button: the navigation nodes it had seen, and the route
+ * it walked to reach the button. Replaying the same prefix later can then walk
+ * this route directly, rather than wiping the navigation memory and exploring
+ * the whole level again after every toggle.
+ *
+ * <p>As the rest of the algorithms, this assumes the game is deterministic.
+ */
+public class PrefixReplayCache {
+
+	public static class ReplayStep {
+
+		/**
+		 * Navigation nodes seen by the agent before it went to the button.
+		 */
+		public int[] seenNavNodes ;
+
+		/**
+		 * Waypoints of the route the agent walked to the button.
+		 */
+		public Vec3[] route ;
+	}
+
+	/**
+	 * The min. distance between two consecutive waypoints kept in a route.
+	 */
+	public float waypointSpacing = 1f ;
+
+	Map<List<String>,ReplayStep> steps = new ConcurrentHashMap<>() ;
+
+	public AtomicInteger hits = new AtomicInteger() ;
+	public AtomicInteger misses = new AtomicInteger() ;
+
+	List<String> key(List<String> prefix, String button) {
+		List<String> key = new ArrayList<>(prefix.size() + 1) ;
+		key.addAll(prefix) ;
+		key.add(button) ;
+		return key ;
+	}
+
+	public ReplayStep get(List<String> prefix, String button) {
+		return steps.get(key(prefix,button)) ;
+	}
+
+	/**
+	 * Record how the button was reached after the prefix. The route is given as the
+	 * positions sampled while the agent travelled to the button; it is thinned
+	 * out to waypoints that are at least {@link #waypointSpacing} apart.
+	 */
+	public void record(List<String> prefix, String button, int[] seenNavNodes, List<Vec3> positions) {
+		if (positions.isEmpty())
+			return ;
+		List<Vec3> route = new LinkedList<>() ;
+		Vec3 last = null ;
+		for (var p : positions) {
+			if (p == null) continue ;
+			if (last == null || Vec3.dist(last,p) >= waypointSpacing) {
+				route.add(p) ;
+				last = p ;
+			}
+		}
+		var end = positions.get(positions.size() - 1) ;
+		if (end != null && last != end)
+			route.add(end) ;
+		var step = new ReplayStep() ;
+		step.seenNavNodes = seenNavNodes ;
+		step.route = route.toArray(new Vec3[0]) ;
+		steps.putIfAbsent(key(prefix,button), step) ;
+	}
+	
+	/**
+	 * True if it is known how to go from the state after the prefix to the button.
+	 */
+	public boolean contains(List<String> prefix, String button) {
+		return steps.containsKey(key(prefix,button)) ;
+	}
+
+	/**
+	 * Get the navigation nodes currently marked as seen in the given navigation graph.
+	 */
+	public static int[] seenNavNodes(SurfaceNavGraph nav) {
+		int N = nav.vertices.size() ;
+		int[] seen = new int[N] ;
+		int k = 0 ;
+		for (int v = 0 ; v < N ; v++) {
+			if (nav.hasbeenSeen(v))
+				seen[k++] = v ;
+		}
+		return Arrays.copyOf(seen, k) ;
+	}
+
+	public int size() {
+		return steps.size() ;
+	}
+}
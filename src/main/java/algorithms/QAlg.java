@@ -2,69 +2,121 @@ package algorithms;
 
 import static agents.tactics.GoalLib.entityInteracted;
 
+import java.io.* ;
+import java.nio.file.Path;
 import java.util.* ;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import agents.LabRecruitsTestAgent;
+import eu.iv4xr.framework.mainConcepts.WorldEntity;
 import nl.uu.cs.aplib.utils.Pair;
 
 public class QAlg extends BaseSearchAlgorithm {
 	
-	public static class ActionInfo {
-		// public float avrgReward ;
-		// let's only use max reward:
-		public float maxReward ; 
-	}
-	
 	/**
-	 * A representation of LR-state for the Q-table. 
+	 * A representation of LR-state for the Q-table: which buttons the agent knows,
+	 * which of those are on, and whether the agent is alive. Buttons are identified by
+	 * their index in {@link QAlg#buttons}, which is kept over episodes. The state is a
+	 * bitset over these indices: bit 0 is the alive flag, and bits 1+2k and 2+2k tell
+	 * whether button k is known, and whether it is on.
 	 */
 	public static class LRQstate {
 		
-		List<String> onButtons = new LinkedList<>() ;
-		List<String> offButtons = new LinkedList<>() ;
-		//int numberOfFoundConnections = 0 ;
-		boolean alive = true ;
+		/**
+		 * The bitset, as by {@link BitSet#toLongArray()}, so without trailing zero words.
+		 */
+		long[] bits ;
 		
-		LRQstate() { }
-		LRQstate(XBelief belief) {
-			onButtons = belief.knownButtons().stream()
-								.filter(b -> belief.isOn(b))
-								.map(e -> e.id)
-								.collect(Collectors.toList());
-			onButtons.sort((s1,s2) -> s1.compareTo(s2)) ;
-			
-			offButtons = belief.knownButtons().stream()
-								.filter(b -> ! belief.isOn(b))
-								.map(e -> e.id)
-								.collect(Collectors.toList());
-			offButtons.sort((s1,s2) -> s1.compareTo(s2)) ;
-			//numberOfFoundConnections = belief.getConnections().size() ;
-			alive = belief.worldmodel().health > 0 ;
+		LRQstate(long[] bits) { 
+			this.bits = bits ;
+		}
+		
+		LRQstate(XBelief belief, QAlg alg) {
+			BitSet S = new BitSet() ;
+			for (var b : belief.knownButtons()) {
+				int k = alg.indexOf(b.id) ;
+				S.set(1 + 2*k) ;
+				if (belief.isOn(b)) S.set(2 + 2*k) ;
+			}
+			S.set(0, belief.worldmodel().health > 0) ;
+			bits = S.toLongArray() ;
+		}
+		
+		public boolean alive() {
+			return bits.length > 0 && (bits[0] & 1) != 0 ;
+		}
+		
+		/**
+		 * True if the state fits in a single non-negative long, which is the case when
+		 * the indices of its buttons are below 31.
+		 */
+		boolean isSmall() {
+			return bits.length == 0 || (bits.length == 1 && bits[0] >= 0) ;
 		}
 		
 		@Override
 		public boolean equals(Object o) {
 			if (! (o instanceof LRQstate)) return false ;
-			LRQstate o_ = (LRQstate) o ;
-			return this.onButtons.equals(o_.onButtons)
-					&& this.offButtons.equals(o_.offButtons)
-					//&& this.numberOfFoundConnections == o_.numberOfFoundConnections 
-					&& this.alive == o_.alive ;
+			return Arrays.equals(bits, ((LRQstate) o).bits) ;
 		}
 		
 		@Override
 	    public int hashCode() {
-	        return onButtons.hashCode() 
-	        		+ 31*offButtons.hashCode() 
-	        		//+ 31*numberOfFoundConnections 
-	        		+ (alive?1:0) ;
+	        return Arrays.hashCode(bits) ;
 	    }
 		
 	}
 	
-	public Map<LRQstate,Map<String,ActionInfo>> qtable = new HashMap<>() ;
+	/**
+	 * The buttons seen over all episodes, interned to the indices used by
+	 * {@link LRQstate} and by the action values in {@link #qtable}.
+	 */
+	List<String> buttons = new ArrayList<>() ;
+	Map<String,Integer> buttonIndex = new HashMap<>() ;
+	
+	/**
+	 * Keys of the states that do not fit in a single long; see {@link #keyOf(LRQstate)}.
+	 */
+	Map<LRQstate,Long> largeStateKeys = new HashMap<>() ;
+	
+	/**
+	 * Maps the key of a state to the values of the actions in that state, indexed by
+	 * button index; see {@link QTable}.
+	 */
+	public QTable qtable = new QTable(1 << 16) ;
+	
+	int indexOf(String button) {
+		Integer k = buttonIndex.get(button) ;
+		if (k == null) {
+			k = buttons.size() ;
+			buttons.add(button) ;
+			buttonIndex.put(button, k) ;
+		}
+		return k ;
+	}
+	
+	/**
+	 * The key of the state in the Q-table. A state that fits in a single non-negative
+	 * long is its own key; other states (on levels with more than 31 buttons) are
+	 * given a negative key the first time they are seen.
+	 */
+	long keyOf(LRQstate state) {
+		if (state.isSmall())
+			return state.bits.length == 0 ? 0 : state.bits[0] ;
+		return largeStateKeys.computeIfAbsent(state, s -> -1L - largeStateKeys.size()) ;
+	}
+	
+	/**
+	 * Fresh action values for a state, where the given buttons are the available
+	 * actions.
+	 */
+	float[] initialActionValues(List<? extends WorldEntity> availableButtons) {
+		for (var b : availableButtons) indexOf(b.id) ;
+		float[] values = new float[buttons.size()] ;
+		Arrays.fill(values, Float.NaN) ;
+		for (var b : availableButtons) values[buttonIndex.get(b.id)] = 0 ;
+		return values ;
+	}
 	
 	public int maxdepth = 8 ;
 	
@@ -82,6 +134,43 @@ public class QAlg extends BaseSearchAlgorithm {
 	 */
 	public float gamma = 0.99f ;
 	
+	/**
+	 * The number of simulated Q-updates (Dyna-Q), over transitions sampled from
+	 * {@link #model}, done after each episode for every real step in the episode.
+	 * With 0, only real steps update the Q-table.
+	 */
+	public int planningSteps = 0 ;
+	
+	/**
+	 * The trace-decay of Q(lambda). Every Q-update of a step is also applied to the
+	 * earlier steps of the episode, scaled down by (gamma*lambda) per step back, so that
+	 * e.g. reaching the goal credits the whole prefix of the episode at once. As in
+	 * Watkins' Q(lambda), steps before an exploratory (non-greedy) action are not
+	 * credited. With 0, only the step itself is updated.
+	 */
+	public float lambda = 0f ;
+	
+	/**
+	 * The steps of the current episode that are still eligible for credit: the key of
+	 * the state the step was done in, and the action taken. These are parallel to the
+	 * tail of {@link #trace}. The states are looked up in the Q-table again when they
+	 * are credited, as they may have been evicted in the meantime.
+	 */
+	List<Long> eligibleStates = new ArrayList<>() ;
+	List<Integer> eligibleActions = new ArrayList<>() ;
+	
+	/**
+	 * The transitions observed in real episodes.
+	 */
+	public DynaModel model = new DynaModel() ;
+	
+	public long numberOfPlanningUpdates = 0 ;
+	
+	/**
+	 * The number of real steps (toggles) done in the last episode.
+	 */
+	int stepsInEpisode = 0 ;
+	
 	public boolean singleSearchMode = true ;
 	public List<String> winningplay = null ;
 	public Set<Pair<String,String>> discoveredConnections = new HashSet<>() ; 
@@ -125,10 +214,10 @@ public class QAlg extends BaseSearchAlgorithm {
 	
 	float valueOfCurrentGameState() {
 		var S = this.getBelief() ;
-		if (topGoalPredicate != null && topGoalPredicate.test(S)) {
+		if (topGoalPredicateHolds(S)) {
 			return maxReward ;
 		}
-		return 3*S.getConnections().size() + S.getNumberOfOpenDoors() ;
+		return 3*S.getNumberOfConnections() + S.getNumberOfOpenDoors() ;
 	}
 	
 	float playEpisode() throws Exception {
@@ -139,77 +228,87 @@ public class QAlg extends BaseSearchAlgorithm {
 		// add this back to the time accounting, as we won't count LR initialization as exec-time:
 		this.remainingSearchBudget += (int) duration ;
 		
-		var qstate = new LRQstate(getBelief()) ;
+		var qstate = new LRQstate(getBelief(),this) ;
 		trace.clear();
+		eligibleStates.clear() ;
+		eligibleActions.clear() ;
+		stepsInEpisode = 0 ;
 		
-		getBelief().pathfinder().wipeOutMemory();
+		getBelief().wipeOutNavigationMemory();
 		doExplore(explorationBudget) ;
 		
-		var initialButtons = getBelief().reachableButtons() ;
-		Map<String,ActionInfo> initialActions = new HashMap<>() ;
-		for (var b : initialButtons) {
-			 var info = new ActionInfo() ;
-			 info.maxReward = 0 ;
-			 initialActions.put(b.id, info) ;
-		}
-		qtable.put(qstate,initialActions) ;
+		// the start state is the same in every episode; keep what was learned about it
+		// in earlier episodes, planning, or a restored checkpoint:
+		if (qtable.get(keyOf(qstate)) == null)
+			qtable.put(keyOf(qstate), initialActionValues(getBelief().reachableButtons())) ;
 				
 		float totalEpisodeReward = 0 ;
 		
 		while (trace.size() < maxdepth && winningplay == null) {
 			
 			System.out.println(">>> TRACE: " + trace) ;
-			var candidateActions = qtable.get(qstate) ;			
-			if (candidateActions.isEmpty()) 
+			var candidateActions = qtable.get(keyOf(qstate)) ;
+			if (candidateActions == null) {
+				// the state was evicted from the table; start it over:
+				candidateActions = initialActionValues(getBelief().reachableButtons()) ;
+				qtable.put(keyOf(qstate), candidateActions) ;
+			}
+			List<Integer> actions = new ArrayList<>() ;
+			for (int a = 0; a < candidateActions.length; a++) {
+				if (! Float.isNaN(candidateActions[a])) actions.add(a) ;
+			}
+			if (actions.isEmpty()) 
 				// no further actions is possible, so we stop the episode
 				break ;
 			
-			String chosenAction = null ;
+			int chosenAction ;
 			if (rnd.nextFloat() <= exploreProbability) {
 				// explore:
-				var actions = candidateActions.keySet().stream().toList() ;
 				chosenAction = actions.get(rnd.nextInt(actions.size())) ;
 			}
 			else {
 				float bestVal = Float.NEGATIVE_INFINITY ;
-				//System.out.println(">>> cadidates : " + candidateActions.size()) ;
-				
-				for (var a : candidateActions.entrySet()) {
-					//System.out.println(">>> " + a.getKey()  + ", " + a.getValue().maxReward) ;
-					if (a.getValue().maxReward > bestVal) {
-						bestVal = a.getValue().maxReward ;
+				for (int a : actions) {
+					if (candidateActions[a] > bestVal) {
+						bestVal = candidateActions[a] ;
 					}
 				}
 				// get the actions with the best value (we could have multiple)
-				final float bestVal_ = bestVal ;
-				var bestCandidates = candidateActions.entrySet()
-						.stream()
-						.filter(e -> e.getValue().maxReward >= bestVal_)
-						.toList() ;
-				
-				chosenAction = bestCandidates.get(rnd.nextInt(bestCandidates.size())).getKey() ;
+				List<Integer> bestCandidates = new ArrayList<>() ;
+				for (int a : actions) {
+					if (candidateActions[a] >= bestVal) bestCandidates.add(a) ;
+				}
+				chosenAction = bestCandidates.get(rnd.nextInt(bestCandidates.size())) ;
+			}
+			if (! isGreedy(candidateActions, chosenAction)) {
+				eligibleStates.clear() ;
+				eligibleActions.clear() ;
 			}
-			var button = chosenAction ;
-			var info = candidateActions.get(chosenAction) ;
-		    System.out.println(">>> chosen-action : " + chosenAction + ", info:" + info.maxReward) ;
+			eligibleStates.add(keyOf(qstate)) ;
+			eligibleActions.add(chosenAction) ;
+			var button = buttons.get(chosenAction) ;
+		    System.out.println(">>> chosen-action : " + button + ", info:" + candidateActions[chosenAction]) ;
 		    // now, execute the action:
 		    var value0 = valueOfCurrentGameState() ;
-		    trace.add(chosenAction) ;
-		    var status = solveGoal("Toggling button " + button, entityInteracted(button), budget_per_task) ;
-			var newQstate = new LRQstate(getBelief()) ;
+		    var prefix = new LinkedList<String>(trace) ;
+		    trace.add(button) ;
+		    var status = toggleButton(prefix, button) ;
+		    stepsInEpisode++ ;
+			var newQstate = new LRQstate(getBelief(),this) ;
 			// if the agent is dead, break:
 			if (agent.getState().worldmodel().health <= 0) {
-				 info.maxReward = -100 ;
+				 updateQ(keyOf(qstate), chosenAction, -100, 1) ;
+				 model.record(keyOf(qstate), chosenAction, -100, keyOf(newQstate), true) ;
 				 return totalEpisodeReward ;
 			}
 			// also break the execution if a button fails:
 			if (!status.success()) {
-				 info.maxReward = -100 ;
+				 updateQ(keyOf(qstate), chosenAction, -100, 1) ;
+				 model.record(keyOf(qstate), chosenAction, -100, keyOf(newQstate), true) ;
 				 return totalEpisodeReward ;
 			}
 			 
-			 getBelief().pathfinder().wipeOutMemory();
-			 doExplore(explorationBudget) ;
+			 exploreAfterToggle(trace, null) ;
 			 // we are now at the "next state" T reached after executing the chosen action,
 			 // and exploration is done to evaluate the reward of that state.
 			 var T = getBelief() ;
@@ -226,35 +325,29 @@ public class QAlg extends BaseSearchAlgorithm {
 					 winningplay.addAll(trace) ; 
 				 }
 				 totalEpisodeReward = value1 ;
-				 info.maxReward = totalEpisodeReward ;
+				 updateQ(keyOf(qstate), chosenAction, totalEpisodeReward, 1) ;
+				 model.record(keyOf(qstate), chosenAction, totalEpisodeReward, keyOf(newQstate), true) ;
 				 return totalEpisodeReward ;	 
 			 }
 			 // else :
 			 // calculate the maximum rewards if we continue from newQstate:
 			 // note that the trace is already extendced with the last action taken
-			 var nextnextActions = qtable.get(newQstate) ;
+			 var nextnextActions = qtable.get(keyOf(newQstate)) ;
 			 float S_maxNextReward = -100 ;
 			 if (nextnextActions == null) {
-				 var reachableButtons = T.reachableButtons() ;
-				 nextnextActions = new HashMap<>() ;
-				 for (var b : reachableButtons) {
-					 var info2 = new ActionInfo() ;
-					 info2.maxReward = 0 ;
-					 nextnextActions.put(b.id, info2) ;
-				 }
-				 qtable.put(newQstate, nextnextActions) ;
+				 qtable.put(keyOf(newQstate), initialActionValues(T.reachableButtons())) ;
 				 S_maxNextReward = 0 ;
 			 }
 			 else {
-				 for (var a : nextnextActions.entrySet()) {
-						if (a.getValue().maxReward > S_maxNextReward) {
-							S_maxNextReward = a.getValue().maxReward ;
+				 for (float v : nextnextActions) {
+						if (v > S_maxNextReward) {
+							S_maxNextReward = v ;
 						}
 				 }
 			 }
 			 // calculate the new qvalue of (qstate,a):
-			 info.maxReward = (1 - alpha) * info.maxReward
-					           + alpha * (reward + gamma * S_maxNextReward) ;
+			 updateQ(keyOf(qstate), chosenAction, reward + gamma * S_maxNextReward, alpha) ;
+			 model.record(keyOf(qstate), chosenAction, reward, keyOf(newQstate), false) ;
 			 
 			 qstate = newQstate;
 			
@@ -263,6 +356,119 @@ public class QAlg extends BaseSearchAlgorithm {
 		return totalEpisodeReward ;
 	}
 	
+	boolean isGreedy(float[] Q, int a) {
+		for (float v : Q) {
+			if (v > Q[a]) return false ;
+		}
+		return true ;
+	}
+	
+	/**
+	 * Move the value of the action in the state (the last step of the episode) towards
+	 * the target, by the given step size; 1 sets it to the target, as is done when the
+	 * episode ends. The earlier eligible steps are credited with alpha times the same
+	 * TD-error, scaled by (gamma*lambda) per step back. States that are no longer in
+	 * the Q-table are skipped.
+	 */
+	void updateQ(long state, int a, float target, float stepSize) {
+		float[] Q = qtable.get(state) ;
+		if (Q == null)
+			return ;
+		float delta = target - Q[a] ;
+		Q[a] += stepSize * delta ;
+		if (lambda <= 0)
+			return ;
+		float e = 1 ;
+		for (int i = eligibleStates.size() - 2; i >= 0; i--) {
+			e *= gamma * lambda ;
+			if (e < 0.0001f) break ;
+			float[] Qi = qtable.get(eligibleStates.get(i)) ;
+			if (Qi != null)
+				Qi[eligibleActions.get(i)] += e * alpha * delta ;
+		}
+	}
+	
+	/**
+	 * Dyna-Q planning: do the given number of Q-updates over transitions sampled from
+	 * the {@link #model}, as if they were real steps. This does not touch the SUT.
+	 * Transitions from states no longer in the Q-table are skipped.
+	 */
+	void plan(int updates) {
+		if (model.size() == 0)
+			return ;
+		for (int k = 0; k < updates; k++) {
+			int t = model.sample(rnd) ;
+			float[] Q = qtable.get(model.from[t]) ;
+			int a = model.action[t] ;
+			if (Q == null || a >= Q.length || Float.isNaN(Q[a]))
+				continue ;
+			numberOfPlanningUpdates++ ;
+			if (model.terminal[t]) {
+				Q[a] = model.reward[t] ;
+				continue ;
+			}
+			// as in playEpisode, a next state without values counts as 0:
+			float[] next = qtable.get(model.to[t]) ;
+			float maxNext = next == null ? 0 : -100 ;
+			if (next != null) {
+				for (float v : next) {
+					if (v > maxNext) maxNext = v ;
+				}
+			}
+			Q[a] = (1 - alpha) * Q[a] + alpha * (model.reward[t] + gamma * maxNext) ;
+		}
+	}
+	
+	/**
+	 * The Q-table, the interned buttons and states it is indexed by, and the Dyna
+	 * model.
+	 */
+	@Override
+	byte[] checkpointData() throws IOException {
+		var bytes = new ByteArrayOutputStream() ;
+		var out = Checkpointer.header(bytes, Checkpointer.QALG) ;
+		out.writeInt(buttons.size()) ;
+		for (String b : buttons) out.writeUTF(b) ;
+		out.writeInt(largeStateKeys.size()) ;
+		for (var e : largeStateKeys.entrySet()) {
+			out.writeInt(e.getKey().bits.length) ;
+			for (long w : e.getKey().bits) out.writeLong(w) ;
+			out.writeLong(e.getValue()) ;
+		}
+		qtable.write(out) ;
+		model.write(out) ;
+		out.flush() ;
+		return bytes.toByteArray() ;
+	}
+	
+	/**
+	 * Load the Q-table and the Dyna model from a checkpoint written by an earlier run
+	 * on the same level, e.g. to resume a run that was stopped, or to warm-start a new
+	 * one. This should be done before the algorithm is run. Returns false if the file
+	 * does not exist.
+	 */
+	public boolean restoreCheckpoint(Path file) throws IOException {
+		var in = Checkpointer.open(file, Checkpointer.QALG) ;
+		if (in == null) 
+			return false ;
+		buttons.clear() ;
+		buttonIndex.clear() ;
+		int n = in.readInt() ;
+		for (int k = 0; k < n; k++) indexOf(in.readUTF()) ;
+		largeStateKeys.clear() ;
+		n = in.readInt() ;
+		for (int k = 0; k < n; k++) {
+			long[] bits = new long[in.readInt()] ;
+			for (int i = 0; i < bits.length; i++) bits[i] = in.readLong() ;
+			largeStateKeys.put(new LRQstate(bits), in.readLong()) ;
+		}
+		qtable.clear() ;
+		qtable.read(in) ;
+		model.clear() ;
+		model.read(in) ;
+		return true ;
+	}
+	
 	@Override
 	public void runAlgorithm() throws Exception {
 		long time = System.currentTimeMillis() ;
@@ -272,6 +478,8 @@ public class QAlg extends BaseSearchAlgorithm {
 			long time2 =  System.currentTimeMillis() ;
 			System.out.println(">>> episode : " + numOfEpisodes) ;
 			var episodeAward = playEpisode() ;
+			if (planningSteps > 0 && ! isTopGoalSolved())
+				plan(planningSteps * stepsInEpisode) ;
 			var cons = getBelief().getConnections() ;
 			for (var c : cons) {
 				discoveredConnections.add(c) ;
@@ -281,7 +489,11 @@ public class QAlg extends BaseSearchAlgorithm {
 			totNumberOfRuns++ ;
 			long duration = System.currentTimeMillis() - time2 ;
 			remainingSearchBudget = remainingSearchBudget - (int) duration ;
+			checkpoint(false) ;
 		}
+		checkpoint(true) ;
+		if (checkpointer != null) 
+			checkpointer.flush() ;
 		time =  System.currentTimeMillis() - time ;
 		System.out.println("** Q-learning") ;
 		System.out.println("** total-runtime=" + time + ", #turns=" + this.turn) ;
@@ -289,6 +501,10 @@ public class QAlg extends BaseSearchAlgorithm {
 				+ ", unused=" + Math.max(0,this.remainingSearchBudget)) ;
 		System.out.println("** #plays=" + numOfEpisodes) ;
 		System.out.println("** avrg episode reward=" + totEpisodeAward/(float) numOfEpisodes) ;
+		System.out.println("** Q-table: " + qtable.statistics()) ;
+		if (planningSteps > 0)
+			System.out.println("** Dyna-Q: #transitions=" + model.size() 
+					+ ", #planning-updates=" + numberOfPlanningUpdates) ;
 		System.out.print("** Search-goal: ") ;
 		if (topGoalPredicate == null) {
 			System.out.println(" none specified") ;
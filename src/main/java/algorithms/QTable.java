@@ -0,0 +1,191 @@
+package algorithms;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * A Q-table for {@link QAlg}: it maps the key of a state (see
+ * {@link QAlg#keyOf(QAlg.LRQstate)}) to the values of the actions available in that state.
+ * The values are kept in a float[] indexed by the interned index of the action's
+ * button; an action that is not available in the state has NaN as value.
+ *
+ * <p>The table is an open-addressing hash table over primitive keys, with linear
+ * probing. Its capacity is bounded: when it is full, a state is evicted to make room,
+ * chosen with the CLOCK policy, i.e. a state that has not been looked up since the
+ * clock hand last passed it. The number of hits, misses and evictions are counted.
+ */
+public class QTable {
+
+	long[] keys ;
+	float[][] values ;
+	boolean[] occupied ;
+
+	/**
+	 * The CLOCK reference bits: set when a state is looked up, cleared when the clock
+	 * hand passes it.
+	 */
+	boolean[] referenced ;
+	int hand = 0 ;
+
+	int size = 0 ;
+	int maxSize ;
+	int mask ;
+
+	public long hits = 0 ;
+	public long misses = 0 ;
+	public long evictions = 0 ;
+
+	/**
+	 * Create a table that holds at most maxStates states.
+	 */
+	public QTable(int maxStates) {
+		maxSize = Math.max(1,maxStates) ;
+		// keep the load factor at most 3/4, and at least one slot free, so that probing
+		// for an absent key ends:
+		int capacity = Integer.highestOneBit(maxSize + maxSize/3) << 1 ;
+		mask = capacity - 1 ;
+		keys = new long[capacity] ;
+		values = new float[capacity][] ;
+		occupied = new boolean[capacity] ;
+		referenced = new boolean[capacity] ;
+	}
+
+	static int hash(long key) {
+		key ^= key >>> 33 ;
+		key *= 0xff51afd7ed558ccdL ;
+		key ^= key >>> 33 ;
+		return (int) key ;
+	}
+
+	/**
+	 * The slot of the key, or -1 if it is not in the table.
+	 */
+	int slotOf(long key) {
+		for (int k = hash(key) & mask ; occupied[k] ; k = (k + 1) & mask) {
+			if (keys[k] == key)
+				return k ;
+		}
+		return -1 ;
+	}
+
+	/**
+	 * The action values of the state, or null if the state is not in the table. The
+	 * array is the one in the table, so updating it updates the table.
+	 */
+	public float[] get(long key) {
+		int k = slotOf(key) ;
+		if (k < 0) {
+			misses++ ;
+			return null ;
+		}
+		hits++ ;
+		referenced[k] = true ;
+		return values[k] ;
+	}
+
+	public boolean contains(long key) {
+		return slotOf(key) >= 0 ;
+	}
+
+	/**
+	 * Put the action values of a state, replacing the old ones if the state is already
+	 * in the table. If the table is full, another state is evicted.
+	 */
+	public void put(long key, float[] actionValues) {
+		int k = slotOf(key) ;
+		if (k >= 0) {
+			values[k] = actionValues ;
+			referenced[k] = true ;
+			return ;
+		}
+		if (size == maxSize)
+			evict() ;
+		for (k = hash(key) & mask ; occupied[k] ; k = (k + 1) & mask) { }
+		keys[k] = key ;
+		values[k] = actionValues ;
+		occupied[k] = true ;
+		referenced[k] = true ;
+		size++ ;
+	}
+
+	void evict() {
+		while (!occupied[hand] || referenced[hand]) {
+			referenced[hand] = false ;
+			hand = (hand + 1) & mask ;
+		}
+		remove(hand) ;
+		evictions++ ;
+	}
+
+	/**
+	 * Empty the slot, and shift back the entries after it that would otherwise no
+	 * longer be found by probing.
+	 */
+	void remove(int k) {
+		occupied[k] = false ;
+		values[k] = null ;
+		size-- ;
+		int hole = k ;
+		for (int j = (k + 1) & mask ; occupied[j] ; j = (j + 1) & mask) {
+			int home = hash(keys[j]) & mask ;
+			// the entry at j can move to the hole if its home is not in (hole,j]:
+			boolean homeInBetween = hole <= j ? (hole < home && home <= j) : (hole < home || home <= j) ;
+			if (homeInBetween)
+				continue ;
+			keys[hole] = keys[j] ;
+			values[hole] = values[j] ;
+			referenced[hole] = referenced[j] ;
+			occupied[hole] = true ;
+			occupied[j] = false ;
+			values[j] = null ;
+			hole = j ;
+		}
+	}
+
+	public int size() {
+		return size ;
+	}
+
+	public int maxSize() {
+		return maxSize ;
+	}
+
+	public void clear() {
+		Arrays.fill(occupied, false) ;
+		Arrays.fill(values, null) ;
+		Arrays.fill(referenced, false) ;
+		size = 0 ;
+		hand = 0 ;
+	}
+
+	/**
+	 * Write the states and their action values.
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(size) ;
+		for (int k = 0 ; k < keys.length ; k++) {
+			if (!occupied[k]) continue ;
+			out.writeLong(keys[k]) ;
+			out.writeInt(values[k].length) ;
+			for (float v : values[k]) out.writeFloat(v) ;
+		}
+	}
+
+	/**
+	 * Add the states written by {@link #write(DataOutputStream)}.
+	 */
+	public void read(DataInputStream in) throws IOException {
+		int n = in.readInt() ;
+		for (int i = 0 ; i < n ; i++) {
+			long key = in.readLong() ;
+			float[] actionValues = new float[in.readInt()] ;
+			for (int a = 0 ; a < actionValues.length ; a++) actionValues[a] = in.readFloat() ;
+			put(key, actionValues) ;
+		}
+	}
+
+	public String statistics() {
+		return "#states=" + size + "/" + maxSize + ", hits=" + hits + ", misses=" + misses
+				+ ", evictions=" + evictions ;
+	}
+}
@@ -0,0 +1,155 @@
+package algorithms;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.iv4xr.framework.spatial.Vec3;
+
+/**
+ * Remembers the outcome of reachability queries (whether a path exists from the
+ * agent to some target location), so that a query that was answered before does
+ * not need another path search. A query is identified by the tile the agent is
+ * in, the target location, which doors are blocking, and which are inflated; it is
+ * answered from the center of the tile. In particular, "what if this door were
+ * open" queries, which are asked under an {@link ObstacleOverlay}, are cached under
+ * the state the overlay results in.
+ *
+ * <p>It also keeps the last {@link ReachabilityMap}, which answers the queries
+ * for all buttons and doors at once.
+ *
+ * <p>The answers also depend on the part of the navigation graph the agent has
+ * seen. The owner of the cache should {@link #clear()} it when that changes.
+ *
+ * <p>The cache can be queried and filled concurrently.
+ */
+public class ReachabilityCache {
+
+	/**
+	 * The part of a query that describes the state it is asked in.
+	 */
+	static class StateKey {
+		final int agentX ;
+		final int agentZ ;
+		final BitSet blockingDoors ;
+
+		/**
+		 * The inflated extents of the overlay the query is asked under.
+		 */
+		final Map<String,Float> inflation ;
+
+		StateKey(Vec3 agentPosition, BitSet blockingDoors, Map<String,Float> inflation) {
+			agentX = (int) Math.floor(agentPosition.x + 0.5) ;
+			agentZ = (int) Math.floor(agentPosition.z + 0.5) ;
+			this.blockingDoors = blockingDoors ;
+			this.inflation = inflation ;
+		}
+
+		/**
+		 * The center of the agent's tile, at the height of the given floor position;
+		 * queries in this state are answered from there. Null if the position is null.
+		 */
+		Vec3 tileCenter(Vec3 floorPosition) {
+			return floorPosition == null ? null : new Vec3(agentX, floorPosition.y, agentZ) ;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof StateKey)) return false ;
+			var k = (StateKey) o ;
+			return agentX == k.agentX && agentZ == k.agentZ
+					&& blockingDoors.equals(k.blockingDoors) && inflation.equals(k.inflation) ;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(agentX, agentZ, blockingDoors, inflation) ;
+		}
+	}
+
+	static class Key {
+		final StateKey state ;
+		final float targetX ;
+		final float targetY ;
+		final float targetZ ;
+
+		Key(StateKey state, Vec3 target) {
+			this.state = state ;
+			targetX = target.x ;
+			targetY = target.y ;
+			targetZ = target.z ;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false ;
+			var k = (Key) o ;
+			return targetX == k.targetX && targetY == k.targetY && targetZ == k.targetZ
+					&& state.equals(k.state) ;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(state, targetX, targetY, targetZ) ;
+		}
+	}
+
+	Map<Key,Boolean> memo = new ConcurrentHashMap<>() ;
+
+	public AtomicInteger hits = new AtomicInteger() ;
+	public AtomicInteger misses = new AtomicInteger() ;
+
+	public Boolean get(Key key) {
+		Boolean r = memo.get(key) ;
+		if (r == null) misses.incrementAndGet() ;
+		else hits.incrementAndGet() ;
+		return r ;
+	}
+
+	public void put(Key key, boolean reachable) {
+		memo.put(key, reachable) ;
+	}
+
+	/**
+	 * A reachability map, and the state it was computed in.
+	 */
+	static class MapEntry {
+		final StateKey state ;
+		final ReachabilityMap map ;
+
+		MapEntry(StateKey state, ReachabilityMap map) {
+			this.state = state ;
+			this.map = map ;
+		}
+	}
+
+	/**
+	 * The last computed {@link ReachabilityMap}. The map and its state are replaced
+	 * together, so that queries running concurrently never see the map of one state
+	 * paired with another.
+	 */
+	volatile MapEntry lastMap ;
+
+	/**
+	 * Get the reachability map of the given state, if it was computed already; else null.
+	 */
+	public ReachabilityMap getMap(StateKey state) {
+		var entry = lastMap ;
+		if (entry != null && state.equals(entry.state))
+			return entry.map ;
+		return null ;
+	}
+
+	public void putMap(StateKey state, ReachabilityMap map) {
+		lastMap = new MapEntry(state, map) ;
+	}
+
+	public void clear() {
+		memo.clear() ;
+		lastMap = null ;
+	}
+
+	public int size() {
+		return memo.size() ;
+	}
+}
@@ -0,0 +1,132 @@
+package algorithms;
+
+import java.util.*;
+
+import eu.iv4xr.framework.extensions.pathfinding.SurfaceNavGraph;
+import eu.iv4xr.framework.spatial.Vec3;
+
+/**
+ * The distances from the agent's navigation node to all other nodes of the
+ * navigation graph, computed with a single Dijkstra flood over the graph as the
+ * pathfinder currently sees it (so, respecting blocking obstacles and the seen
+ * nodes, as {@link SurfaceNavGraph#neighbours(Integer)} does). This answers
+ * reachability and path cost to every button and door at once, rather than
+ * running a path search per entity.
+ *
+ * <p>If it is given an {@link ObstacleIndex}, an edge is only tested against the
+ * obstacles near it, rather than against all obstacles of the graph.
+ */
+public class ReachabilityMap {
+
+	/**
+	 * The max. distance between a location and the navigation node that is taken to
+	 * represent it.
+	 */
+	public static float nodeTolerance = 0.5f ;
+
+	SurfaceNavGraph nav ;
+
+	/**
+	 * The index over the obstacles of nav, or null to let nav test all obstacles.
+	 */
+	ObstacleIndex obstacles ;
+
+	/**
+	 * cost[v] is the length of the shortest path from the source to node v, or
+	 * infinity if v is not reachable.
+	 */
+	float[] cost ;
+
+	/**
+	 * Cost of reaching the entities that were given when the map was computed.
+	 */
+	Map<String,Float> entityCost = new HashMap<>() ;
+
+	/**
+	 * Flood the navigation graph from the node nearest to the given source location,
+	 * and then look up the cost to each of the given entity locations.
+	 */
+	public ReachabilityMap(SurfaceNavGraph nav, Vec3 source, Map<String,Vec3> entities) {
+		this(nav, null, source, entities) ;
+	}
+
+	/**
+	 * As {@link #ReachabilityMap(SurfaceNavGraph, Vec3, Map)}, using the index to find
+	 * the obstacles that may block an edge. The index should be in sync with the graph.
+	 */
+	public ReachabilityMap(SurfaceNavGraph nav, ObstacleIndex obstacles, Vec3 source, Map<String,Vec3> entities) {
+		this.nav = nav ;
+		this.obstacles = obstacles ;
+		int N = nav.vertices.size() ;
+		cost = new float[N] ;
+		Arrays.fill(cost, Float.POSITIVE_INFINITY) ;
+		Integer s = source == null ? null : nav.getNearestUnblockedVertex(source, nodeTolerance) ;
+		if (s != null)
+			flood(s) ;
+		for (var e : entities.entrySet()) {
+			entityCost.put(e.getKey(), costTo(e.getValue())) ;
+		}
+	}
+
+	void flood(int source) {
+		// entries are (cost,node); stale entries are skipped when polled
+		PriorityQueue<float[]> queue = new PriorityQueue<>((a,b) -> Float.compare(a[0],b[0])) ;
+		cost[source] = 0 ;
+		queue.add(new float[] { 0, source }) ;
+		while (!queue.isEmpty()) {
+			var top = queue.poll() ;
+			int v = (int) top[1] ;
+			if (top[0] > cost[v])
+				continue ;
+			for (Integer w : neighbours(v)) {
+				float c = cost[v] + nav.distance(v,w) ;
+				if (c < cost[w]) {
+					cost[w] = c ;
+					queue.add(new float[] { c, w }) ;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The seen nodes next to v over an edge that no obstacle blocks.
+	 */
+	Iterable<Integer> neighbours(int v) {
+		if (obstacles == null)
+			return nav.neighbours(v) ;
+		List<Integer> result = new ArrayList<>() ;
+		for (Integer w : nav.edges.neighbours(v)) {
+			if (nav.hasbeenSeen(w) && !ObstacleOverlay.NONE.edgeIsBlocked(nav,obstacles,v,w))
+				result.add(w) ;
+		}
+		return result ;
+	}
+
+	/**
+	 * The cost of reaching the navigation node nearest to the location, or infinity
+	 * if it cannot be reached.
+	 */
+	public float costTo(Vec3 location) {
+		Integer v = location == null ? null : nav.getNearestUnblockedVertex(location, nodeTolerance) ;
+		if (v == null)
+			return Float.POSITIVE_INFINITY ;
+		return cost[v] ;
+	}
+
+	public boolean isReachable(Vec3 location) {
+		return costTo(location) < Float.POSITIVE_INFINITY ;
+	}
+
+	/**
+	 * The cost of reaching the entity, or infinity if it cannot be reached or was not
+	 * given when the map was computed.
+	 */
+	public float costTo(String entity) {
+		Float c = entityCost.get(entity) ;
+		return c == null ? Float.POSITIVE_INFINITY : c ;
+	}
+
+	public boolean isReachable(String entity) {
+		return costTo(entity) < Float.POSITIVE_INFINITY ;
+	}
+}
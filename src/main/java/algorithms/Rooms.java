@@ -2,23 +2,30 @@ package algorithms;
 
 import java.util.*;
 
-import eu.iv4xr.framework.mainConcepts.WorldEntity;
+import eu.iv4xr.framework.extensions.pathfinding.SurfaceNavGraph;
 import eu.iv4xr.framework.spatial.Vec3;
+import world.LabEntity;
 
 /**
  * A model of how a level is built from rooms. Currently we don't represent the connectivity
  * between rooms --> Samira :D
- * 
+ *
+ * <p>A room is a connected component of the part of the navigation graph seen so far, where
+ * every door, open or not, cuts the edges that cross it. The components are maintained
+ * incrementally with a union-find structure as new navigation nodes are seen; they are only
+ * rebuilt when a new door is found. Only components containing at least one button count as
+ * rooms. The doors of a room are the doors on its border.
+ *
  * NOTE:
- * 
+ *
  * The algorithm to identify rooms used here is a bit naive. It assumes that the sub nav-graph H
  * seen so-far is always enough to accurately determine the reachability between any two nodes
  * in that subgraph. This assumption is broken for example when there is a closed between two
  * nodes in H. So, in H they appear to be unreachable from each other. But in the total graph
- * there might be a path that connect them. 
+ * there might be a path that connect them.
  */
 public class Rooms {
-	
+
 	/**
 	 * A class representing a single room.
 	 */
@@ -27,146 +34,292 @@ public class Rooms {
 		String id;
 		List<String> buttons = new LinkedList<>();
 		List<String> doors = new LinkedList<>();
-		List<String> doorsNotInThisRoom = new LinkedList<>();
-		
-		/**
-		 * A pointer to the BeliefState to which this "Room" is being kept track.
-		 */
-		XBelief enclosingBelief;
-
-		public Room(String id, XBelief belief) {
+
+		public Room(String id) {
 			this.id = id;
-			enclosingBelief = belief;
 		}
+	}
 
-		/**
-		 * Register a button to this room, if it belongs to it. It returns true if the button
-		 * is already in the room, or if it is added. Else it returns  false.
-		 */
-		public boolean registerButton(String button) {
-			if (buttons.contains(button))
-				return true;
-			if (buttons.isEmpty()) {
-				buttons.add(button);
-				return true ;
-			}
-			Vec3 agentOriginalPosition = enclosingBelief.worldmodel.position;
-			Map<String, Boolean> originalDoorBlockingState = enclosingBelief.getDoorsBlockingState() ;
-
-			WorldEntity b0 = enclosingBelief.worldmodel.getElement(buttons.get(0));
-			enclosingBelief.worldmodel.position = b0.position.copy();
-			enclosingBelief.worldmodel.position.y = agentOriginalPosition.y ;
-			boolean added = false ; 
-			enclosingBelief.fakelyMakeAlldoorsBlocking(null);
-			if (enclosingBelief.buttonIsReachable(button)) {
-				buttons.add(button);
-				added = true ;
+	/**
+	 * Half the width of the square around a door; navigation edges that cross this square are
+	 * cut by the door.
+	 */
+	public static float doorCutHalfWidth = 0.75f ;
+
+	/**
+	 * A pointer to the BeliefState to which the "Rooms" are being kept track.
+	 */
+	XBelief enclosingBelief;
+
+	List<String> buttons = new ArrayList<>() ;
+	Map<String,Vec3> doorPositions = new LinkedHashMap<>() ;
+
+	/**
+	 * Navigation nodes that have been added to the components.
+	 */
+	BitSet nodesInComponents = new BitSet() ;
+	List<Integer> pendingNodes = new ArrayList<>() ;
+	boolean rebuildNeeded = false ;
+
+	/**
+	 * The union-find forest over navigation nodes.
+	 */
+	int[] parent = new int[0] ;
+
+	/**
+	 * For every door, the navigation nodes at either side of the edges it cuts.
+	 */
+	Map<String,Set<Integer>> doorBorders = new HashMap<>() ;
+
+	/**
+	 * Navigation nodes closest to entities and to agent tiles, once found. These depend
+	 * on which doors block, so they are forgotten when a door is added or changes state.
+	 */
+	Map<String,Integer> entityNode = new HashMap<>() ;
+	Map<Long,Integer> tileNode = new HashMap<>() ;
+
+	/**
+	 * The rooms, by the root of their component. This is recomputed when the components
+	 * or the set of buttons change.
+	 */
+	Map<Integer,Room> roomsByRoot = null ;
+
+	public Rooms(XBelief belief) {
+		enclosingBelief = belief ;
+	}
+
+	SurfaceNavGraph nav() {
+		return enclosingBelief.pathfinder() ;
+	}
+
+	public void registerButton(String button) {
+		if (buttons.contains(button)) return ;
+		buttons.add(button) ;
+		roomsByRoot = null ;
+	}
+
+	/**
+	 * Register a door. Since the door may cut edges that were already used to join
+	 * components, this causes the components to be rebuilt on the next query.
+	 */
+	public void registerDoor(String door) {
+		if (doorPositions.containsKey(door)) return ;
+		LabEntity d = enclosingBelief.worldmodel.getElement(door) ;
+		doorPositions.put(door, d == null ? null : d.getFloorPosition()) ;
+		rebuildNeeded = true ;
+		doorStateChanged() ;
+	}
+
+	/**
+	 * Tell the model that a door opened or closed. The nearest unblocked navigation
+	 * nodes of entities and tiles may then differ, so they are looked up again.
+	 */
+	public void doorStateChanged() {
+		entityNode.clear() ;
+		tileNode.clear() ;
+		roomsByRoot = null ;
+	}
+
+	/**
+	 * Tell the model that the agent has seen the given navigation node.
+	 */
+	public void registerSeenNavNode(int node) {
+		if (!nodesInComponents.get(node))
+			pendingNodes.add(node) ;
+	}
+
+	/**
+	 * Bring the components up to date with the nodes and doors registered so far.
+	 */
+	public void update() {
+		if (rebuildNeeded) {
+			rebuildNeeded = false ;
+			for (int v = nodesInComponents.nextSetBit(0) ; v >= 0 ; v = nodesInComponents.nextSetBit(v+1))
+				pendingNodes.add(v) ;
+			nodesInComponents.clear();
+			Arrays.fill(parent, -1) ;
+			doorBorders.clear();
+			for (var D : doorPositions.entrySet()) {
+				if (D.getValue() == null) {
+					LabEntity d = enclosingBelief.worldmodel.getElement(D.getKey()) ;
+					if (d != null) D.setValue(d.getFloorPosition()) ;
+				}
 			}
-			// restore the state:
-			enclosingBelief.worldmodel.position = agentOriginalPosition;
-			enclosingBelief.restoreDoorsBlockingState(originalDoorBlockingState,null);
-			
-			return added ;
 		}
+		if (pendingNodes.isEmpty())
+			return ;
+		for (int v : pendingNodes)
+			addNode(v) ;
+		pendingNodes.clear();
+		roomsByRoot = null ;
+	}
 
-		/**
-		 * Register a door to a room. The room should contains at least one button. It returns true if
-		 * the door is already in the room, or if it is added to the room. Else false.
-		 */
-		public boolean registerDoor(String door) {
-			if (doors.contains(door))
-				return true ;
-			if (buttons.isEmpty())
-				return false ;
-			Vec3 agentOriginalPosition = enclosingBelief.worldmodel.position;
-			Map<String, Boolean> originalDoorBlockingState = enclosingBelief.getDoorsBlockingState() ;
-
-			WorldEntity b0 = enclosingBelief.worldmodel.getElement(buttons.get(0));
-			enclosingBelief.worldmodel.position = b0.position.copy();
-			enclosingBelief.worldmodel.position.y = agentOriginalPosition.y ;
-			enclosingBelief.fakelyMakeAlldoorsBlocking(door);
-			boolean added = false ;
-			if (enclosingBelief.doorIsReachable(door)) {
-				doors.add(door);
-				added = true ;
-			}
-			else {
-				// adding this somehow screws the logc. Probly has something to do with
-				// seen area so far that may make a door in a room appears unreachable 
-				// at first.
-				// Disabling it:
-				//doorsNotInThisRoom.add(door) ;
+	void addNode(int v) {
+		if (nodesInComponents.get(v)) return ;
+		var nav = nav() ;
+		if (v >= parent.length) {
+			int oldLength = parent.length ;
+			parent = Arrays.copyOf(parent, Math.max(v+1, Math.max(16, 2*oldLength))) ;
+			Arrays.fill(parent, oldLength, parent.length, -1) ;
+		}
+		parent[v] = v ;
+		nodesInComponents.set(v) ;
+		for (Integer w : nav.edges.neighbours(v)) {
+			if (!nodesInComponents.get(w)) continue ;
+			String door = doorCutting(nav.vertices.get(v), nav.vertices.get(w)) ;
+			if (door != null) {
+				var border = doorBorders.computeIfAbsent(door, d -> new HashSet<>()) ;
+				border.add(v) ;
+				border.add(w) ;
 			}
-			//for(String btn : buttons) {
-			//	System.out.println("   > " + btn) ;
-			//}
-
-			// restore the state:
-			enclosingBelief.worldmodel.position = agentOriginalPosition;
-			enclosingBelief.restoreDoorsBlockingState(originalDoorBlockingState,door);
-			
-			return added ;
+			else union(v,w) ;
 		}
+	}
 
+	int find(int v) {
+		while (parent[v] != v) {
+			parent[v] = parent[parent[v]] ;
+			v = parent[v] ;
+		}
+		return v ;
 	}
-	
-	
-	
-	public Set<Room> rooms = new HashSet<>() ;
-	
+
+	void union(int v, int w) {
+		int r1 = find(v) ;
+		int r2 = find(w) ;
+		if (r1 != r2) parent[Math.max(r1,r2)] = Math.min(r1,r2) ;
+	}
+
 	/**
-	 * A pointer to the BeliefState to which the "Rooms" are being kept track.
+	 * Return a door whose square the segment pq crosses, or null if there is none. Only
+	 * the doors near the segment, according to the belief's obstacle index, are checked.
 	 */
-	XBelief enclosingBelief;
-	
-	public Rooms(XBelief belief) {
-		enclosingBelief = belief ;
+	String doorCutting(Vec3 p, Vec3 q) {
+		for (var o : enclosingBelief.obstacleIndex().near(p, q, doorCutHalfWidth)) {
+			String door = ((LabEntity) o.obstacle).id ;
+			Vec3 c = doorPositions.get(door) ;
+			if (c == null) continue ;
+			if (Math.abs((p.y + q.y)/2 - c.y) > 1f) continue ;
+			if (segmentCrossesSquare(p, q, c, doorCutHalfWidth))
+				return door ;
+		}
+		return null ;
 	}
-	
-	public void registerButton(String button) {
-		for(Room R : rooms) {
-			if (R.buttons.contains(button)) return ;
-		}		
-		for(Room R : rooms) {
-			boolean registered = R.registerButton(button) ;
-			if (registered) return ;
+
+	/**
+	 * Check if the segment pq crosses the square with the given center and half-width,
+	 * projected on the xz-plane.
+	 */
+	static boolean segmentCrossesSquare(Vec3 p, Vec3 q, Vec3 center, float halfWidth) {
+		return segmentCrossesRectangle(p, q, center, halfWidth, halfWidth) ;
+	}
+
+	/**
+	 * Check if the segment pq crosses the rectangle with the given center and
+	 * half-widths in x and z, projected on the xz-plane.
+	 */
+	static boolean segmentCrossesRectangle(Vec3 p, Vec3 q, Vec3 center, float halfX, float halfZ) {
+		float dx = q.x - p.x ;
+		float dz = q.z - p.z ;
+		float[] directions = { -dx, dx, -dz, dz } ;
+		float[] distances = {
+				p.x - (center.x - halfX), (center.x + halfX) - p.x,
+				p.z - (center.z - halfZ), (center.z + halfZ) - p.z } ;
+		float t0 = 0 ;
+		float t1 = 1 ;
+		for (int k = 0 ; k < 4 ; k++) {
+			if (directions[k] == 0) {
+				if (distances[k] < 0) return false ;
+				continue ;
+			}
+			float t = distances[k] / directions[k] ;
+			if (directions[k] < 0) t0 = Math.max(t0,t) ;
+			else t1 = Math.min(t1,t) ;
+			if (t0 > t1) return false ;
+		}
+		return true ;
+	}
+
+	/**
+	 * The navigation node nearest to the given location, or null if there is none.
+	 */
+	Integer nodeAt(Vec3 p) {
+		if (p == null) return null ;
+		return nav().getNearestUnblockedVertex(p, ReachabilityMap.nodeTolerance) ;
+	}
+
+	Integer nodeOfEntity(String id) {
+		Integer v = entityNode.get(id) ;
+		if (v == null) {
+			LabEntity e = enclosingBelief.worldmodel.getElement(id) ;
+			v = e == null ? null : nodeAt(e.getFloorPosition()) ;
+			if (v != null) entityNode.put(id,v) ;
 		}
-		Room newRoom = new Room("R" + rooms.size(),enclosingBelief) ;
-		newRoom.registerButton(button) ;
-		rooms.add(newRoom) ;
+		return v ;
 	}
-	
-	public void registerDoor(String door) {
-		//System.out.println("@@@ #rooms = " + rooms.size()) ;
-		for(Room R : rooms) {
-			if (R.doors.contains(door) || R.doorsNotInThisRoom.contains(door)) continue ;
-			R.registerDoor(door) ;
+
+	Integer nodeOfAgent() {
+		Vec3 p = enclosingBelief.worldmodel.getFloorPosition() ;
+		if (p == null) return null ;
+		long tile = (((long) Math.floor(p.x + 0.5)) << 40) ^ (((long) Math.floor(p.y + 0.5)) << 20) ^ (long) Math.floor(p.z + 0.5) ;
+		Integer v = tileNode.get(tile) ;
+		if (v == null) {
+			v = nodeAt(p) ;
+			if (v != null) tileNode.put(tile,v) ;
 		}
+		return v ;
 	}
-	
+
+	Map<Integer,Room> roomsByRoot() {
+		update() ;
+		if (roomsByRoot != null)
+			return roomsByRoot ;
+		roomsByRoot = new LinkedHashMap<>() ;
+		for (String b : buttons) {
+			Integer v = nodeOfEntity(b) ;
+			if (v == null || !nodesInComponents.get(v)) continue ;
+			int r = find(v) ;
+			roomsByRoot.computeIfAbsent(r, root -> new Room("R" + root)).buttons.add(b) ;
+		}
+		for (var D : doorBorders.entrySet()) {
+			for (int v : D.getValue()) {
+				Room R = roomsByRoot.get(find(v)) ;
+				if (R != null && !R.doors.contains(D.getKey()))
+					R.doors.add(D.getKey()) ;
+			}
+		}
+		return roomsByRoot ;
+	}
+
+	public Collection<Room> getRooms() {
+		return roomsByRoot().values() ;
+	}
+
+	/**
+	 * Get the room the given navigation node belongs to, or null if it does not belong to
+	 * a room.
+	 */
+	public Room roomOf(int navNode) {
+		var rooms = roomsByRoot() ;
+		if (!nodesInComponents.get(navNode)) return null ;
+		return rooms.get(find(navNode)) ;
+	}
+
 	/**
 	 * Get the room where the agent is currently located.
 	 */
 	public Room getCurrentRoom() {
-		Map<String, Boolean> originalDoorBlockingState = enclosingBelief.getDoorsBlockingState() ;
-		enclosingBelief.fakelyMakeAlldoorsBlocking(null);
-		Room found = null ;
-		for(Room R : rooms) {
-			if(enclosingBelief.buttonIsReachable(R.buttons.get(0))) {
-				found = R ;
-				break ;
-			}
-		}
-		enclosingBelief.restoreDoorsBlockingState(originalDoorBlockingState,null);
-		return found ;
+		Integer v = nodeOfAgent() ;
+		if (v == null) return null ;
+		return roomOf(v) ;
 	}
-	
+
 	public List<String> getDoorsOfCurrentRoom() {
 		Room R = getCurrentRoom() ;
 		if (R==null) return null ;
 		else return R.doors ;
 	}
-	
+
 	/**
 	 * Return true if all doors of the room the agent is currently in is closed.
 	 */
@@ -1,7 +1,6 @@
 package algorithms;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 import eu.iv4xr.framework.mainConcepts.WorldEntity;
 import eu.iv4xr.framework.spatial.LineIntersectable;
@@ -9,6 +8,7 @@ import eu.iv4xr.framework.spatial.Obstacle;
 import eu.iv4xr.framework.spatial.Vec3;
 import nl.uu.cs.aplib.utils.Pair;
 import world.BeliefState;
+import world.HierarchicalNavGraph;
 import world.LabEntity;
 
 public class XBelief extends BeliefState {
@@ -21,26 +21,228 @@ public class XBelief extends BeliefState {
 	public Rooms rooms ;
 	
 	/**
-	 * Mapping pairs (button,door) to the connectivity between them.
+	 * Mapping pairs (button,door) to the connectivity between them. The IDs of buttons and
+	 * doors are interned to ints there, see {@link ConnectionModel}.
 	 */
-	public Map<Pair<String,String>,LinkStatus> connectionsModel = new HashMap<>() ;
+	public ConnectionModel connectionsModel = new ConnectionModel() ;
 	
 	
+	/**
+	 * A listener to be notified when the agent sees an entity for the first time, or 
+	 * when it notices that an entity it saw before changed its state. The rooms, the
+	 * connection model and the set of open doors are kept up to date this way.
+	 */
+	public interface EntityListener {
+		default void entityFirstSeen(WorldEntity e) { }
+		default void entityStateChanged(WorldEntity e) { }
+	}
+	
+	List<EntityListener> entityListeners = new LinkedList<>() ;
+	
+	/**
+	 * IDs of all entities seen so far, and of the buttons and doors among them, in the 
+	 * order they were first seen.
+	 */
+	Set<String> seenEntities = new HashSet<>() ;
+	List<String> buttonIds = new ArrayList<>() ;
+	List<String> doorIds = new ArrayList<>() ;
+	
+	/**
+	 * Navigation nodes the agent has seen at some point. Unlike the seen-flags of the
+	 * navigation graph, this is not reset when the navigation memory is wiped out.
+	 */
+	BitSet navNodesEverSeen = new BitSet() ;
+	
+	/**
+	 * Navigation nodes the agent has seen since its navigation memory was last wiped.
+	 */
+	BitSet navNodesSeenSinceWipe = new BitSet() ;
+	
+	/**
+	 * Cached answers of reachability queries. It is cleared whenever the seen part of
+	 * the navigation graph changes.
+	 */
+	ReachabilityCache reachabilityCache = new ReachabilityCache() ;
+	
+	ObstacleIndex obstacleIndex = null ;
+	
+	HierarchicalNavGraph hierarchy = null ;
+	
+	/**
+	 * Path lengths between the known buttons and doors; see {@link #distances()}. It is
+	 * cleared whenever the seen part of the navigation graph or a door's state changes.
+	 */
+	DistanceMatrix distances = null ;
+	
+	/**
+	 * IDs of the doors that are currently believed to be open.
+	 */
+	Set<String> openDoors = new HashSet<>() ;
+	
+	/**
+	 * The doors that are currently blocking, by their index in {@link #doorIds}. It is
+	 * kept up to date by the door events, and replaced rather than modified, so that it
+	 * can be used as part of a {@link ReachabilityCache} key as it is.
+	 */
+	volatile BitSet blockingDoors = new BitSet() ;
+	Map<String,Integer> doorIndex = new HashMap<>() ;
+	
+	/**
+	 * Number of times this state has been updated. Used to tell whether something
+	 * computed from the state is still current.
+	 */
+	public long numberOfUpdates = 0 ;
+	
 	public XBelief() {
 		super() ;
 		rooms = new Rooms(this) ;
+		addEntityListener(new EntityListener() {
+			@Override
+			public void entityFirstSeen(WorldEntity e) {
+				if (e.type.equals(LabEntity.SWITCH)) rooms.registerButton(e.id) ;
+				else if (e.type.equals(LabEntity.DOOR)) rooms.registerDoor(e.id) ;
+			}
+			@Override
+			public void entityStateChanged(WorldEntity e) {
+				if (e.type.equals(LabEntity.DOOR)) rooms.doorStateChanged() ;
+			}
+		}) ;
+		addEntityListener(new EntityListener() {
+			@Override
+			public void entityFirstSeen(WorldEntity e) {
+				boolean added = false ;
+				if (e.type.equals(LabEntity.SWITCH)) added = connectionsModel.addButton(e.id) ;
+				else if (e.type.equals(LabEntity.DOOR)) added = connectionsModel.addDoor(e.id) ;
+				if (added) 
+					DebugUtil.log(">>>>> registering " + e.id) ;
+			}
+		}) ;
+		addEntityListener(new EntityListener() {
+			@Override
+			public void entityFirstSeen(WorldEntity e) {
+				if (e.type.equals(LabEntity.DOOR)) doorSeen(e) ;
+			}
+			@Override
+			public void entityStateChanged(WorldEntity e) {
+				if (e.type.equals(LabEntity.DOOR)) doorSeen(e) ;
+			}
+		}) ;
+	}
+	
+	public void addEntityListener(EntityListener listener) {
+		entityListeners.add(listener) ;
 	}
 	
+	/**
+	 * Besides updating the state as usual, this keeps the indices of buttons and doors
+	 * up to date, and notifies the entity listeners. This only looks at the entities
+	 * that changed in this update, so the cost does not grow with the size of the level.
+	 */
+	@Override
+	public void updateState(String agentId) {
+		super.updateState(agentId) ;
+		numberOfUpdates++ ;
+		if (worldmodel.visibleNavigationNodes != null) {
+			for (int v : worldmodel.visibleNavigationNodes) {
+				if (!navNodesEverSeen.get(v)) {
+					navNodesEverSeen.set(v) ;
+					rooms.registerSeenNavNode(v) ;
+				}
+				if (!navNodesSeenSinceWipe.get(v)) {
+					navNodesSeenSinceWipe.set(v) ;
+					reachabilityCache.clear() ;
+					if (distances != null) distances.clear() ;
+					if (hierarchy != null) hierarchy.invalidateNode(v) ;
+				}
+			}
+		}
+		for (WorldEntity e : changedEntities) {
+			boolean isNew = indexEntity(e) ;
+			for (var L : entityListeners) {
+				if (isNew) L.entityFirstSeen(e) ;
+				else if (e.hasPreviousState()) L.entityStateChanged(e) ;
+			}
+		}
+	}
+	
+	/**
+	 * Add the entity to the indices, if it is not there yet. Return true if it is new.
+	 */
+	boolean indexEntity(WorldEntity e) {
+		if (!seenEntities.add(e.id))
+			return false ;
+		if (e.type.equals(LabEntity.SWITCH)) buttonIds.add(e.id) ;
+		else if (e.type.equals(LabEntity.DOOR)) addDoorId(e.id) ;
+		return true ;
+	}
+	
+	void addDoorId(String door) {
+		doorIndex.put(door, doorIds.size()) ;
+		doorIds.add(door) ;
+	}
+	
+	/**
+	 * Track whether the door is open, and drop what was computed assuming its old state.
+	 */
+	void doorSeen(WorldEntity door) {
+		boolean isOpen = door.getBooleanProperty("isOpen") ;
+		if (isOpen) openDoors.add(door.id) ;
+		else openDoors.remove(door.id) ;
+		int k = doorIndex.get(door.id) ;
+		if (blockingDoors.get(k) == isOpen) {
+			BitSet blocking = (BitSet) blockingDoors.clone() ;
+			blocking.set(k, !isOpen) ;
+			blockingDoors = blocking ;
+		}
+		if (hierarchy != null) hierarchy.invalidateArea(door.position, door.extent) ;
+		if (distances != null) distances.clear() ;
+	}
+	
+	/**
+	 * The buttons seen so far. This is taken from the index of buttons rather than by
+	 * scanning the whole world model.
+	 */
+	@Override
+	public List<WorldEntity> knownButtons() {
+		return lookup(buttonIds) ;
+	}
+	
+	/**
+	 * The doors seen so far. This is taken from the index of doors rather than by
+	 * scanning the whole world model.
+	 */
+	@Override
+	public List<WorldEntity> knownDoors() {
+		return lookup(doorIds) ;
+	}
+	
+	List<WorldEntity> lookup(List<String> ids) {
+		List<WorldEntity> result = new ArrayList<>(ids.size()) ;
+		for (String id : ids) {
+			var e = worldmodel.getElement(id) ;
+			if (e != null) result.add(e) ;
+		}
+		return result ;
+	}
+	
+	/**
+	 * Bring the rooms up to date with the navigation nodes, buttons and doors seen so far.
+	 * This only processes what was seen since the last call.
+	 */
+	public void updateRooms() {
+		rooms.update();
+	}
+	
+	/**
+	 * Register a button, pairing it with every known door as UNKNOWN, and assign it to
+	 * a room. Buttons seen by the agent are registered automatically when the state is
+	 * updated; see {@link #updateState(String)} and {@link #updateRooms()}.
+	 */
 	public void registerButton(String button) {
-		boolean added = false ;
-		for(WorldEntity d : this.knownDoors()) {
-			Pair<String,String> con = new Pair(button, d.id) ;
-			LinkStatus st = connectionsModel.get(con) ;
-			if (st==null) {
-				connectionsModel.put(con, LinkStatus.UNKNOWN) ;
-				added = true ;
-			}	
+		if (seenEntities.add(button)) {
+			buttonIds.add(button) ;
 		}
+		boolean added = connectionsModel.addButton(button) ;
 		rooms.registerButton(button);
 		if(added) {
 		   DebugUtil.log(">>>>> registering " + button) ;
@@ -48,15 +250,10 @@ public class XBelief extends BeliefState {
 	}
 	
 	public void registerDoor(String door) {
-		boolean added = false ;
-		for(WorldEntity b : this.knownButtons()) {
-			Pair<String,String> con = new Pair(b.id, door) ;
-			LinkStatus st = connectionsModel.get(con) ;
-			if (st==null) {
-				connectionsModel.put(con,LinkStatus.UNKNOWN) ;
-				added = true ;
-			}
+		if (seenEntities.add(door)) {
+			addDoorId(door) ;
 		}
+		boolean added = connectionsModel.addDoor(door) ;
 		rooms.registerDoor(door);
 		if(added) {
 			DebugUtil.log(">>>>> registering " + door) ;
@@ -66,9 +263,8 @@ public class XBelief extends BeliefState {
 
 	
 	public void registerConnection(String button, String door) {
-		var link = new Pair(button,door) ;
-		LinkStatus currentStatus = connectionsModel.get(link) ;
-		connectionsModel.put(link, LinkStatus.LINKED) ;
+		LinkStatus currentStatus = connectionsModel.get(button,door) ;
+		connectionsModel.set(button,door,LinkStatus.LINKED) ;
 		DebugUtil.log(">>>>> registering connection " + button + " -> " 
 		   + door 
 		   + (currentStatus == LinkStatus.NOCONNECTON ? " (conflict: was NON-connection!)" : "")) ;
@@ -76,171 +272,316 @@ public class XBelief extends BeliefState {
 	}
 
 	public void registerNONConnection(String button, String door) {
-		var link = new Pair(button,door) ;
-		LinkStatus currentStatus = connectionsModel.get(link) ;
+		LinkStatus currentStatus = connectionsModel.get(button,door) ;
 		if(currentStatus == LinkStatus.LINKED) {
 			DebugUtil.log(">>>>> IGNORING reported NON-connection " + button 
 					  + " X " + door + " because it is already marked as connected.") ;
 			return ;
 		}
-		connectionsModel.put(link, LinkStatus.NOCONNECTON) ;
+		connectionsModel.set(button,door,LinkStatus.NOCONNECTON) ;
 		DebugUtil.log(">>>>> registering NON-connection " 
 		          + button + " X " + door
 		          + (currentStatus == LinkStatus.LINKED ? " (conflict: was LINKED!)" : "")) ;
 	}
 	
+	/**
+	 * Wipe out the agent's memory of which navigation nodes it has seen. Use this rather
+	 * than wiping the navigation graph directly, so that cached reachability is
+	 * invalidated.
+	 */
+	public void wipeOutNavigationMemory() {
+		pathfinder().wipeOutMemory() ;
+		navNodesSeenSinceWipe.clear() ;
+		reachabilityCache.clear() ;
+		if (distances != null) distances.clear() ;
+		if (hierarchy != null) hierarchy.invalidateAll() ;
+	}
+	
+	/**
+	 * Mark the given navigation nodes as seen.
+	 */
+	public void markNavigationNodesAsSeen(int[] nodes) {
+		pathfinder().markAsSeen(nodes) ;
+		for (int v : nodes) {
+			navNodesSeenSinceWipe.set(v) ;
+			if (hierarchy != null) hierarchy.invalidateNode(v) ;
+		}
+		reachabilityCache.clear() ;
+		if (distances != null) distances.clear() ;
+	}
+	
 	public List<String> getConnectedButtons(String door) {
-		return connectionsModel.entrySet().stream()
-		   .filter(L -> L.getKey().snd.equals(door) && L.getValue() == LinkStatus.LINKED)
-		   .map(L -> L.getKey().fst)
-		   .collect(Collectors.toList()) ;
+		return connectionsModel.linkedButtons(door) ;
 	}
 	
 	public List<String> getUnexploredButtons(String door) {
-		return connectionsModel.entrySet().stream()
-				   .filter(L -> L.getKey().snd.equals(door) && L.getValue() == LinkStatus.UNKNOWN)
-				   .map(L -> L.getKey().fst)
-				   .collect(Collectors.toList()) ;
+		return connectionsModel.unknownButtons(door) ;
 	}
 	
 	
-	void fakelyUnblockDoor(String door) {
-		for(Obstacle<LineIntersectable> o : pathfinder().obstacles) {
-			LabEntity e = (LabEntity) o.obstacle ;
-			if (e.id == door) {
-				o.isBlocking = false ;
-				return ;
-			}
-		}
+	/**
+	 * Get the index over the pathfinder's obstacles, brought up to date with the
+	 * obstacles added since the last call.
+	 */
+	public synchronized ObstacleIndex obstacleIndex() {
+		if (obstacleIndex == null || obstacleIndex.nav != pathfinder())
+			obstacleIndex = new ObstacleIndex(pathfinder()) ;
+		else
+			obstacleIndex.sync() ;
+		return obstacleIndex ;
 	}
 	
-	void restoreObstacleState(String door, boolean originalState) {
-		for(Obstacle<LineIntersectable> o : pathfinder().obstacles) {
-			LabEntity e = (LabEntity) o.obstacle ;
-			if (e.id == door) {
-				o.isBlocking = originalState ;
-				return ;
-			}
+	/**
+	 * Get the hierarchical abstraction of the pathfinder's navigation graph, used to
+	 * answer reachability queries on large levels. It is kept up to date with the
+	 * seen nodes and the doors as the state is updated.
+	 */
+	public synchronized HierarchicalNavGraph hierarchy() {
+		var nav = pathfinder() ;
+		// the base filter uses the index; keep it in sync with the graph:
+		var index = obstacleIndex() ;
+		if (hierarchy == null || hierarchy.nav != nav) {
+			hierarchy = new HierarchicalNavGraph(nav, (v,w) -> ObstacleOverlay.NONE.edgeIsBlocked(nav,index,v,w)) ;
 		}
+		return hierarchy ;
 	}
 	
-	void fakelyMakeAlldoorsBlocking(String exception) {
-		for(Obstacle<LineIntersectable> o : pathfinder().obstacles) {
-			LabEntity e = (LabEntity) o.obstacle ;
-			if (e.type == "Door") {
-				o.isBlocking = true ;
-				if(e.id != exception) {
-					e.extent.x += 1f ;
-					e.extent.z += 1f ;				
-				}
+	/**
+	 * Get the matrix of path lengths between the known buttons and doors, with the
+	 * buttons and doors seen since the last call added to it. Distances are computed
+	 * when first asked, and forgotten when the seen part of the navigation graph or
+	 * the state of a door changes.
+	 */
+	public synchronized DistanceMatrix distances() {
+		// the rows are filled later, using the index; keep it in sync with the graph:
+		var index = obstacleIndex() ;
+		if (distances == null || distances.nav != pathfinder())
+			distances = new DistanceMatrix(pathfinder(), index) ;
+		for (var ids : List.of(buttonIds, doorIds)) {
+			for (String id : ids) {
+				if (distances.contains(id)) continue ;
+				LabEntity e = worldmodel().getElement(id) ;
+				if (e != null) distances.add(id, e.getFloorPosition()) ;
 			}
 		}
+		return distances ;
 	}
 	
-	Map<String,Boolean> getDoorsBlockingState() {
-		Map<String,Boolean> map = new HashMap<>() ;
-		for(Obstacle<LineIntersectable> o : pathfinder().obstacles) {
-			LabEntity e = (LabEntity) o.obstacle ;
-			if (e.type == "Door") {
-				map.put(e.id,o.isBlocking) ;
-			}
-		}
-		return map ;
+	/**
+	 * The length of the shortest path between two known buttons or doors, or infinity
+	 * if there is none.
+	 */
+	public float travelDistance(String from, String to) {
+		return distances().get(from,to) ;
 	}
 	
-	void restoreDoorsBlockingState(Map<String,Boolean> originalState, String exception) {
-		for(Obstacle<LineIntersectable> o : pathfinder().obstacles) {
-			LabEntity e = (LabEntity) o.obstacle ;
-			if (e.type == "Door") {
-				o.isBlocking = originalState.get(e.id) ;
-				if(e.id != exception) {
-					e.extent.x -= 1f ;
-					e.extent.z -= 1f ;				
-				}
-			}
-		}
+	/**
+	 * The length of the shortest path from the agent to a known button or door, or
+	 * infinity if there is none. This is taken from {@link #reachabilityMap()}, at the
+	 * node where {@link #distances()} ends paths to the entity.
+	 */
+	public float travelDistanceFromAgent(String to) {
+		Integer t = distances().nodeOf(to) ;
+		return t == null ? Float.POSITIVE_INFINITY : reachabilityMap().cost[t] ;
 	}
 	
+	/**
+	 * Get the obstacle of the given entity, or null if it is not an obstacle.
+	 */
+	public Obstacle<LineIntersectable> obstacleOf(String id) {
+		return obstacleIndex().get(id) ;
+	}
 	
-	
+	/**
+	 * Check if the door would be reachable if it were open. This does not change the
+	 * actual blocking state of the door.
+	 */
 	public boolean doorIsReachable(String door) {
+		return doorIsReachable(door, ObstacleOverlay.NONE) ;
+	}
+	
+	/**
+	 * Check if the door would be reachable if it were open, and the obstacles otherwise
+	 * block as the overlay says.
+	 */
+	boolean doorIsReachable(String door, ObstacleOverlay overlay) {
 		LabEntity d = worldmodel().getElement(door) ;
-		Boolean isOpen = d.getBooleanProperty("isOpen") ;
-		//if(isOpen) {
-		//	return findPathTo(d.getFloorPosition(),true) != null ;
-		//}
-		// pretend that the door is open:
-		fakelyUnblockDoor(door) ;
 		var entity_location = d.getFloorPosition() ;
 		var entity_sqcenter = new Vec3((float) Math.floor((double) entity_location.x - 0.5f) + 1f,
 	    		entity_location.y,
 	    		(float) Math.floor((double) entity_location.z - 0.5f) + 1f) ;
-		var path = findPathTo(entity_sqcenter,true) ;
-		// restore the original state:
-		restoreObstacleState(door,! isOpen) ;
-		return path != null ;		
+		// pretend that the door is open:
+		return pathExists(entity_sqcenter, overlay.open(door)) ;		
 	}
 	
 	boolean buttonIsReachable(String button) {
+		return buttonIsReachable(button, ObstacleOverlay.NONE) ;
+	}
+	
+	boolean buttonIsReachable(String button, ObstacleOverlay overlay) {
 		LabEntity b = worldmodel().getElement(button) ;
-		var path = findPathTo(b.getFloorPosition(),true) ;
-		return path != null ;
+		return pathExists(b.getFloorPosition(), overlay) ;
 	}
 	
+	/**
+	 * The buttons reachable from the agent's current position. These are obtained from
+	 * {@link #reachabilityMap()}, so that a single flood of the navigation graph answers
+	 * the reachability of all buttons.
+	 */
 	List<LabEntity> reachableButtons() {
+		var M = reachabilityMap() ;
 		List<LabEntity> buttons = new LinkedList<>() ;
-		for (var e : worldmodel().elements.values()) {
-			var e_ = (LabEntity) e ;
-			if (e_.type.equals(LabEntity.SWITCH)
-					&& findPathTo(e_.getFloorPosition(),true) != null
-					)
-				buttons.add(e_) ;		
+		for (String id : buttonIds) {
+			if (M.isReachable(id))
+				buttons.add(worldmodel().getElement(id)) ;		
 		}
 		return buttons ;
 	}
 	
+	/**
+	 * Get the reachability and path cost from the agent to all navigation nodes, and to
+	 * all known buttons and doors. The map is computed once, and reused for as long as
+	 * the agent stays in the same tile and the blocking state and the seen part of the
+	 * navigation graph do not change.
+	 */
+	public ReachabilityMap reachabilityMap() {
+		var state = currentReachabilityState() ;
+		var M = reachabilityCache.getMap(state) ;
+		if (M == null) {
+			Map<String,Vec3> entities = new HashMap<>() ;
+			for (var e : knownButtons()) 
+				entities.put(e.id, ((LabEntity) e).getFloorPosition()) ;
+			for (var e : knownDoors()) 
+				entities.put(e.id, ((LabEntity) e).getFloorPosition()) ;
+			M = new ReachabilityMap(pathfinder(), obstacleIndex(), state.tileCenter(worldmodel.getFloorPosition()), entities) ;
+			reachabilityCache.putMap(state, M) ;
+		}
+		return M ;
+	}
+	
+	ReachabilityCache.StateKey currentReachabilityState() {
+		return currentReachabilityState(ObstacleOverlay.NONE) ;
+	}
+	
+	/**
+	 * The state, as far as reachability is concerned, that results from applying the
+	 * overlay to the current state. Without an overlay, this takes the blocking doors
+	 * as they are kept by the door events; an overlay only changes a copy of them.
+	 */
+	ReachabilityCache.StateKey currentReachabilityState(ObstacleOverlay overlay) {
+		BitSet blocking = blockingDoors ;
+		if (!overlay.isEmpty()) {
+			blocking = (BitSet) blocking.clone() ;
+			for (String id : overlay.open) {
+				Integer k = doorIndex.get(id) ;
+				if (k != null) blocking.clear(k) ;
+			}
+			for (String id : overlay.blocking) {
+				Integer k = doorIndex.get(id) ;
+				if (k != null) blocking.set(k) ;
+			}
+		}
+		return new ReachabilityCache.StateKey(worldmodel.position, blocking, overlay.inflation) ;
+	}
+	
+	boolean pathExists(Vec3 target) {
+		return pathExists(target, ObstacleOverlay.NONE) ;
+	}
+	
+	/**
+	 * Check if there is a path from the agent to the given location, with the obstacles
+	 * blocking as the overlay says. The answer is looked up in {@link #reachabilityCache}
+	 * first; a path search is only done if the same query was not answered before.
+	 * The search starts from the center of the agent's tile, as the cache key does, so
+	 * that all positions in the tile get the same answer. The queries only read the
+	 * navigation graph.
+	 */
+	boolean pathExists(Vec3 target, ObstacleOverlay overlay) {
+		var state = currentReachabilityState(overlay) ;
+		var key = new ReachabilityCache.Key(state, target) ;
+		Boolean reachable = reachabilityCache.get(key) ;
+		if (reachable == null) {
+			var from = state.tileCenter(worldmodel.getFloorPosition()) ;
+			if (pathfinder().vertices.size() >= HierarchicalNavGraph.minimumSize)
+				reachable = hierarchicalPathExists(from, target, overlay) ;
+			else
+				reachable = overlay.pathExists(pathfinder(), obstacleIndex(), from, target) ;
+			reachabilityCache.put(key, reachable) ;
+		}
+		return reachable ;
+	}
+	
+	/**
+	 * As {@link #pathExists(Vec3, ObstacleOverlay)}, but searching the
+	 * {@link #hierarchy()} rather than the whole navigation graph. The clusters near the
+	 * obstacles mentioned by the overlay are searched under the overlay.
+	 */
+	boolean hierarchicalPathExists(Vec3 from, Vec3 target, ObstacleOverlay overlay) {
+		var nav = pathfinder() ;
+		if (from == null || target == null)
+			return false ;
+		Integer s = nav.getNearestUnblockedVertex(from, ReachabilityMap.nodeTolerance) ;
+		Integer t = nav.getNearestUnblockedVertex(target, ReachabilityMap.nodeTolerance) ;
+		if (s == null || t == null)
+			return false ;
+		var H = hierarchy() ;
+		if (overlay.isEmpty())
+			return H.pathExists(s, t, null, null) ;
+		var index = obstacleIndex() ;
+		BitSet affected = new BitSet() ;
+		for (String id : overlay.mentioned()) {
+			var o = index.get(id) ;
+			if (o == null) continue ;
+			LabEntity e = (LabEntity) o.obstacle ;
+			float a = overlay.maxInflation ;
+			affected.or(H.clustersNear(e.position, new Vec3(Math.abs(e.extent.x) + a, e.extent.y, Math.abs(e.extent.z) + a))) ;
+		}
+		return H.pathExists(s, t, (v,w) -> overlay.edgeIsBlocked(nav,index,v,w), affected) ;
+	}
+	
 	/*.
 	 * Given an unreachable door d, find a closed door d2 that if it is open would make
-	 * d reachable.
+	 * d reachable. The candidates d2 are checked in parallel, as hypothetical queries
+	 * that leave the state untouched; the first candidate, in the order of knownDoors(),
+	 * that works is returned.
 	 */
 	String findAEnablingClosedDoor(String entity) {
 		LabEntity e = worldmodel().getElement(entity) ;
 		boolean isDoor = e.type.equals("Door") ;
-		for(WorldEntity d2 : knownDoors()) {
-			if (d2.id.equals(entity)) continue ;
-			if(!isOpen(d2) && doorIsReachable(d2.id)) {
-				d2.properties.put("isOpen",true) ;
-				if( isDoor ? doorIsReachable(entity) : buttonIsReachable(entity)) {
-					d2.properties.put("isOpen",false) ;
-					return d2.id ;
-				}
-				d2.properties.put("isOpen",false) ;
-			}
-		}
-		return null ;
+		// bring the index up to date before querying concurrently:
+		obstacleIndex() ;
+		return knownDoors().parallelStream()
+			.filter(d2 -> !d2.id.equals(entity) && !isOpen(d2) && doorIsReachable(d2.id))
+			.filter(d2 -> {
+				var overlay = ObstacleOverlay.NONE.open(d2.id) ;
+				return isDoor ? doorIsReachable(entity,overlay) : buttonIsReachable(entity,overlay) ;
+			})
+			.map(d2 -> d2.id)
+			.findFirst()
+			.orElse(null) ;
 	}
 	
 	/**
 	 * Return the set of known connections between buttons and doors.
 	 */
 	public Set<Pair<String,String>> getConnections() {
-		return connectionsModel.entrySet().stream()
-		   .filter(E -> E.getValue() == LinkStatus.LINKED)
-		   .map(E -> E.getKey())
-		   .collect(Collectors.toSet());
+		return connectionsModel.linkedPairs() ;
+	}
+	
+	/**
+	 * The number of known connections between buttons and doors. Unlike 
+	 * getConnections().size(), this does not construct the set of connections.
+	 */
+	public int getNumberOfConnections() {
+		return connectionsModel.numberOfLinked() ;
 	}
 	
+	/**
+	 * The number of doors currently believed to be open. This is kept track as the
+	 * state is updated, rather than counted over the world model.
+	 */
 	public int getNumberOfOpenDoors() {
-		int n = 0 ;
-		for (var e : worldmodel.elements.values()) {
-			var e_ = (LabEntity) e ;
-			if (e_.type.equals(LabEntity.DOOR)) {
-				if (e_.getBooleanProperty("isOpen")) {
-					n++ ;
-				}
-			}
-		}
-		return n ;
+		return openDoors.size() ;
 	}
 	
 }
@@ -0,0 +1,193 @@
+package game;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * A parsed Lab Recruits level-definition file (the csv files under
+ * src/test/resources/levels). Only the first floor of the level is kept; this
+ * is also the only floor used by the levels in our experiments.
+ *
+ * <p>The layout of a level file is as follows. The file starts with zero or more
+ * rows of the form "button,door1,door2,...", listing which doors are toggled by
+ * a button. Then the floors follow. Each floor starts with a row prefixed with
+ * "|". A cell of a floor is either empty (void), "w" (a wall), or "f" optionally
+ * followed by a list of items, e.g. "f:b>n^button1:dhf". Every item has the form
+ * type[&gt;orientation][^id].
+ *
+ * <p>The column index of a cell is its x-coordinate, and the row index (counted
+ * from the "|"-row of the floor) is its z-coordinate. The center of a tile is at
+ * integer coordinates.
+ */
+public class LabRecruitsLevel {
+
+    public enum TileType { VOID, WALL, FLOOR }
+
+    /**
+     * An in-game object, as declared in the level file.
+     */
+    public static class Item {
+        public String type;
+        public String orientation;
+        public String id;
+        public int x;
+        public int z;
+
+        Item(String type, String orientation, String id, int x, int z) {
+            this.type = type;
+            this.orientation = orientation;
+            this.id = id;
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override
+        public String toString() {
+            return type + (id != null ? "^" + id : "") + "@(" + x + "," + z + ")";
+        }
+    }
+
+    public String name;
+
+    /**
+     * Tiles of the first floor, indexed as tiles[z][x].
+     */
+    public TileType[][] tiles;
+
+    public int width;
+    public int depth;
+
+    /**
+     * Items found on the first floor, in the order they appear in the file.
+     */
+    public List<Item> items = new ArrayList<>();
+
+    /**
+     * The button-to-doors connections declared at the top of the file. Buttons
+     * that are declared without doors are mapped to an empty list.
+     */
+    public Map<String, List<String>> connections = new LinkedHashMap<>();
+
+    /**
+     * Parse the level file with the given name (without the .csv extension) from
+     * the given directory.
+     */
+    public static LabRecruitsLevel load(String levelsDir, String levelName) throws IOException {
+        return load(Path.of(levelsDir, levelName + ".csv"));
+    }
+
+    public static LabRecruitsLevel load(Path levelFile) throws IOException {
+        String fname = levelFile.getFileName().toString();
+        String name = fname.endsWith(".csv") ? fname.substring(0, fname.length() - 4) : fname;
+        return parse(name, Files.readAllLines(levelFile));
+    }
+
+    public static LabRecruitsLevel parse(String name, List<String> lines) {
+        LabRecruitsLevel level = new LabRecruitsLevel();
+        level.name = name;
+        List<String[]> firstFloor = new ArrayList<>();
+        int floorNr = 0;
+        for (String line : lines) {
+            if (line.startsWith("|")) {
+                floorNr++;
+                line = line.substring(1);
+            }
+            String[] cells = line.split(",", -1);
+            if (floorNr == 0) {
+                level.parseConnectionRow(cells);
+            } else if (floorNr == 1) {
+                firstFloor.add(cells);
+            } else {
+                break;
+            }
+        }
+        if (firstFloor.isEmpty())
+            throw new IllegalArgumentException("The level " + name + " does not define any floor.");
+        level.depth = firstFloor.size();
+        level.width = firstFloor.stream().mapToInt(row -> row.length).max().getAsInt();
+        level.tiles = new TileType[level.depth][level.width];
+        for (int z = 0; z < level.depth; z++) {
+            String[] row = firstFloor.get(z);
+            for (int x = 0; x < level.width; x++) {
+                String cell = x < row.length ? row[x].trim() : "";
+                level.tiles[z][x] = level.parseCell(cell, x, z);
+            }
+        }
+        return level;
+    }
+
+    private void parseConnectionRow(String[] cells) {
+        if (cells.length == 0 || cells[0].isBlank())
+            return;
+        List<String> doors = new LinkedList<>();
+        for (int k = 1; k < cells.length; k++) {
+            if (!cells[k].isBlank())
+                doors.add(cells[k].trim());
+        }
+        connections.computeIfAbsent(cells[0].trim(), b -> new LinkedList<>()).addAll(doors);
+    }
+
+    private TileType parseCell(String cell, int x, int z) {
+        if (cell.isEmpty())
+            return TileType.VOID;
+        if (cell.equals("w"))
+            return TileType.WALL;
+        String[] parts = cell.split(":");
+        for (int k = 1; k < parts.length; k++) {
+            String item = parts[k];
+            String id = null;
+            int hat = item.indexOf('^');
+            if (hat >= 0) {
+                id = item.substring(hat + 1);
+                item = item.substring(0, hat);
+            }
+            String orientation = null;
+            int arrow = item.indexOf('>');
+            if (arrow >= 0) {
+                orientation = item.substring(arrow + 1);
+                item = item.substring(0, arrow);
+            }
+            items.add(new Item(item, orientation, id, x, z));
+        }
+        return parts[0].equals("f") ? TileType.FLOOR : TileType.WALL;
+    }
+
+    public boolean inBounds(int x, int z) {
+        return x >= 0 && z >= 0 && x < width && z < depth;
+    }
+
+    public TileType tileAt(int x, int z) {
+        if (!inBounds(x, z))
+            return TileType.VOID;
+        return tiles[z][x];
+    }
+
+    /**
+     * Return the items of the given type, e.g. "b" for buttons or "d" for doors.
+     */
+    public List<Item> itemsOfType(String type) {
+        List<Item> result = new LinkedList<>();
+        for (Item it : items) {
+            if (it.type.equals(type))
+                result.add(it);
+        }
+        return result;
+    }
+
+    public Item findItem(String id) {
+        for (Item it : items) {
+            if (id.equals(it.id))
+                return it;
+        }
+        return null;
+    }
+
+    public List<String> doorsConnectedTo(String button) {
+        var doors = connections.get(button);
+        if (doors == null)
+            return Collections.emptyList();
+        return doors;
+    }
+}
@@ -0,0 +1,187 @@
+package game;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import environments.LabRecruitsConfig;
+import environments.LabRecruitsEnvironment;
+import helperclasses.PrintColor;
+import world.NavMeshCache;
+
+/**
+ * A pool of headless Lab Recruits instances, each listening to its own port, so
+ * that independent episodes can be run in parallel. A worker leases an instance
+ * from the pool, runs its episodes on it, and releases it when done.
+ *
+ * <p>As in {@link LabRecruitsSession}, an instance is kept alive over episodes;
+ * an episode only reloads the level on it. An instance that died is relaunched
+ * when its next episode starts.
+ *
+ * <p>The port is passed to the game with the command-line option
+ * {@link #portOption}. Instances are launched in parallel, and the pool waits
+ * until every instance accepts connections on its port rather than waiting a
+ * fixed amount of time.
+ */
+public class LabRecruitsServerPool {
+
+    /**
+     * A single game instance in the pool.
+     */
+    public class Instance {
+        public final int port;
+        LabRecruitsTestServer server;
+
+        /**
+         * Number of episodes run on this instance.
+         */
+        public int numberOfEpisodes = 0;
+
+        /**
+         * Number of times this instance was (re-)launched.
+         */
+        public int numberOfLaunches = 0;
+
+        Instance(int port) {
+            this.port = port;
+        }
+
+        void launch() {
+            if (server != null)
+                server.close();
+            server = new LabRecruitsTestServer(false, binaryPath, portOption, "" + port);
+            numberOfLaunches++;
+        }
+
+        public boolean isHealthy() {
+            return server != null && server.isRunning();
+        }
+
+        /**
+         * Load the given level on this instance and return an environment
+         * connected to it. The instance is relaunched if it is not healthy, or
+         * if loading the level failed.
+         */
+        public LabRecruitsEnvironment startEpisode(String levelName, String levelsDir) {
+            var config = new LabRecruitsConfig(levelName, levelsDir);
+            config.port = port;
+            numberOfEpisodes++;
+            if (!isHealthy()) {
+                launch();
+                waitUntilReady(this);
+                return NavMeshCache.newEnvironment(config);
+            }
+            try {
+                return NavMeshCache.newEnvironment(config);
+            } catch (Exception e) {
+                System.out.println(PrintColor.FAILURE() + ": Failed to reload the level on the instance at port " + port
+                        + "; relaunching it.\n" + e.getMessage());
+                launch();
+                waitUntilReady(this);
+                return NavMeshCache.newEnvironment(config);
+            }
+        }
+    }
+
+    public final String binaryPath;
+
+    /**
+     * The command-line option used to tell the game which port to listen to.
+     */
+    public String portOption = "--port";
+
+    public String host = "localhost";
+
+    /**
+     * Max. time (in ms) to wait for an instance to accept connections after it
+     * is launched.
+     */
+    public int readinessTimeout = 60000;
+
+    private final List<Instance> instances = new ArrayList<>();
+    private final BlockingQueue<Instance> available = new LinkedBlockingQueue<>();
+
+    /**
+     * Create a pool of the given size. The instances will listen to the ports
+     * basePort, basePort+1, ... The instances are not launched yet; call
+     * {@link #launchAll()} for that.
+     */
+    public LabRecruitsServerPool(int size, String binaryPath, int basePort) {
+        this.binaryPath = binaryPath;
+        for (int k = 0; k < size; k++) {
+            var instance = new Instance(basePort + k);
+            instances.add(instance);
+            available.add(instance);
+        }
+    }
+
+    public int size() {
+        return instances.size();
+    }
+
+    /**
+     * Launch all instances and wait until they are all ready.
+     */
+    public void launchAll() {
+        for (var instance : instances)
+            instance.launch();
+        for (var instance : instances)
+            waitUntilReady(instance);
+    }
+
+    /**
+     * Wait until the instance accepts connections on its port, or until
+     * {@link #readinessTimeout} passed.
+     */
+    void waitUntilReady(Instance instance) {
+        long deadline = System.currentTimeMillis() + readinessTimeout;
+        while (System.currentTimeMillis() < deadline) {
+            if (!instance.server.isRunning())
+                break;
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress(host, instance.port), 500);
+                return;
+            } catch (IOException e) {
+                // not ready yet
+            }
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        System.out.println(PrintColor.FAILURE() + ": The Lab Recruits instance at port " + instance.port
+                + " did not become ready.");
+    }
+
+    /**
+     * Lease an instance, waiting until one is available.
+     */
+    public Instance lease() throws InterruptedException {
+        return available.take();
+    }
+
+    /**
+     * Return a leased instance to the pool.
+     */
+    public void release(Instance instance) {
+        available.add(instance);
+    }
+
+    /**
+     * Kill all instances.
+     */
+    public void close() {
+        for (var instance : instances) {
+            if (instance.server != null) {
+                instance.server.close();
+                instance.server = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package game;
+
+import environments.LabRecruitsConfig;
+import environments.LabRecruitsEnvironment;
+import helperclasses.PrintColor;
+import world.NavMeshCache;
+
+/**
+ * Keeps a single instance of the Lab Recruits game alive over multiple episodes.
+ * Starting an episode only reloads the level in the running game, by opening a
+ * new {@link LabRecruitsEnvironment} on it, rather than killing and relaunching
+ * the game. The game is only (re-)launched when it is not running yet, or when
+ * it is found to be unhealthy: its process died, or loading the level failed.
+ *
+ * <p>Killing and relaunching the game costs several seconds per episode, which
+ * dominates the runtime of algorithms that run many short episodes.
+ */
+public class LabRecruitsSession {
+
+    private final boolean useGraphics;
+    private final String binaryPath;
+
+    private LabRecruitsTestServer server;
+
+    /**
+     * Time (in ms) to wait after launching the game, to give it time to start up.
+     */
+    public int launchDelay = 10000;
+
+    /**
+     * Number of times the game was launched by this session.
+     */
+    public int numberOfLaunches = 0;
+
+    /**
+     * Number of times a level was loaded in an already running game.
+     */
+    public int numberOfReloads = 0;
+
+    public LabRecruitsSession(boolean useGraphics, String binaryPath) {
+        this.useGraphics = useGraphics;
+        this.binaryPath = binaryPath;
+    }
+
+    /**
+     * Check whether the game is still usable. For now this only checks that its
+     * process is still alive; a hanging game is detected when loading a level
+     * on it fails.
+     */
+    public boolean isHealthy() {
+        return server != null && server.isRunning();
+    }
+
+    /**
+     * Return an environment connected to the game, with the level specified in the
+     * given config freshly loaded. The game is launched if needed. If loading the
+     * level on the running game fails, the game is relaunched and the loading is
+     * tried once more.
+     */
+    public LabRecruitsEnvironment startEpisode(LabRecruitsConfig config) {
+        if (!isHealthy()) {
+            relaunch();
+            return NavMeshCache.newEnvironment(config);
+        }
+        try {
+            var env = NavMeshCache.newEnvironment(config);
+            numberOfReloads++;
+            return env;
+        } catch (Exception e) {
+            System.out.println(PrintColor.FAILURE() + ": Failed to reload the level on the running game; relaunching it.\n"
+                    + e.getMessage());
+            relaunch();
+            return NavMeshCache.newEnvironment(config);
+        }
+    }
+
+    /**
+     * Kill the current game, if there is one, and launch a new one.
+     */
+    public void relaunch() {
+        close();
+        server = new LabRecruitsTestServer(useGraphics, binaryPath);
+        numberOfLaunches++;
+        try {
+            Thread.sleep(launchDelay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Kill the game.
+     */
+    public void close() {
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package game;
+
+import java.util.*;
+
+import eu.iv4xr.framework.spatial.Vec3;
+import eu.iv4xr.framework.spatial.meshes.Edge;
+import eu.iv4xr.framework.spatial.meshes.Face;
+import eu.iv4xr.framework.spatial.meshes.Mesh;
+import game.LabRecruitsLevel.TileType;
+
+/**
+ * A headless, in-process approximation of Lab Recruits. It runs on a
+ * {@link LabRecruitsLevel} and implements the three primitives our agents use:
+ * observe, move-toward, and interact. Every call is one simulation tick. There
+ * is no physics engine and no rendering; the game is reduced to a tile-world:
+ *
+ * <ul>
+ * <li>The agent is a point that can stand on any floor tile, or on the border of
+ * one. Walls, void tiles, and tiles holding a closed door cannot be entered.
+ * <li>Toggling a button flips the state of every door connected to it, as
+ * declared in the level file. Doors declared as "od" start open.
+ * <li>An entity or a navigation node is visible when it is within
+ * {@link #viewDistance} and the line towards it does not pass a wall or a
+ * closed door.
+ * <li>Standing on a fire tile costs {@link #fireDamagePerTick} health points per
+ * tick.
+ * </ul>
+ *
+ * The navigation mesh of the level is derived from the floor tiles: the corners
+ * of the tiles are the nodes, and every tile contributes two triangles.
+ *
+ * <p>This is meant for benchmarking and regression-testing the search algorithms
+ * without the game binary. It does not replicate Lab Recruits precisely, e.g.
+ * multi-floor levels, NPCs and furniture are not simulated.
+ */
+public class LabRecruitsSimulator {
+
+    public static final String SWITCH = "Switch";
+    public static final String DOOR = "Door";
+    public static final String FIREHAZARD = "FireHazard";
+    public static final String GOAL = "Goal";
+
+    /**
+     * The state of a simulated in-game entity.
+     */
+    public static class SimEntity {
+        public String id;
+        public String type;
+        public float x;
+        public float z;
+        public Vec3 extent;
+        public boolean isOn;
+        public boolean isOpen;
+        public long lastChanged;
+
+        SimEntity(String id, String type, float x, float z, Vec3 extent) {
+            this.id = id;
+            this.type = type;
+            this.x = x;
+            this.z = z;
+            this.extent = extent;
+        }
+
+        SimEntity copy() {
+            var e = new SimEntity(id, type, x, z, new Vec3(extent.x, extent.y, extent.z));
+            e.isOn = isOn;
+            e.isOpen = isOpen;
+            e.lastChanged = lastChanged;
+            return e;
+        }
+    }
+
+    public static class SimAgent {
+        public String id;
+        public float x;
+        public float z;
+        public int health = 100;
+        public int score = 0;
+
+        SimAgent(String id, float x, float z) {
+            this.id = id;
+            this.x = x;
+            this.z = z;
+        }
+    }
+
+    /**
+     * What an agent sees at a given tick.
+     */
+    public static class Observation {
+        public String agentId;
+        public long tick;
+        public float x;
+        public float z;
+        public int health;
+        public int score;
+        public List<SimEntity> entities = new LinkedList<>();
+        public int[] visibleNavigationNodes;
+    }
+
+    /**
+     * Distance covered by a single move-toward. Lab Recruits' default is 0.13.
+     */
+    public float agentSpeed = 0.13f;
+
+    public float viewDistance = 10f;
+
+    /**
+     * Max. distance between the agent and a button to be able to interact with it.
+     */
+    public float interactionDistance = 1.0f;
+
+    public int fireDamagePerTick = 1;
+
+    public static final Vec3 AGENT_EXTENT = new Vec3(0.2f, 0.75f, 0.2f);
+
+    public final LabRecruitsLevel level;
+
+    public long tick = 0;
+
+    Map<String, SimAgent> agents = new LinkedHashMap<>();
+
+    Map<String, SimEntity> entities = new LinkedHashMap<>();
+
+    /**
+     * Doors indexed by their tile, for quick collision and line-of-sight checks.
+     */
+    SimEntity[][] doorAtTile;
+
+    /**
+     * Fire indexed by tile.
+     */
+    boolean[][] fireAtTile;
+
+    Mesh navMesh;
+
+    /**
+     * cornerVertex[z][x] is the index of the mesh-vertex at the tile-corner
+     * (x - 0.5, z - 0.5), or -1 if there is none.
+     */
+    int[][] cornerVertex;
+
+    public LabRecruitsSimulator(LabRecruitsLevel level) {
+        this.level = level;
+        buildNavMesh();
+        reset();
+    }
+
+    /**
+     * Put the level back to its initial state, as if it was freshly loaded.
+     */
+    public void reset() {
+        tick = 0;
+        agents.clear();
+        entities.clear();
+        doorAtTile = new SimEntity[level.depth][level.width];
+        fireAtTile = new boolean[level.depth][level.width];
+        int fireCount = 0;
+        for (var it : level.items) {
+            switch (it.type) {
+            case "a":
+                agents.put(it.id, new SimAgent(it.id, it.x, it.z));
+                break;
+            case "b":
+            case "bc":
+                addEntity(new SimEntity(it.id, SWITCH, it.x, it.z, new Vec3(0.25f, 0.25f, 0.25f)));
+                break;
+            case "d":
+            case "od":
+                boolean thinInX = "e".equals(it.orientation) || "w".equals(it.orientation);
+                var extent = thinInX ? new Vec3(0.1f, 1f, 0.6f) : new Vec3(0.6f, 1f, 0.1f);
+                var door = new SimEntity(it.id, DOOR, it.x, it.z, extent);
+                door.isOpen = it.type.equals("od");
+                addEntity(door);
+                doorAtTile[it.z][it.x] = door;
+                break;
+            case "dhf":
+                String fireId = it.id != null ? it.id : "fire" + fireCount;
+                fireCount++;
+                addEntity(new SimEntity(fireId, FIREHAZARD, it.x, it.z, new Vec3(0.5f, 0.1f, 0.5f)));
+                fireAtTile[it.z][it.x] = true;
+                break;
+            case "g":
+                addEntity(new SimEntity(it.id, GOAL, it.x, it.z, new Vec3(0.25f, 0.5f, 0.25f)));
+                break;
+            default:
+                // furniture, screens, NPCs etc. are not simulated
+            }
+        }
+    }
+
+    private void addEntity(SimEntity e) {
+        if (e.id == null)
+            return;
+        entities.put(e.id, e);
+    }
+
+    public SimAgent getAgent(String agentId) {
+        var a = agents.get(agentId);
+        if (a == null)
+            throw new IllegalArgumentException("The level " + level.name + " has no agent " + agentId);
+        return a;
+    }
+
+    public SimEntity getEntity(String id) {
+        return entities.get(id);
+    }
+
+    public Mesh navigationMesh() {
+        return navMesh;
+    }
+
+    // ======== navigation mesh
+
+    private void buildNavMesh() {
+        navMesh = new Mesh();
+        cornerVertex = new int[level.depth + 1][level.width + 1];
+        for (int[] row : cornerVertex)
+            Arrays.fill(row, -1);
+        Set<Long> edges = new HashSet<>();
+        for (int z = 0; z < level.depth; z++) {
+            for (int x = 0; x < level.width; x++) {
+                if (level.tiles[z][x] != TileType.FLOOR)
+                    continue;
+                int c00 = corner(x, z);
+                int c10 = corner(x + 1, z);
+                int c11 = corner(x + 1, z + 1);
+                int c01 = corner(x, z + 1);
+                addTriangle(c00, c10, c11, edges);
+                addTriangle(c00, c11, c01, edges);
+            }
+        }
+    }
+
+    private int corner(int cx, int cz) {
+        if (cornerVertex[cz][cx] < 0) {
+            cornerVertex[cz][cx] = navMesh.vertices.size();
+            navMesh.vertices.add(new Vec3(cx - 0.5f, 0, cz - 0.5f));
+        }
+        return cornerVertex[cz][cx];
+    }
+
+    private void addTriangle(int a, int b, int c, Set<Long> edges) {
+        navMesh.faces.add(new Face(new int[] { a, b, c }));
+        addEdge(a, b, edges);
+        addEdge(b, c, edges);
+        addEdge(a, c, edges);
+    }
+
+    private void addEdge(int i, int j, Set<Long> edges) {
+        long key = ((long) Math.min(i, j) << 32) | Math.max(i, j);
+        if (edges.add(key))
+            navMesh.edges.add(new Edge(i, j));
+    }
+
+    // ======== tile-world queries
+
+    static int tileOf(float coordinate) {
+        return (int) Math.floor(coordinate + 0.5f);
+    }
+
+    /**
+     * True if the tile can be entered: a floor tile that does not hold a closed door.
+     */
+    boolean isPassable(int x, int z) {
+        if (level.tileAt(x, z) != TileType.FLOOR)
+            return false;
+        var door = doorAtTile[z][x];
+        return door == null || door.isOpen;
+    }
+
+    /**
+     * A point is walkable when it lies on at least one passable tile, including
+     * the tile's border.
+     */
+    boolean isWalkable(float px, float pz) {
+        final float eps = 0.001f;
+        int x0 = tileOf(px - eps), x1 = tileOf(px + eps);
+        int z0 = tileOf(pz - eps), z1 = tileOf(pz + eps);
+        for (int x = x0; x <= x1; x++) {
+            for (int z = z0; z <= z1; z++) {
+                if (isPassable(x, z))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if the straight line from (ax,az) to (bx,bz) does not pass a wall, void,
+     * or a closed door. The line is sampled until it is within stopDistance from
+     * its end point, so that the tile holding the target itself is not checked.
+     */
+    boolean lineOfSight(float ax, float az, float bx, float bz, float stopDistance) {
+        float dx = bx - ax;
+        float dz = bz - az;
+        float length = (float) Math.sqrt(dx * dx + dz * dz);
+        final float step = 0.25f;
+        for (float t = step; t < length - stopDistance; t += step) {
+            float px = ax + dx * t / length;
+            float pz = az + dz * t / length;
+            if (!isWalkable(px, pz))
+                return false;
+        }
+        return true;
+    }
+
+    // ======== the primitives
+
+    public Observation observe(String agentId) {
+        tick++;
+        return makeObservation(getAgent(agentId));
+    }
+
+    /**
+     * Move the agent one step towards the target location. If the straight step is
+     * blocked, the agent slides along the blocking axis if possible.
+     */
+    public Observation moveToward(String agentId, Vec3 target) {
+        tick++;
+        var agent = getAgent(agentId);
+        if (agent.health > 0) {
+            float dx = target.x - agent.x;
+            float dz = target.z - agent.z;
+            float dist = (float) Math.sqrt(dx * dx + dz * dz);
+            if (dist > 0.0001f) {
+                float d = Math.min(agentSpeed, dist);
+                float nx = agent.x + dx * d / dist;
+                float nz = agent.z + dz * d / dist;
+                if (isWalkable(nx, nz)) {
+                    agent.x = nx;
+                    agent.z = nz;
+                } else if (isWalkable(nx, agent.z)) {
+                    agent.x = nx;
+                } else if (isWalkable(agent.x, nz)) {
+                    agent.z = nz;
+                }
+            }
+            applyHazards(agent);
+        }
+        return makeObservation(agent);
+    }
+
+    /**
+     * Let the agent interact with the given button. This only has effect if the
+     * button is close enough and visible. Toggling a button toggles all doors
+     * connected to it.
+     */
+    public Observation interact(String agentId, String targetId) {
+        tick++;
+        var agent = getAgent(agentId);
+        var button = entities.get(targetId);
+        if (agent.health > 0 && button != null && button.type.equals(SWITCH)) {
+            float dx = button.x - agent.x;
+            float dz = button.z - agent.z;
+            if (dx * dx + dz * dz <= interactionDistance * interactionDistance
+                    && lineOfSight(agent.x, agent.z, button.x, button.z, 0.5f)) {
+                button.isOn = !button.isOn;
+                button.lastChanged = tick;
+                for (String doorId : level.doorsConnectedTo(targetId)) {
+                    var door = entities.get(doorId);
+                    if (door != null) {
+                        door.isOpen = !door.isOpen;
+                        door.lastChanged = tick;
+                    }
+                }
+            }
+        }
+        return makeObservation(agent);
+    }
+
+    private void applyHazards(SimAgent agent) {
+        int x = tileOf(agent.x);
+        int z = tileOf(agent.z);
+        if (level.inBounds(x, z) && fireAtTile[z][x]) {
+            agent.health = Math.max(0, agent.health - fireDamagePerTick);
+        }
+    }
+
+    private Observation makeObservation(SimAgent agent) {
+        var obs = new Observation();
+        obs.agentId = agent.id;
+        obs.tick = tick;
+        obs.x = agent.x;
+        obs.z = agent.z;
+        obs.health = agent.health;
+        obs.score = agent.score;
+        float range2 = viewDistance * viewDistance;
+        for (var e : entities.values()) {
+            float dx = e.x - agent.x;
+            float dz = e.z - agent.z;
+            if (dx * dx + dz * dz <= range2 && lineOfSight(agent.x, agent.z, e.x, e.z, 0.5f)) {
+                obs.entities.add(e.copy());
+            }
+        }
+        obs.visibleNavigationNodes = visibleNavigationNodes(agent);
+        return obs;
+    }
+
+    /**
+     * Only the tile-corners within the view-distance are checked, so the cost of
+     * this does not grow with the size of the level.
+     */
+    private int[] visibleNavigationNodes(SimAgent agent) {
+        int r = (int) Math.ceil(viewDistance) + 1;
+        int cx = tileOf(agent.x);
+        int cz = tileOf(agent.z);
+        float range2 = viewDistance * viewDistance;
+        int[] buffer = new int[(2 * r + 2) * (2 * r + 2)];
+        int n = 0;
+        for (int z = Math.max(0, cz - r); z <= Math.min(level.depth, cz + r + 1); z++) {
+            for (int x = Math.max(0, cx - r); x <= Math.min(level.width, cx + r + 1); x++) {
+                int v = cornerVertex[z][x];
+                if (v < 0)
+                    continue;
+                float vx = x - 0.5f;
+                float vz = z - 0.5f;
+                float dx = vx - agent.x;
+                float dz = vz - agent.z;
+                if (dx * dx + dz * dz <= range2 && lineOfSight(agent.x, agent.z, vx, vz, 0.05f)) {
+                    buffer[n++] = v;
+                }
+            }
+        }
+        return Arrays.copyOf(buffer, n);
+    }
+}
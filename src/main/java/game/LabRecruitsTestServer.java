@@ -12,6 +12,9 @@ import helperclasses.PrintColor;
 import helperclasses.Util;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
@@ -51,10 +54,19 @@ public class LabRecruitsTestServer {
         start(useGraphics, binaryPath);
     }
 
+    /**
+     * As {@link #LabRecruitsTestServer(Boolean, String)}, but passing additional
+     * command-line arguments to the game, e.g. to make it listen to a different
+     * port.
+     */
+    public LabRecruitsTestServer(Boolean useGraphics, String binaryPath, String... extraArguments) {
+        start(useGraphics, binaryPath, extraArguments);
+    }
+
     /**
      * Launch the Lab Recruits game.
      */
-    private void start(Boolean useGraphics, String binaryPath) {
+    private void start(Boolean useGraphics, String binaryPath, String... extraArguments) {
         // try to start the server
 
         if (Platform.isLinux())
@@ -67,8 +79,14 @@ public class LabRecruitsTestServer {
                     "The current server is still running. Close the server first by calling Close();");
 
         try {
-            ProcessBuilder pb = new ProcessBuilder(useGraphics ? new String[] { binaryPath }
-                    : new String[] { binaryPath, "-batchmode", "-nographics" });
+            List<String> command = new ArrayList<>();
+            command.add(binaryPath);
+            if (!useGraphics) {
+                command.add("-batchmode");
+                command.add("-nographics");
+            }
+            command.addAll(Arrays.asList(extraArguments));
+            ProcessBuilder pb = new ProcessBuilder(command);
 
             pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
             pb.redirectError(ProcessBuilder.Redirect.INHERIT);
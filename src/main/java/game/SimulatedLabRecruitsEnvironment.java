@@ -0,0 +1,118 @@
+package game;
+
+import java.io.IOException;
+
+import environments.LabRecruitsEnvironment;
+import eu.iv4xr.framework.environments.W3DEnvironment;
+import eu.iv4xr.framework.spatial.Vec3;
+import sun.reflect.ReflectionFactory;
+import world.LabEntity;
+import world.LabWorldModel;
+import world.NavMeshSimplifier;
+
+/**
+ * A {@link LabRecruitsEnvironment} that is backed by a {@link LabRecruitsSimulator}
+ * rather than by a running instance of Lab Recruits. Agents can be attached to it
+ * just as to the real environment. All commands are answered in-process.
+ *
+ * <p>The constructors of {@link LabRecruitsEnvironment} all connect to a running
+ * game, so instances are made by {@link #create(LabRecruitsSimulator)}, which skips
+ * them: it only runs the constructor of {@link W3DEnvironment}. The base class'
+ * connection is therefore never opened, nor used, as every command is overridden.
+ *
+ * <p>Creating the environment once and calling {@link #reset()} between episodes
+ * is cheap: the level is parsed and the navigation mesh is built only once.
+ */
+public class SimulatedLabRecruitsEnvironment extends LabRecruitsEnvironment {
+
+    public LabRecruitsSimulator simulator;
+
+    /**
+     * Not used; see {@link #create(LabRecruitsSimulator)}.
+     */
+    private SimulatedLabRecruitsEnvironment() {
+        super();
+        throw new UnsupportedOperationException("use SimulatedLabRecruitsEnvironment.create");
+    }
+
+    /**
+     * Create a simulated environment backed by the given simulator, without connecting
+     * to Lab Recruits.
+     */
+    public static SimulatedLabRecruitsEnvironment create(LabRecruitsSimulator simulator) {
+        SimulatedLabRecruitsEnvironment env;
+        try {
+            var constructor = ReflectionFactory.getReflectionFactory().newConstructorForSerialization(
+                    SimulatedLabRecruitsEnvironment.class, W3DEnvironment.class.getDeclaredConstructor());
+            env = (SimulatedLabRecruitsEnvironment) constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create a simulated Lab Recruits environment", e);
+        }
+        env.simulator = simulator;
+        env.worldNavigableMesh = simulator.navigationMesh();
+        if (NavMeshSimplifier.enabled)
+            env.worldNavigableMesh = NavMeshSimplifier.forLevel(simulator.level).simplify(env.worldNavigableMesh);
+        return env;
+    }
+
+    /**
+     * Create a simulated environment running the given level.
+     */
+    public static SimulatedLabRecruitsEnvironment load(String levelsDir, String levelName) throws IOException {
+        return create(new LabRecruitsSimulator(LabRecruitsLevel.load(levelsDir, levelName)));
+    }
+
+    /**
+     * Put the level back to its initial state.
+     */
+    public void reset() {
+        simulator.reset();
+    }
+
+    @Override
+    public LabWorldModel observe(String agentId) {
+        return toWorldModel(simulator.observe(agentId));
+    }
+
+    @Override
+    public LabWorldModel moveToward(String agentId, Vec3 agentLocation, Vec3 targetLocation) {
+        return toWorldModel(simulator.moveToward(agentId, targetLocation));
+    }
+
+    @Override
+    public LabWorldModel interact(String agentId, String targetId, String interactionType) {
+        return toWorldModel(simulator.interact(agentId, targetId));
+    }
+
+    @Override
+    public boolean close() {
+        return true;
+    }
+
+    private static LabWorldModel toWorldModel(LabRecruitsSimulator.Observation obs) {
+        var wom = new LabWorldModel();
+        var extent = LabRecruitsSimulator.AGENT_EXTENT;
+        wom.agentId = obs.agentId;
+        wom.timestamp = obs.tick;
+        wom.position = new Vec3(obs.x, extent.y, obs.z);
+        wom.extent = new Vec3(extent.x, extent.y, extent.z);
+        wom.velocity = new Vec3(0, 0, 0);
+        wom.health = obs.health;
+        wom.score = obs.score;
+        wom.gameover = obs.health <= 0;
+        wom.visibleNavigationNodes = obs.visibleNavigationNodes;
+        for (var e : obs.entities) {
+            var entity = new LabEntity(e.id, e.type, true);
+            entity.timestamp = obs.tick;
+            entity.position = new Vec3(e.x, e.extent.y, e.z);
+            entity.extent = new Vec3(e.extent.x, e.extent.y, e.extent.z);
+            entity.velocity = new Vec3(0, 0, 0);
+            if (e.type.equals(LabRecruitsSimulator.SWITCH))
+                entity.properties.put("isOn", e.isOn);
+            if (e.type.equals(LabRecruitsSimulator.DOOR))
+                entity.properties.put("isOpen", e.isOpen);
+            wom.elements.put(entity.id, entity);
+        }
+        return wom;
+    }
+}
@@ -60,4 +60,25 @@ public class MyConfig {
 	 */
 	static public int delayBetweenAgentUpateCycles = 50 ;
 	
+	/**
+	 * If true, the experiment runners play the level on the in-process simulator
+	 * {@link game.LabRecruitsSimulator} instead of launching Lab Recruits. 
+	 * Default: false.
+	 */
+	static public boolean useSimulator = false ;
+	
+	/**
+	 * The number of workers, each with its own instance of the SUT, that the search
+	 * algorithms may use to run episodes in parallel. Only used by algorithms that
+	 * support it. Default: 1 (no parallelism).
+	 */
+	static public int numberOfWorkers = 1 ;
+	
+	/**
+	 * If true, button-prefixes that were played before are replayed along the recorded
+	 * routes, skipping the exploration after every toggle. See 
+	 * {@link algorithms.BaseSearchAlgorithm#fastPrefixReplay}. Default: false.
+	 */
+	static public boolean fastPrefixReplay = false ;
+	
 }
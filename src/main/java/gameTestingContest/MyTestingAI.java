@@ -1,6 +1,7 @@
 package gameTestingContest;
 
 
+import java.io.IOException;
 import java.util.*;
 import java.util.function.Function;
 
@@ -11,7 +12,10 @@ import algorithms.DebugUtil;
 import algorithms.Evolutionary;
 import algorithms.MCTS;
 import algorithms.QAlg;
+import algorithms.XBelief;
 import eu.iv4xr.framework.spatial.Vec3;
+import game.LabRecruitsServerPool;
+import game.SimulatedLabRecruitsEnvironment;
 import nl.uu.cs.aplib.utils.Pair;
 import world.BeliefState;
 import world.LabEntity;
@@ -28,6 +32,12 @@ public class MyTestingAI {
 	 */
 	public Function<Void,LabRecruitsTestAgent> agentConstructor = null ;
 	
+	/**
+	 * Agent-constructors for the workers of algorithms that run episodes in
+	 * parallel. Each should create agents on its own instance of the SUT.
+	 */
+	public List<Function<Void,LabRecruitsTestAgent>> workerAgentConstructors = new LinkedList<>() ;
+	
 	/**
 	 * If defined, this closes the SUT.
 	 */
@@ -37,6 +47,44 @@ public class MyTestingAI {
 	 * The used search-algorithm.
 	 */
 	public BaseSearchAlgorithm algorithm ;
+	
+	/**
+	 * Make an agent-constructor that creates agents on the given instance from
+	 * a {@link LabRecruitsServerPool}; every call reloads the given level on it.
+	 */
+	public static Function<Void,LabRecruitsTestAgent> pooledAgentConstructor(
+			LabRecruitsServerPool.Instance instance,
+			String levelsDir, 
+			String levelName, 
+			String agentId) {
+		return dummy -> {
+			var env = instance.startEpisode(levelName, levelsDir) ;
+			LabRecruitsTestAgent agent = new LabRecruitsTestAgent(agentId)
+					.attachState(new XBelief())
+					.attachEnvironment(env) ;
+			return agent ;
+		} ;
+	}
+	
+	/**
+	 * Make an agent-constructor that plays the given level on the in-process
+	 * simulator rather than on Lab Recruits. The level is loaded only once; every
+	 * call of the constructor resets it to its initial state and returns a fresh
+	 * agent attached to it.
+	 */
+	public static Function<Void,LabRecruitsTestAgent> simulatedAgentConstructor(
+			String levelsDir, 
+			String levelName, 
+			String agentId) throws IOException {
+		var env = SimulatedLabRecruitsEnvironment.load(levelsDir, levelName) ;
+		return dummy -> {
+			env.reset() ;
+			LabRecruitsTestAgent agent = new LabRecruitsTestAgent(agentId)
+					.attachState(new XBelief())
+					.attachEnvironment(env) ;
+			return agent ;
+		} ;
+	}
 
 	/**
 	 * IMPLEMENT THIS METHOD.
@@ -99,6 +147,7 @@ public class MyTestingAI {
 			  evo.maxPopulationSize = 10 ;
 			  evo.numberOfElitesToKeepDuringSelection = 3 ;
 			  evo.maxChromosomeLength = MyConfig.solutionLengthUpperBound ;
+			  evo.workerAgentConstructors = workerAgentConstructors ;
 			  algorithm = evo ;
 			  break ;
 			  
@@ -106,6 +155,7 @@ public class MyTestingAI {
 			   var mcts = new MCTS(agentConstructor) ;
 			   DebugUtil.log("** Using MCTS-algorithm") ;
 			   mcts.maxdepth = MyConfig.solutionLengthUpperBound  ;
+			   mcts.workerAgentConstructors = workerAgentConstructors ;
 			   algorithm = mcts ;
 			   break ;
 			   
@@ -139,6 +189,7 @@ public class MyTestingAI {
 		algorithm.budget_per_task = MyConfig.budget_per_task ;
 		algorithm.explorationBudget = MyConfig.explorationBudget ;
 		algorithm.delayBetweenAgentUpateCycles = MyConfig.delayBetweenAgentUpateCycles ;
+		algorithm.fastPrefixReplay = MyConfig.fastPrefixReplay ;
 		algorithm.closeSUT = this.closeSUT ;
 
 		if (MyConfig.target != null) {
@@ -0,0 +1,99 @@
+package helperclasses;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs, using open addressing with linear probing. Unlike a
+ * HashSet&lt;Long&gt;, adding and looking up a value does not allocate.
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0L;
+
+    private long[] keys;
+    private boolean containsEmptyKey = false;
+    private int size = 0;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    /**
+     * Create a set that can hold the given number of values without resizing.
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < 2 * expectedSize)
+            capacity <<= 1;
+        keys = new long[capacity];
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * Add the value. Returns true if it was not in the set yet.
+     */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (containsEmptyKey)
+                return false;
+            containsEmptyKey = true;
+            size++;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int k = hash(key) & mask;
+        while (keys[k] != EMPTY) {
+            if (keys[k] == key)
+                return false;
+            k = (k + 1) & mask;
+        }
+        keys[k] = key;
+        size++;
+        if (2 * size > keys.length)
+            grow();
+        return true;
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY)
+            return containsEmptyKey;
+        int mask = keys.length - 1;
+        int k = hash(key) & mask;
+        while (keys[k] != EMPTY) {
+            if (keys[k] == key)
+                return true;
+            k = (k + 1) & mask;
+        }
+        return false;
+    }
+
+    private void grow() {
+        long[] old = keys;
+        keys = new long[2 * old.length];
+        int mask = keys.length - 1;
+        for (long key : old) {
+            if (key == EMPTY)
+                continue;
+            int k = hash(key) & mask;
+            while (keys[k] != EMPTY)
+                k = (k + 1) & mask;
+            keys[k] = key;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        containsEmptyKey = false;
+        size = 0;
+    }
+}
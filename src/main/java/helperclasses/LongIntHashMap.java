@@ -0,0 +1,108 @@
+package helperclasses;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive longs to primitive ints, using open addressing with linear
+ * probing. Unlike a HashMap&lt;Long,Integer&gt;, putting and getting a value does
+ * not allocate. Getting an absent key returns {@link #NO_VALUE}.
+ */
+public class LongIntHashMap {
+
+    public static final int NO_VALUE = -1;
+
+    private static final long EMPTY = 0L;
+
+    private long[] keys;
+    private int[] values;
+    private int valueOfEmptyKey = NO_VALUE;
+    private int size = 0;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * Create a map that can hold the given number of entries without resizing.
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < 2 * expectedSize)
+            capacity <<= 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    public int get(long key) {
+        if (key == EMPTY)
+            return valueOfEmptyKey;
+        int mask = keys.length - 1;
+        int k = hash(key) & mask;
+        while (keys[k] != EMPTY) {
+            if (keys[k] == key)
+                return values[k];
+            k = (k + 1) & mask;
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Map the key to the value, which should not be {@link #NO_VALUE}.
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            if (valueOfEmptyKey == NO_VALUE)
+                size++;
+            valueOfEmptyKey = value;
+            return;
+        }
+        int mask = keys.length - 1;
+        int k = hash(key) & mask;
+        while (keys[k] != EMPTY) {
+            if (keys[k] == key) {
+                values[k] = value;
+                return;
+            }
+            k = (k + 1) & mask;
+        }
+        keys[k] = key;
+        values[k] = value;
+        size++;
+        if (2 * size > keys.length)
+            grow();
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[2 * oldKeys.length];
+        values = new int[2 * oldKeys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY)
+                continue;
+            int k = hash(oldKeys[i]) & mask;
+            while (keys[k] != EMPTY)
+                k = (k + 1) & mask;
+            keys[k] = oldKeys[i];
+            values[k] = oldValues[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        valueOfEmptyKey = NO_VALUE;
+        size = 0;
+    }
+}
@@ -0,0 +1,602 @@
+package world;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import eu.iv4xr.framework.extensions.pathfinding.SurfaceNavGraph;
+import eu.iv4xr.framework.spatial.Vec3;
+
+/**
+ * A two-level abstraction of a navigation graph, in the style of HPA*, for answering
+ * path queries on large levels without searching the whole graph. The nodes are
+ * grouped in clusters by a uniform grid. A node with an edge to another cluster is a
+ * portal; doors and chokepoints between clusters thus end up as portals. For every
+ * cluster the shortest distances between its portals, staying within the cluster, are
+ * computed when the cluster is first needed. A query then only searches the clusters
+ * of its two end points, and the abstract graph of portals in between. Reachability
+ * is cheaper still: every cluster is split in its connected regions, and the regions
+ * are labelled with the connected component of the whole graph they belong to.
+ *
+ * <p>As the pathfinder of an agent, only nodes that have been seen are used, and
+ * edges are only used if the given {@link EdgeFilter} does not block them. The
+ * abstract graph is computed with a base filter, which represents the current state
+ * of the obstacles. When that state changes, the clusters around the changed obstacle
+ * must be invalidated with {@link #invalidateArea(Vec3, Vec3)}; likewise,
+ * {@link #invalidateNode(int)} when a node is seen for the first time. A query can
+ * also use a different filter, e.g. one that pretends a door is open, if it says
+ * which clusters that filter affects; those are then computed for that query only.
+ *
+ * <p>Queries only read the abstract graph (computing missing clusters on the fly),
+ * so they can run concurrently; invalidation should not run concurrently with them.
+ */
+public class HierarchicalNavGraph {
+
+    /**
+     * Tells whether the edge between two navigation nodes is blocked.
+     */
+    public interface EdgeFilter {
+        boolean isBlocked(int v, int w);
+    }
+
+    /**
+     * The width of the (cubic) grid cells that define the clusters.
+     */
+    public static float clusterSize = 8f;
+
+    /**
+     * Navigation graphs with fewer nodes than this are better searched directly.
+     */
+    public static int minimumSize = 2000;
+
+    public final SurfaceNavGraph nav;
+    final EdgeFilter baseFilter;
+
+    int[] clusterOf;
+    int[] localIndex;
+    int[][] clusterNodes;
+
+    /**
+     * For every cluster, the bounding box (in xz: minx, minz, maxx, maxz) of its nodes
+     * and the nodes they have edges to.
+     */
+    float[] bounds;
+
+    AtomicReferenceArray<ClusterData> clusters;
+
+    /**
+     * The connected components of the whole graph under the base filter, as labels of
+     * the regions of the clusters; null when it has to be recomputed.
+     */
+    volatile Components baseComponents;
+
+    /**
+     * Labels the regions of all clusters with the connected component they are in. The
+     * label of region r of cluster c is label[offset[c] + r].
+     */
+    static class Components {
+        int[] offset;
+        int[] label;
+    }
+
+    /**
+     * Number of times the abstract graph of a cluster was computed.
+     */
+    public final AtomicInteger clusterComputations = new AtomicInteger();
+
+    /**
+     * The abstract graph within a single cluster.
+     */
+    static class ClusterData {
+        EdgeFilter filter;
+
+        /**
+         * region[k] identifies the connected part of the cluster the k-th node of the
+         * cluster is in, or is -1 if that node has not been seen.
+         */
+        int[] region;
+        int numberOfRegions;
+
+        int[] portals;
+
+        /**
+         * portalIndex[k] is the index in portals of the k-th node of the cluster, or -1
+         * if it is not a portal.
+         */
+        int[] portalIndex;
+
+        /**
+         * distances[i*P + j] is the distance between portals i and j within the
+         * cluster, where P is the number of portals. Reachability queries do not need
+         * them, so they are only computed when a cost or path is asked.
+         */
+        volatile float[] distances;
+
+        /**
+         * For every portal, its unblocked edges to seen nodes in other clusters.
+         */
+        int[][] crossings;
+    }
+
+    public HierarchicalNavGraph(SurfaceNavGraph nav, EdgeFilter baseFilter) {
+        this.nav = nav;
+        this.baseFilter = baseFilter;
+        int N = nav.vertices.size();
+        clusterOf = new int[N];
+        localIndex = new int[N];
+        Map<Long, Integer> clusterOfCell = new HashMap<>();
+        List<List<Integer>> members = new ArrayList<>();
+        for (int v = 0; v < N; v++) {
+            Vec3 p = nav.vertices.get(v);
+            long key = cellKey(cell(p.x), cell(p.y), cell(p.z));
+            Integer c = clusterOfCell.get(key);
+            if (c == null) {
+                c = members.size();
+                clusterOfCell.put(key, c);
+                members.add(new ArrayList<>());
+            }
+            clusterOf[v] = c;
+            localIndex[v] = members.get(c).size();
+            members.get(c).add(v);
+        }
+        int C = members.size();
+        clusterNodes = new int[C][];
+        bounds = new float[4 * C];
+        Arrays.fill(bounds, Float.NaN);
+        for (int c = 0; c < C; c++) {
+            clusterNodes[c] = members.get(c).stream().mapToInt(v -> v).toArray();
+            for (int v : clusterNodes[c]) {
+                extendBounds(c, nav.vertices.get(v));
+                for (int w : nav.edges.neighbours(v))
+                    extendBounds(c, nav.vertices.get(w));
+            }
+        }
+        clusters = new AtomicReferenceArray<>(C);
+    }
+
+    static long cell(float x) {
+        return (long) Math.floor(x / clusterSize);
+    }
+
+    static long cellKey(long cx, long cy, long cz) {
+        return ((cx & 0x1FFFFF) << 42) | ((cy & 0x1FFFFF) << 21) | (cz & 0x1FFFFF);
+    }
+
+    private void extendBounds(int c, Vec3 p) {
+        if (Float.isNaN(bounds[4 * c])) {
+            bounds[4 * c] = bounds[4 * c + 2] = p.x;
+            bounds[4 * c + 1] = bounds[4 * c + 3] = p.z;
+            return;
+        }
+        bounds[4 * c] = Math.min(bounds[4 * c], p.x);
+        bounds[4 * c + 1] = Math.min(bounds[4 * c + 1], p.z);
+        bounds[4 * c + 2] = Math.max(bounds[4 * c + 2], p.x);
+        bounds[4 * c + 3] = Math.max(bounds[4 * c + 3], p.z);
+    }
+
+    public int numberOfClusters() {
+        return clusterNodes.length;
+    }
+
+    // ======== invalidation
+
+    /**
+     * Forget the abstract graph of all clusters.
+     */
+    public void invalidateAll() {
+        baseComponents = null;
+        for (int c = 0; c < clusters.length(); c++)
+            clusters.set(c, null);
+    }
+
+    /**
+     * Forget the abstract graph of the clusters around the node, e.g. because it is
+     * seen for the first time.
+     */
+    public void invalidateNode(int v) {
+        baseComponents = null;
+        clusters.set(clusterOf[v], null);
+        for (int w : nav.edges.neighbours(v))
+            clusters.set(clusterOf[w], null);
+    }
+
+    /**
+     * Forget the abstract graph of the clusters whose edges may pass the box with the
+     * given center and extent (projected on the xz-plane), e.g. because a door there
+     * was opened or closed.
+     */
+    public void invalidateArea(Vec3 center, Vec3 extent) {
+        var affected = clustersNear(center, extent);
+        if (!affected.isEmpty())
+            baseComponents = null;
+        for (int c = affected.nextSetBit(0); c >= 0; c = affected.nextSetBit(c + 1))
+            clusters.set(c, null);
+    }
+
+    /**
+     * The clusters whose edges may pass the box with the given center and extent
+     * (projected on the xz-plane).
+     */
+    public BitSet clustersNear(Vec3 center, Vec3 extent) {
+        BitSet affected = new BitSet();
+        float hx = Math.abs(extent.x);
+        float hz = Math.abs(extent.z);
+        for (int c = 0; c < clusterNodes.length; c++) {
+            if (bounds[4 * c] <= center.x + hx && center.x - hx <= bounds[4 * c + 2]
+                    && bounds[4 * c + 1] <= center.z + hz && center.z - hz <= bounds[4 * c + 3])
+                affected.set(c);
+        }
+        return affected;
+    }
+
+    // ======== the abstract graph of a cluster
+
+    private ClusterData base(int c) {
+        ClusterData data = clusters.get(c);
+        if (data == null) {
+            data = compute(c, baseFilter);
+            clusters.compareAndSet(c, null, data);
+        }
+        return data;
+    }
+
+    ClusterData compute(int c, EdgeFilter filter) {
+        clusterComputations.incrementAndGet();
+        int[] nodes = clusterNodes[c];
+        var data = new ClusterData();
+        data.filter = filter;
+        data.region = new int[nodes.length];
+        Arrays.fill(data.region, -1);
+        data.portalIndex = new int[nodes.length];
+        Arrays.fill(data.portalIndex, -1);
+        int[] stack = new int[nodes.length];
+        List<Integer> portals = new ArrayList<>();
+        List<int[]> crossings = new ArrayList<>();
+        for (int k = 0; k < nodes.length; k++) {
+            int v = nodes[k];
+            if (!nav.hasbeenSeen(v))
+                continue;
+            if (data.region[k] < 0) {
+                // a new region; flood it within the cluster:
+                int r = data.numberOfRegions++;
+                data.region[k] = r;
+                int top = 0;
+                stack[top++] = v;
+                while (top > 0) {
+                    int x = stack[--top];
+                    for (int w : nav.edges.neighbours(x)) {
+                        if (clusterOf[w] == c && data.region[localIndex[w]] < 0 && nav.hasbeenSeen(w)
+                                && !filter.isBlocked(x, w)) {
+                            data.region[localIndex[w]] = r;
+                            stack[top++] = w;
+                        }
+                    }
+                }
+            }
+            List<Integer> out = new ArrayList<>();
+            for (int w : nav.edges.neighbours(v)) {
+                if (clusterOf[w] != c && nav.hasbeenSeen(w) && !filter.isBlocked(v, w))
+                    out.add(w);
+            }
+            if (out.isEmpty())
+                continue;
+            data.portalIndex[k] = portals.size();
+            portals.add(v);
+            crossings.add(out.stream().mapToInt(w -> w).toArray());
+        }
+        data.portals = portals.stream().mapToInt(v -> v).toArray();
+        data.crossings = crossings.toArray(new int[0][]);
+        return data;
+    }
+
+    /**
+     * The distances between the portals of the cluster, computed on first use.
+     */
+    float[] distances(int c, ClusterData data) {
+        float[] distances = data.distances;
+        if (distances != null)
+            return distances;
+        int P = data.portals.length;
+        distances = new float[P * P];
+        for (int i = 0; i < P; i++) {
+            float[] d = localSearch(c, data.portals[i], data.filter, null);
+            for (int j = 0; j < P; j++)
+                distances[i * P + j] = d[localIndex[data.portals[j]]];
+        }
+        data.distances = distances;
+        return distances;
+    }
+
+    /**
+     * Label the regions of all clusters with their connected component, using the
+     * abstract graphs of the query. Edges are assumed to be blocked in both directions
+     * or in neither.
+     */
+    private Components components(Query query) {
+        int C = clusterNodes.length;
+        var comps = new Components();
+        ClusterData[] data = new ClusterData[C];
+        comps.offset = new int[C + 1];
+        for (int c = 0; c < C; c++) {
+            data[c] = query.cluster(c);
+            comps.offset[c + 1] = comps.offset[c] + data[c].numberOfRegions;
+        }
+        // union-find over all regions:
+        int[] parent = new int[comps.offset[C]];
+        for (int k = 0; k < parent.length; k++)
+            parent[k] = k;
+        for (int c = 0; c < C; c++) {
+            ClusterData d = data[c];
+            for (int i = 0; i < d.portals.length; i++) {
+                int a = find(parent, comps.offset[c] + d.region[localIndex[d.portals[i]]]);
+                for (int w : d.crossings[i]) {
+                    ClusterData other = data[clusterOf[w]];
+                    if (other.portalIndex[localIndex[w]] < 0)
+                        continue;
+                    int b = find(parent, comps.offset[clusterOf[w]] + other.region[localIndex[w]]);
+                    if (a != b) {
+                        parent[b] = a;
+                    }
+                }
+            }
+        }
+        for (int k = 0; k < parent.length; k++)
+            parent[k] = find(parent, k);
+        comps.label = parent;
+        return comps;
+    }
+
+    private static int find(int[] parent, int k) {
+        while (parent[k] != k) {
+            parent[k] = parent[parent[k]];
+            k = parent[k];
+        }
+        return k;
+    }
+
+    /**
+     * Dijkstra from the source, staying within its cluster. Returns the distances,
+     * indexed by the local index of the nodes. If pred is not null, it receives the
+     * local index of the predecessor of every reached node.
+     */
+    float[] localSearch(int c, int source, EdgeFilter filter, int[] pred) {
+        int[] nodes = clusterNodes[c];
+        float[] cost = new float[nodes.length];
+        Arrays.fill(cost, Float.POSITIVE_INFINITY);
+        // entries are (cost,node); stale entries are skipped when polled
+        PriorityQueue<float[]> queue = new PriorityQueue<>((a, b) -> Float.compare(a[0], b[0]));
+        cost[localIndex[source]] = 0;
+        queue.add(new float[] { 0, source });
+        while (!queue.isEmpty()) {
+            var top = queue.poll();
+            int v = (int) top[1];
+            if (top[0] > cost[localIndex[v]])
+                continue;
+            for (int w : nav.edges.neighbours(v)) {
+                if (clusterOf[w] != c || !nav.hasbeenSeen(w))
+                    continue;
+                float d = cost[localIndex[v]] + Vec3.dist(nav.vertices.get(v), nav.vertices.get(w));
+                if (d < cost[localIndex[w]] && !filter.isBlocked(v, w)) {
+                    cost[localIndex[w]] = d;
+                    if (pred != null)
+                        pred[localIndex[w]] = localIndex[v];
+                    queue.add(new float[] { d, w });
+                }
+            }
+        }
+        return cost;
+    }
+
+    // ======== queries
+
+    /**
+     * The state of a single query: the filter it uses, and the abstract graphs of the
+     * clusters that filter affects, computed for this query only.
+     */
+    private class Query {
+        EdgeFilter filter;
+        BitSet affected;
+        Map<Integer, ClusterData> own = new HashMap<>();
+
+        Query(EdgeFilter filter, BitSet affected) {
+            this.filter = filter == null ? baseFilter : filter;
+            this.affected = affected == null ? new BitSet() : affected;
+        }
+
+        EdgeFilter filterOf(int c) {
+            return affected.get(c) ? filter : baseFilter;
+        }
+
+        ClusterData cluster(int c) {
+            if (!affected.get(c))
+                return base(c);
+            return own.computeIfAbsent(c, c_ -> compute(c_, filter));
+        }
+    }
+
+    /**
+     * The result of the abstract search: the cost, and the portals on the way (from
+     * source to target).
+     */
+    private static class AbstractPath {
+        float cost = Float.POSITIVE_INFINITY;
+        List<Integer> portals = new ArrayList<>();
+    }
+
+    /**
+     * The length of the shortest path from s to t, or infinity if there is none, using
+     * the base filter.
+     */
+    public float cost(int s, int t) {
+        return cost(s, t, null, null);
+    }
+
+    /**
+     * The length of the shortest path from s to t, or infinity if there is none. The
+     * edges are filtered with the given filter in the given clusters, and with the base
+     * filter elsewhere. If filter is null, the base filter is used everywhere.
+     */
+    public float cost(int s, int t, EdgeFilter filter, BitSet affectedClusters) {
+        // the abstract search would otherwise exhaust the graph before giving up:
+        if (!pathExists(s, t, filter, affectedClusters))
+            return Float.POSITIVE_INFINITY;
+        return search(s, t, new Query(filter, affectedClusters), false).cost;
+    }
+
+    /**
+     * Whether there is a path from s to t, with the edges filtered as in
+     * {@link #cost(int, int, EdgeFilter, BitSet)}. This only looks up the connected
+     * components of the two nodes, which for the base filter are kept until the next
+     * invalidation. A query with its own filter recomputes them, but still without
+     * searching the graph itself.
+     */
+    public boolean pathExists(int s, int t, EdgeFilter filter, BitSet affectedClusters) {
+        if (s == t)
+            return true;
+        if (!nav.hasbeenSeen(t))
+            return false;
+        var query = new Query(filter, affectedClusters);
+        Components comps;
+        if (query.affected.isEmpty()) {
+            comps = baseComponents;
+            if (comps == null) {
+                comps = components(query);
+                baseComponents = comps;
+            }
+        } else {
+            comps = components(query);
+        }
+        int ct = clusterOf[t];
+        int target = comps.label[comps.offset[ct] + query.cluster(ct).region[localIndex[t]]];
+        int cs = clusterOf[s];
+        ClusterData source = query.cluster(cs);
+        if (nav.hasbeenSeen(s))
+            return comps.label[comps.offset[cs] + source.region[localIndex[s]]] == target;
+        // an unseen node can still step to its seen neighbours in the same cluster:
+        EdgeFilter f = query.filterOf(cs);
+        for (int w : nav.edges.neighbours(s)) {
+            if (clusterOf[w] == cs && nav.hasbeenSeen(w) && !f.isBlocked(s, w)
+                    && comps.label[comps.offset[cs] + source.region[localIndex[w]]] == target)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The shortest path from s to t, as a list of nodes, or null if there is none. The
+     * path is found on the abstract graph, and then refined within each cluster it
+     * passes.
+     */
+    public List<Integer> findPath(int s, int t, EdgeFilter filter, BitSet affectedClusters) {
+        if (!pathExists(s, t, filter, affectedClusters))
+            return null;
+        var query = new Query(filter, affectedClusters);
+        var abstractPath = search(s, t, query, true);
+        if (abstractPath.cost == Float.POSITIVE_INFINITY)
+            return null;
+        List<Integer> path = new ArrayList<>();
+        path.add(s);
+        int from = s;
+        for (int p : abstractPath.portals) {
+            if (clusterOf[p] == clusterOf[from])
+                appendLocalPath(path, from, p, query);
+            else
+                path.add(p);
+            from = p;
+        }
+        if (from != t)
+            appendLocalPath(path, from, t, query);
+        return path;
+    }
+
+    private void appendLocalPath(List<Integer> path, int from, int to, Query query) {
+        int c = clusterOf[from];
+        int[] pred = new int[clusterNodes[c].length];
+        localSearch(c, from, query.filterOf(c), pred);
+        LinkedList<Integer> segment = new LinkedList<>();
+        for (int k = localIndex[to]; k != localIndex[from]; k = pred[k])
+            segment.addFirst(clusterNodes[c][k]);
+        path.addAll(segment);
+    }
+
+    private AbstractPath search(int s, int t, Query query, boolean withPath) {
+        var result = new AbstractPath();
+        if (s == t) {
+            result.cost = 0;
+            return result;
+        }
+        if (!nav.hasbeenSeen(t))
+            return result;
+        int cs = clusterOf[s];
+        int ct = clusterOf[t];
+        float[] fromSource = localSearch(cs, s, query.filterOf(cs), null);
+        float[] toTarget = localSearch(ct, t, query.filterOf(ct), null);
+        if (cs == ct)
+            result.cost = fromSource[localIndex[t]];
+        Vec3 target = nav.vertices.get(t);
+
+        // A* over the portals; entries are (estimate,cost,portal):
+        Map<Integer, Float> cost = new HashMap<>();
+        Map<Integer, Integer> pred = new HashMap<>();
+        PriorityQueue<float[]> queue = new PriorityQueue<>((a, b) -> Float.compare(a[0], b[0]));
+        ClusterData source = query.cluster(cs);
+        for (int p : source.portals) {
+            float d = fromSource[localIndex[p]];
+            if (d < Float.POSITIVE_INFINITY) {
+                cost.put(p, d);
+                queue.add(new float[] { d + Vec3.dist(nav.vertices.get(p), target), d, p });
+            }
+        }
+        int last = -1;
+        while (!queue.isEmpty()) {
+            var top = queue.poll();
+            if (top[0] >= result.cost)
+                break;
+            int p = (int) top[2];
+            float g = top[1];
+            if (g > cost.get(p))
+                continue;
+            int cp = clusterOf[p];
+            if (cp == ct) {
+                float d = g + toTarget[localIndex[p]];
+                if (d < result.cost) {
+                    result.cost = d;
+                    last = p;
+                }
+            }
+            ClusterData data = query.cluster(cp);
+            int i = data.portalIndex[localIndex[p]];
+            if (i < 0)
+                continue;
+            int P = data.portals.length;
+            float[] distances = distances(cp, data);
+            for (int j = 0; j < P; j++) {
+                float d = distances[i * P + j];
+                if (d < Float.POSITIVE_INFINITY)
+                    relax(data.portals[j], g + d, p, cost, pred, queue, target);
+            }
+            for (int w : data.crossings[i]) {
+                ClusterData other = query.cluster(clusterOf[w]);
+                if (other.portalIndex[localIndex[w]] < 0)
+                    continue;
+                relax(w, g + Vec3.dist(nav.vertices.get(p), nav.vertices.get(w)), p, cost, pred, queue, target);
+            }
+        }
+        if (withPath && last >= 0) {
+            // the chain of predecessors ends at a portal reached directly from s:
+            for (Integer p = last; p != null; p = pred.get(p))
+                result.portals.add(0, p);
+        }
+        return result;
+    }
+
+    private void relax(int w, float d, int from, Map<Integer, Float> cost, Map<Integer, Integer> pred,
+            PriorityQueue<float[]> queue, Vec3 target) {
+        Float old = cost.get(w);
+        if (old != null && old <= d)
+            return;
+        cost.put(w, d);
+        pred.put(w, from);
+        queue.add(new float[] { d + Vec3.dist(nav.vertices.get(w), target), d, w });
+    }
+}
@@ -11,7 +11,8 @@ import eu.iv4xr.framework.spatial.Vec3;
 import eu.iv4xr.framework.spatial.meshes.Edge;
 import eu.iv4xr.framework.spatial.meshes.Face;
 import eu.iv4xr.framework.spatial.meshes.Mesh;
-import helperclasses.QArrayList;
+import helperclasses.LongHashSet;
+import helperclasses.LongIntHashMap;
 
 /**
  * This represents the raw navigation-mesh sent by Lab-Recruits. It is a list of
@@ -37,6 +38,24 @@ public class LabRecruitsRawNavMesh {
         this.vertices = vertices;
     }
 
+    /**
+     * Vertices closer than this are considered twins, see {@link #fix_broken_navmesh()}.
+     */
+    static final float WELD_EPSILON = 0.001f;
+
+    /**
+     * The key of the grid cell (of width {@link #WELD_EPSILON}) containing the given
+     * cell coordinates. Each coordinate is truncated to 21 bits; cells that end up
+     * sharing a key are told apart by the distance checks.
+     */
+    private static long cellKey(long cx, long cy, long cz) {
+        return ((cx & 0x1FFFFF) << 42) | ((cy & 0x1FFFFF) << 21) | (cz & 0x1FFFFF);
+    }
+
+    private static long cell(float coordinate) {
+        return (long) Math.floor(coordinate / WELD_EPSILON);
+    }
+
     /**
      * It turns out that Unity can send a nav-mesh that is broken, where a node (a corner of
      * a triangle) in the mesh ends up split in two nodes, located very close to each other,
@@ -44,33 +63,89 @@ public class LabRecruitsRawNavMesh {
      * This method fixes this by identifying such twins and force them to be merged.
      * 
      *  Thanks to Samira for the fix.
+     *
+     * <p>The indices are visited in order. A vertex that has no twin among the vertices
+     * kept so far is kept; otherwise the index is redirected to that twin (the one with
+     * the lowest index, if there are several).
+     * The representatives are kept in a spatial hash with cells of width epsilon, so only
+     * the vertices in the 27 cells around a vertex need to be compared, rather than all
+     * pairs of indices.
      */
     private void fix_broken_navmesh() {
-        float epsilon = 0.001f ;
-        for(int i=0; i< indices.length; i++) {
-            for(int j=i+1; j< indices.length; j++) {
-                int k = indices[i];
-                Vec3 currentVertix= vertices[k];
-                int n = indices[j];
-                Vec3 next = vertices[n];
-                float dis  = Vec3.dist(currentVertix, next);
-                
-                if(dis <= epsilon){
-                    if(k != n) {        
-                    indices[j] = k; 
+        float epsilon = WELD_EPSILON;
+        // the representatives in a cell form a linked list: head per cell, next per vertex
+        LongIntHashMap cellHead = new LongIntHashMap(vertices.length);
+        int[] nextInCell = new int[vertices.length];
+        boolean[] isRepresentative = new boolean[vertices.length];
+        for (int j = 0; j < indices.length; j++) {
+            int n = indices[j];
+            if (isRepresentative[n])
+                continue;
+            Vec3 next = vertices[n];
+            long cx = cell(next.x), cy = cell(next.y), cz = cell(next.z);
+            int twin = -1;
+            for (long x = cx - 1; x <= cx + 1; x++)
+                for (long y = cy - 1; y <= cy + 1; y++)
+                    for (long z = cz - 1; z <= cz + 1; z++) {
+                        for (int k = cellHead.get(cellKey(x, y, z)); k != LongIntHashMap.NO_VALUE; k = nextInCell[k]) {
+                            if (Vec3.dist(vertices[k], next) <= epsilon && (twin < 0 || k < twin)) {
+                                twin = k;
+                            }
+                        }
                     }
-                }
+            if (twin >= 0) {
+                indices[j] = twin;
+            } else {
+                long key = cellKey(cx, cy, cz);
+                nextInCell[n] = cellHead.get(key);
+                cellHead.put(key, n);
+                isRepresentative[n] = true;
+            }
+        }
+    }
+
+    /**
+     * Check that no two vertices are at exactly the same location. Identical vertices
+     * end up in the same grid cell, so only vertices sharing a cell are compared.
+     */
+    private boolean verticesAreDistinct() {
+        LongIntHashMap cellHead = new LongIntHashMap(vertices.length);
+        int[] nextInCell = new int[vertices.length];
+        for (int n = 0; n < vertices.length; n++) {
+            Vec3 p = vertices[n];
+            long key = cellKey(cell(p.x), cell(p.y), cell(p.z));
+            for (int k = cellHead.get(key); k != LongIntHashMap.NO_VALUE; k = nextInCell[k]) {
+                Vec3 q = vertices[k];
+                if (p.x == q.x && p.y == q.y && p.z == q.z)
+                    return false;
             }
+            nextInCell[n] = cellHead.get(key);
+            cellHead.put(key, n);
         }
+        return true;
+    }
+
+    private static long edgeKey(int i, int j) {
+        return i < j ? (((long) i) << 32) | j : (((long) j) << 32) | i;
     }
     
     /**
      * This will convert this raw-mesh into the mesh representation as wanted by the
      * iv4xr agents.See {@link eu.iv4xr.framework.spatial.meshes.Mesh}.
+     * If the level this mesh belongs to is known, the result is taken from, or
+     * saved in, the {@link NavMeshCache}.
      */
     public Mesh covertToMesh() {
+        return NavMeshCache.convert(this);
+    }
+
+    /**
+     * Convert this raw-mesh, without using the cache. Note that this fixes the indices
+     * of this raw-mesh in place.
+     */
+    Mesh convert() {
     	if (this.vertices == null) return new Mesh();
-        if (!new QArrayList<Vec3>(this.vertices).isDistinct())
+        if (!verticesAreDistinct())
             throw new IllegalArgumentException("There are duplicates in the vertex array!");
 
         Mesh mesh = new Mesh();
@@ -103,7 +178,9 @@ public class LabRecruitsRawNavMesh {
             mesh.faces.add(triangle);
         }
 
-        // (3) and now the edges:
+        // (3) and now the edges; an edge is only added the first time it is seen
+        // (in either direction):
+        LongHashSet seenEdges = new LongHashSet(indices.length);
 
         for (int triangle = 0; triangle < triangleCount; triangle++) {
             int vstart = triangle * 3;
@@ -114,9 +191,8 @@ public class LabRecruitsRawNavMesh {
                 for (int to = from + 1; to < vstart + 3; to++) {
 
                     // Create the edge, and it to the new mesh if it is not a duplicate:
-                    Edge e = new Edge(indices[from], indices[to]);
-                    if (!mesh.edges.contains(e)) {
-                        mesh.edges.add(e);
+                    if (seenEdges.add(edgeKey(indices[from], indices[to]))) {
+                        mesh.edges.add(new Edge(indices[from], indices[to]));
                     }
                 }
             }
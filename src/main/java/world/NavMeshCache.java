@@ -0,0 +1,241 @@
+package world;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import environments.LabRecruitsConfig;
+import environments.LabRecruitsEnvironment;
+import eu.iv4xr.framework.spatial.Vec3;
+import eu.iv4xr.framework.spatial.meshes.Edge;
+import eu.iv4xr.framework.spatial.meshes.Face;
+import eu.iv4xr.framework.spatial.meshes.Mesh;
+import game.LabRecruitsLevel;
+import helperclasses.PrintColor;
+
+/**
+ * An on-disk cache of converted navigation meshes. Every time a
+ * {@link LabRecruitsEnvironment} is created, Lab Recruits sends the nav-mesh of the
+ * level, which is then converted with {@link LabRecruitsRawNavMesh#covertToMesh()}.
+ * For the same level this always gives the same {@link Mesh}, so the first conversion
+ * is saved in a binary file, whose name is a SHA-256 hash of the level's CSV file.
+ * Later conversions of the same level read that file, through a memory-map, instead.
+ *
+ * <p>The conversion does not know which level it is converting. So, the cache is only
+ * used when the environment is created through {@link #newEnvironment(LabRecruitsConfig)},
+ * which tells the conversion (running on the same thread) which CSV file belongs to it.
+ * To guard against a stale file, e.g. after the game was updated, the file also records
+ * the size of the raw mesh it was converted from; if that does not match, the mesh is
+ * converted again and the file overwritten.
+ *
+ * <p>File layout (little endian): magic, version, number of raw vertices, number of raw
+ * indices, number of vertices, faces and edges (all ints); then the vertices as three
+ * floats each, the faces as their number of corners followed by the corners, and the
+ * edges as two ints each.
+ */
+public class NavMeshCache {
+
+    public static boolean enabled = true;
+
+    /**
+     * The directory where the cached meshes are stored. It is created when needed.
+     */
+    public static Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "labrecruits-navmesh");
+
+    static final int MAGIC = 0x4C524E4D;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 7 * 4;
+
+    public static final AtomicInteger hits = new AtomicInteger();
+    public static final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * The CSV file of the level whose nav-mesh is being received on the current
+     * thread, if any.
+     */
+    private static final ThreadLocal<Path> levelBeingLoaded = new ThreadLocal<>();
+
+    /**
+     * Create an environment on the level given in the config, like
+     * {@code new LabRecruitsEnvironment(config)}, but using the cache to convert the
+     * level's nav-mesh. If {@link NavMeshSimplifier#enabled} is set, the converted
+     * mesh is also simplified, protecting the doors of the level.
+     */
+    public static LabRecruitsEnvironment newEnvironment(LabRecruitsConfig config) {
+        Path level = levelFileOf(config);
+        if (level == null || !(enabled || NavMeshSimplifier.enabled))
+            return new LabRecruitsEnvironment(config);
+        levelBeingLoaded.set(level);
+        try {
+            return new LabRecruitsEnvironment(config);
+        } finally {
+            levelBeingLoaded.remove();
+        }
+    }
+
+    /**
+     * The CSV file of the level in the config, or null if there is none.
+     */
+    static Path levelFileOf(LabRecruitsConfig config) {
+        if (config.level_path == null || config.level_name == null)
+            return null;
+        Path csv = Paths.get(config.level_path, config.level_name + ".csv");
+        return Files.isRegularFile(csv) ? csv : null;
+    }
+
+    /**
+     * The SHA-256 hash of the file's content, in hex.
+     */
+    public static String keyOf(Path levelFile) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(Files.readAllBytes(levelFile));
+        StringBuilder key = new StringBuilder();
+        for (byte b : hash)
+            key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    /**
+     * Convert the raw mesh, through the cache if the level it belongs to is known.
+     * Used by {@link LabRecruitsRawNavMesh#covertToMesh()}.
+     */
+    static Mesh convert(LabRecruitsRawNavMesh raw) {
+        Path level = levelBeingLoaded.get();
+        if (level == null || raw.vertices == null)
+            return raw.convert();
+        Mesh mesh = enabled ? convertThroughCache(raw, level) : raw.convert();
+        if (NavMeshSimplifier.enabled) {
+            try {
+                mesh = NavMeshSimplifier.forLevel(LabRecruitsLevel.load(level)).simplify(mesh);
+            } catch (IOException | RuntimeException e) {
+                System.out.println(PrintColor.FAILURE() + ": cannot simplify the nav-mesh of " + level + "\n" + e);
+            }
+        }
+        return mesh;
+    }
+
+    private static Mesh convertThroughCache(LabRecruitsRawNavMesh raw, Path level) {
+        Path file;
+        try {
+            file = directory.resolve(keyOf(level) + ".navmesh");
+        } catch (IOException e) {
+            return raw.convert();
+        }
+        int rawVertices = raw.vertices.length;
+        int rawIndices = raw.indices.length;
+        if (Files.isRegularFile(file)) {
+            try {
+                Mesh mesh = load(file, rawVertices, rawIndices);
+                if (mesh != null) {
+                    hits.incrementAndGet();
+                    return mesh;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println(PrintColor.FAILURE() + ": cannot read the cached nav-mesh " + file + "; converting it again.\n" + e);
+            }
+        }
+        misses.incrementAndGet();
+        Mesh mesh = raw.convert();
+        try {
+            save(file, mesh, rawVertices, rawIndices);
+        } catch (IOException e) {
+            System.out.println(PrintColor.FAILURE() + ": cannot cache the nav-mesh in " + file + "\n" + e);
+        }
+        return mesh;
+    }
+
+    /**
+     * Save the mesh, converted from a raw mesh of the given size, to the file. The file
+     * is first written under a temporary name, and then moved, so that concurrent
+     * readers never see a partially written file.
+     */
+    public static void save(Path file, Mesh mesh, int rawVertices, int rawIndices) throws IOException {
+        int size = HEADER_SIZE + 12 * mesh.vertices.size() + 8 * mesh.edges.size();
+        for (Face f : mesh.faces)
+            size += 4 * (1 + f.vertices.length);
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(rawVertices).putInt(rawIndices)
+                .putInt(mesh.vertices.size()).putInt(mesh.faces.size()).putInt(mesh.edges.size());
+        for (Vec3 v : mesh.vertices)
+            buffer.putFloat(v.x).putFloat(v.y).putFloat(v.z);
+        for (Face f : mesh.faces) {
+            buffer.putInt(f.vertices.length);
+            for (int k : f.vertices)
+                buffer.putInt(k);
+        }
+        for (Edge e : mesh.edges)
+            buffer.putInt(e.i).putInt(e.j);
+        buffer.flip();
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Load a mesh from the file. Returns null if the file was not written by this
+     * version of the cache, or if it was converted from a raw mesh of a different size.
+     */
+    public static Mesh load(Path file, int rawVertices, int rawIndices) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                return null;
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+            return null;
+        if (buffer.getInt() != rawVertices || buffer.getInt() != rawIndices)
+            return null;
+        int numberOfVertices = buffer.getInt();
+        int numberOfFaces = buffer.getInt();
+        int numberOfEdges = buffer.getInt();
+
+        Mesh mesh = new Mesh();
+        float[] coordinates = new float[3 * numberOfVertices];
+        FloatBuffer floats = buffer.asFloatBuffer();
+        floats.get(coordinates);
+        buffer.position(buffer.position() + 4 * coordinates.length);
+        for (int v = 0; v < numberOfVertices; v++)
+            mesh.vertices.add(new Vec3(coordinates[3 * v], coordinates[3 * v + 1], coordinates[3 * v + 2]));
+
+        IntBuffer ints = buffer.asIntBuffer();
+        for (int f = 0; f < numberOfFaces; f++) {
+            int[] corners = new int[ints.get()];
+            ints.get(corners);
+            mesh.faces.add(new Face(corners));
+        }
+        int[] edges = new int[2 * numberOfEdges];
+        ints.get(edges);
+        for (int e = 0; e < numberOfEdges; e++)
+            mesh.edges.add(new Edge(edges[2 * e], edges[2 * e + 1]));
+        return mesh;
+    }
+}
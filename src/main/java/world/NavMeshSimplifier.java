@@ -0,0 +1,512 @@
+package world;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import eu.iv4xr.framework.spatial.Vec3;
+import eu.iv4xr.framework.spatial.meshes.Edge;
+import eu.iv4xr.framework.spatial.meshes.Face;
+import eu.iv4xr.framework.spatial.meshes.Mesh;
+import game.LabRecruitsLevel;
+import helperclasses.LongHashSet;
+import helperclasses.LongIntHashMap;
+
+/**
+ * An optional pass that shrinks a navigation mesh, and so the navigation graph the
+ * agents build from it (a node for every vertex and for the center of every face).
+ * Adjacent faces that lie in the same plane are greedily merged into convex polygons,
+ * as long as the result stays convex; this removes a face-center node, the shared
+ * edge, and two center-to-corner edges per merge.
+ *
+ * <p>Faces with a corner near a protected point, typically a door, are left alone, so
+ * the graph around doors, which is what door obstacles block, stays as it was. Since
+ * every merged polygon is convex and lies within the walkable surface, connectivity is
+ * preserved.
+ *
+ * <p>By default the vertices are kept with their original indices, because Lab Recruits
+ * reports the navigation nodes an agent sees by those indices. For that reason a merge
+ * is then only done when it does not swallow a vertex (which would leave that vertex
+ * without edges). When {@link #dropRedundantVertices} is set, merges may swallow
+ * vertices, and afterwards vertices that are not used by any face, or that lie on a
+ * straight side of every polygon using them, are dropped, and the remaining vertices
+ * renumbered; see {@link #vertexMap}.
+ */
+public class NavMeshSimplifier {
+
+    /**
+     * If true, the nav-meshes of Lab Recruits levels, and of simulated levels, are
+     * simplified when they are loaded.
+     */
+    public static boolean enabled = false;
+
+    /**
+     * The sizes of a mesh, and of the navigation graph built from it, before and
+     * after simplification.
+     */
+    public static class Report {
+        public int verticesBefore, facesBefore, edgesBefore, cornersBefore;
+        public int verticesAfter, facesAfter, edgesAfter, cornersAfter;
+
+        public int nodesBefore() {
+            return verticesBefore + facesBefore;
+        }
+
+        public int nodesAfter() {
+            return verticesAfter + facesAfter;
+        }
+
+        public int graphEdgesBefore() {
+            return edgesBefore + cornersBefore;
+        }
+
+        public int graphEdgesAfter() {
+            return edgesAfter + cornersAfter;
+        }
+
+        /**
+         * The number of navigation-graph nodes after, divided by the number before.
+         */
+        public float nodeRatio() {
+            return nodesBefore() == 0 ? 1 : (float) nodesAfter() / nodesBefore();
+        }
+
+        /**
+         * The number of navigation-graph edges after, divided by the number before.
+         */
+        public float edgeRatio() {
+            return graphEdgesBefore() == 0 ? 1 : (float) graphEdgesAfter() / graphEdgesBefore();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("vertices %d -> %d, faces %d -> %d, mesh edges %d -> %d; "
+                    + "graph nodes %d -> %d (%.2f), graph edges %d -> %d (%.2f)",
+                    verticesBefore, verticesAfter, facesBefore, facesAfter, edgesBefore, edgesAfter,
+                    nodesBefore(), nodesAfter(), nodeRatio(), graphEdgesBefore(), graphEdgesAfter(), edgeRatio());
+        }
+    }
+
+    /**
+     * Two faces are coplanar when their unit normals differ at most this much (as
+     * 1 minus their dot product), and the vertices of one are at most
+     * {@link #planeTolerance} away from the plane of the other.
+     */
+    public float normalTolerance = 0.001f;
+    public float planeTolerance = 0.01f;
+
+    /**
+     * The maximum number of corners of a merged polygon.
+     */
+    public int maxCorners = 32;
+
+    /**
+     * Faces with a corner within this distance (in x and in z) from a protected point
+     * are not merged.
+     */
+    public float protectionHalfWidth = 1f;
+
+    public boolean dropRedundantVertices = false;
+
+    List<Vec3> protectedPoints = new ArrayList<>();
+
+    /**
+     * After {@link #simplify(Mesh)}: vertexMap[k] is the index in the simplified mesh of
+     * vertex k of the original mesh, or -1 if it was dropped.
+     */
+    public int[] vertexMap;
+
+    /**
+     * The report of the last {@link #simplify(Mesh)}.
+     */
+    public Report report;
+
+    /**
+     * Do not merge the faces near the given point.
+     */
+    public NavMeshSimplifier protect(Vec3 p) {
+        protectedPoints.add(p);
+        return this;
+    }
+
+    /**
+     * A simplifier that protects the doors of the level.
+     */
+    public static NavMeshSimplifier forLevel(LabRecruitsLevel level) {
+        var simplifier = new NavMeshSimplifier();
+        for (var it : level.items) {
+            if (it.type.equals("d") || it.type.equals("od"))
+                simplifier.protect(new Vec3(it.x, 0, it.z));
+        }
+        return simplifier;
+    }
+
+    boolean isProtected(Vec3 p) {
+        for (Vec3 c : protectedPoints) {
+            if (Math.abs(p.x - c.x) <= protectionHalfWidth && Math.abs(p.z - c.z) <= protectionHalfWidth)
+                return true;
+        }
+        return false;
+    }
+
+    private static long edgeKey(int i, int j) {
+        return i < j ? (((long) i) << 32) | j : (((long) j) << 32) | i;
+    }
+
+    // the state of a run of simplify():
+    private Vec3[] vertices;
+    private int[][] rings;
+    private int[] parent;
+    private float[] normals;
+
+    /**
+     * Return a simplified copy of the mesh. The given mesh is not changed.
+     */
+    public Mesh simplify(Mesh mesh) {
+        vertices = mesh.vertices.toArray(new Vec3[0]);
+        int numberOfFaces = mesh.faces.size();
+        rings = new int[numberOfFaces][];
+        parent = new int[numberOfFaces];
+        normals = new float[3 * numberOfFaces];
+        boolean[] frozen = new boolean[numberOfFaces];
+        report = new Report();
+        report.verticesBefore = vertices.length;
+        report.facesBefore = numberOfFaces;
+        report.edgesBefore = mesh.edges.size();
+        for (int f = 0; f < numberOfFaces; f++) {
+            rings[f] = mesh.faces.get(f).vertices.clone();
+            parent[f] = f;
+            report.cornersBefore += rings[f].length;
+            computeNormal(f);
+            for (int v : rings[f])
+                frozen[f] |= isProtected(vertices[v]);
+        }
+
+        // the pairs of faces sharing an edge; edges with more than two faces are skipped:
+        LongIntHashMap firstFace = new LongIntHashMap(3 * numberOfFaces);
+        LongIntHashMap pairOfEdge = new LongIntHashMap(3 * numberOfFaces);
+        List<int[]> pairs = new ArrayList<>();
+        for (int f = 0; f < numberOfFaces; f++) {
+            int[] ring = rings[f];
+            for (int k = 0; k < ring.length; k++) {
+                int u = ring[k];
+                int v = ring[(k + 1) % ring.length];
+                long key = edgeKey(u, v);
+                int g = firstFace.get(key);
+                if (g == LongIntHashMap.NO_VALUE) {
+                    firstFace.put(key, f);
+                    continue;
+                }
+                int p = pairOfEdge.get(key);
+                if (p == LongIntHashMap.NO_VALUE) {
+                    pairOfEdge.put(key, pairs.size());
+                    pairs.add(new int[] { g, f, u, v });
+                } else if (pairs.get(p) != null) {
+                    pairs.set(p, null);
+                }
+            }
+        }
+
+        // a failed merge is only tried again when one of the two polygons has grown since;
+        // version[f] counts the merges into polygon f:
+        int[] version = new int[numberOfFaces];
+        int[] triedAt = new int[pairs.size()];
+        Arrays.fill(triedAt, -1);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < pairs.size(); p++) {
+                int[] pair = pairs.get(p);
+                if (pair == null)
+                    continue;
+                int a = find(pair[0]);
+                int b = find(pair[1]);
+                if (a == b || frozen[a] || frozen[b] || triedAt[p] == version[a] + version[b])
+                    continue;
+                triedAt[p] = version[a] + version[b];
+                if (!coplanar(a, b))
+                    continue;
+                int[] merged = merge(rings[a], rings[b], pair[2], pair[3]);
+                if (merged == null)
+                    continue;
+                rings[a] = merged;
+                rings[b] = null;
+                parent[b] = a;
+                version[a] += version[b] + 1;
+                changed = true;
+            }
+        }
+
+        List<int[]> polygons = new ArrayList<>();
+        for (int f = 0; f < numberOfFaces; f++) {
+            if (rings[f] != null)
+                polygons.add(rings[f]);
+        }
+        vertexMap = new int[vertices.length];
+        if (dropRedundantVertices) {
+            dropStraightCorners(polygons);
+            Arrays.fill(vertexMap, -1);
+            for (int[] ring : polygons)
+                for (int v : ring)
+                    vertexMap[v] = 0;
+            int n = 0;
+            for (int v = 0; v < vertices.length; v++) {
+                if (vertexMap[v] == 0)
+                    vertexMap[v] = n++;
+            }
+        } else {
+            for (int v = 0; v < vertices.length; v++)
+                vertexMap[v] = v;
+        }
+
+        Mesh simplified = new Mesh();
+        for (int v = 0; v < vertices.length; v++) {
+            if (vertexMap[v] >= 0)
+                simplified.vertices.add(vertices[v]);
+        }
+        LongHashSet seenEdges = new LongHashSet(report.edgesBefore);
+        for (int[] ring : polygons) {
+            int[] corners = new int[ring.length];
+            for (int k = 0; k < ring.length; k++)
+                corners[k] = vertexMap[ring[k]];
+            simplified.faces.add(new Face(corners));
+            report.cornersAfter += corners.length;
+            for (int k = 0; k < corners.length; k++) {
+                int u = corners[k];
+                int v = corners[(k + 1) % corners.length];
+                if (seenEdges.add(edgeKey(u, v)))
+                    simplified.edges.add(new Edge(u, v));
+            }
+        }
+        report.verticesAfter = simplified.vertices.size();
+        report.facesAfter = simplified.faces.size();
+        report.edgesAfter = simplified.edges.size();
+        vertices = null;
+        rings = null;
+        return simplified;
+    }
+
+    private int find(int f) {
+        while (parent[f] != f) {
+            parent[f] = parent[parent[f]];
+            f = parent[f];
+        }
+        return f;
+    }
+
+    /**
+     * The unit normal of face f, with Newell's method.
+     */
+    private void computeNormal(int f) {
+        int[] ring = rings[f];
+        float nx = 0, ny = 0, nz = 0;
+        for (int k = 0; k < ring.length; k++) {
+            Vec3 p = vertices[ring[k]];
+            Vec3 q = vertices[ring[(k + 1) % ring.length]];
+            nx += (p.y - q.y) * (p.z + q.z);
+            ny += (p.z - q.z) * (p.x + q.x);
+            nz += (p.x - q.x) * (p.y + q.y);
+        }
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length > 0) {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+        }
+        normals[3 * f] = nx;
+        normals[3 * f + 1] = ny;
+        normals[3 * f + 2] = nz;
+    }
+
+    private boolean coplanar(int a, int b) {
+        float dot = normals[3 * a] * normals[3 * b] + normals[3 * a + 1] * normals[3 * b + 1]
+                + normals[3 * a + 2] * normals[3 * b + 2];
+        if (dot < 1 - normalTolerance)
+            return false;
+        Vec3 origin = vertices[rings[a][0]];
+        for (int v : rings[b]) {
+            Vec3 p = vertices[v];
+            float distance = normals[3 * a] * (p.x - origin.x) + normals[3 * a + 1] * (p.y - origin.y)
+                    + normals[3 * a + 2] * (p.z - origin.z);
+            if (Math.abs(distance) > planeTolerance)
+                return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(int[] ring, int v) {
+        for (int k = 0; k < ring.length; k++) {
+            if (ring[k] == v)
+                return k;
+        }
+        return -1;
+    }
+
+    /**
+     * Merge the polygons A and B, which share the edge uv, and possibly more edges
+     * adjacent to it. Returns null if the result would not be a convex polygon, would
+     * have too many corners, or would swallow vertices while that is not allowed.
+     */
+    int[] merge(int[] A, int[] B, int u, int v) {
+        int nA = A.length;
+        int nB = B.length;
+        int s = indexOf(A, u);
+        if (s < 0)
+            return null;
+        if (A[(s + 1) % nA] != v) {
+            if (A[(s - 1 + nA) % nA] != v)
+                return null;
+            s = (s - 1 + nA) % nA;
+            int w = u;
+            u = v;
+            v = w;
+        }
+        // now A[s] = u, A[s+1] = v; B should have them the other way around:
+        int t = indexOf(B, v);
+        if (t < 0)
+            return null;
+        if (B[(t + 1) % nB] != u)
+            return null;
+        // the shared chain is A[s..s+k], and B[t..t+k] in reverse; extend it both ways:
+        int k = 1;
+        boolean extended = true;
+        while (extended && k < Math.min(nA, nB) - 1) {
+            extended = false;
+            if (A[(s - 1 + nA) % nA] == B[(t + k + 1) % nB]) {
+                s = (s - 1 + nA) % nA;
+                k++;
+                extended = true;
+            } else if (A[(s + k + 1) % nA] == B[(t - 1 + nB) % nB]) {
+                t = (t - 1 + nB) % nB;
+                k++;
+                extended = true;
+            }
+        }
+        if (k > 1 && !dropRedundantVertices)
+            return null;
+        int n = nA + nB - 2 * k;
+        if (n < 3 || n > maxCorners)
+            return null;
+        int[] merged = new int[n];
+        int m = 0;
+        for (int i = 0; i <= nA - k; i++)
+            merged[m++] = A[(s + k + i) % nA];
+        for (int i = 1; i < nB - k; i++)
+            merged[m++] = B[(t + k + i) % nB];
+        for (int i = 0; i < n; i++)
+            for (int j = i + 1; j < n; j++)
+                if (merged[i] == merged[j])
+                    return null;
+        return isConvex(merged) ? merged : null;
+    }
+
+    /**
+     * Check that the polygon is convex, allowing straight corners. The polygon is
+     * projected on the coordinate plane its normal is most aligned with.
+     */
+    boolean isConvex(int[] ring) {
+        int n = ring.length;
+        float[] xs = new float[n];
+        float[] ys = new float[n];
+        projection(ring, xs, ys);
+        float area = 0;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            area += xs[i] * ys[j] - xs[j] * ys[i];
+        }
+        float sign = Math.signum(area);
+        if (sign == 0)
+            return false;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            int h = (i + 2) % n;
+            float e1x = xs[j] - xs[i], e1y = ys[j] - ys[i];
+            float e2x = xs[h] - xs[j], e2y = ys[h] - ys[j];
+            float cross = e1x * e2y - e1y * e2x;
+            float scale = (float) Math.sqrt((e1x * e1x + e1y * e1y) * (e2x * e2x + e2y * e2y));
+            if (sign * cross < -1e-5f * scale)
+                return false;
+            // a corner that turns back on itself is not convex either:
+            if (Math.abs(cross) <= 1e-5f * scale && e1x * e2x + e1y * e2y < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void projection(int[] ring, float[] xs, float[] ys) {
+        float nx = 0, ny = 0, nz = 0;
+        for (int k = 0; k < ring.length; k++) {
+            Vec3 p = vertices[ring[k]];
+            Vec3 q = vertices[ring[(k + 1) % ring.length]];
+            nx += (p.y - q.y) * (p.z + q.z);
+            ny += (p.z - q.z) * (p.x + q.x);
+            nz += (p.x - q.x) * (p.y + q.y);
+        }
+        float ax = Math.abs(nx), ay = Math.abs(ny), az = Math.abs(nz);
+        for (int k = 0; k < ring.length; k++) {
+            Vec3 p = vertices[ring[k]];
+            if (ay >= ax && ay >= az) {
+                xs[k] = p.z;
+                ys[k] = p.x;
+            } else if (ax >= az) {
+                xs[k] = p.y;
+                ys[k] = p.z;
+            } else {
+                xs[k] = p.x;
+                ys[k] = p.y;
+            }
+        }
+    }
+
+    /**
+     * Remove the vertices that lie on a straight side of every polygon using them.
+     * Vertices near protected points are kept.
+     */
+    private void dropStraightCorners(List<int[]> polygons) {
+        List<List<Integer>> polygonsOfVertex = new ArrayList<>(vertices.length);
+        for (int v = 0; v < vertices.length; v++)
+            polygonsOfVertex.add(new ArrayList<>(2));
+        for (int p = 0; p < polygons.size(); p++)
+            for (int v : polygons.get(p))
+                polygonsOfVertex.get(v).add(p);
+        for (int v = 0; v < vertices.length; v++) {
+            var users = polygonsOfVertex.get(v);
+            if (users.isEmpty() || isProtected(vertices[v]))
+                continue;
+            boolean straightEverywhere = true;
+            for (int p : users) {
+                int[] ring = polygons.get(p);
+                if (ring.length <= 3 || !isStraightCorner(ring, indexOf(ring, v))) {
+                    straightEverywhere = false;
+                    break;
+                }
+            }
+            if (!straightEverywhere)
+                continue;
+            for (int p : users) {
+                int[] ring = polygons.get(p);
+                int k = indexOf(ring, v);
+                int[] shorter = new int[ring.length - 1];
+                System.arraycopy(ring, 0, shorter, 0, k);
+                System.arraycopy(ring, k + 1, shorter, k, ring.length - k - 1);
+                polygons.set(p, shorter);
+            }
+        }
+    }
+
+    private boolean isStraightCorner(int[] ring, int k) {
+        int n = ring.length;
+        Vec3 a = vertices[ring[(k - 1 + n) % n]];
+        Vec3 b = vertices[ring[k]];
+        Vec3 c = vertices[ring[(k + 1) % n]];
+        Vec3 e1 = Vec3.sub(b, a);
+        Vec3 e2 = Vec3.sub(c, b);
+        float dot = e1.x * e2.x + e1.y * e2.y + e1.z * e2.z;
+        if (dot <= 0)
+            return false;
+        float cx = e1.y * e2.z - e1.z * e2.y;
+        float cy = e1.z * e2.x - e1.x * e2.z;
+        float cz = e1.x * e2.y - e1.y * e2.x;
+        return cx * cx + cy * cy + cz * cz <= 1e-10f * e1.length() * e1.length() * e2.length() * e2.length();
+    }
+}
@@ -0,0 +1,93 @@
+package algorithms;
+
+import static org.junit.jupiter.api.Assertions.* ;
+
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class CheckpointerTest {
+
+	static Checkpointer checkpointer() throws Exception {
+		var dir = Files.createTempDirectory("checkpoints") ;
+		return new Checkpointer(dir.resolve("run.checkpoint"), 0) ;
+	}
+
+	@Test
+	public void test_qalg() throws Exception {
+		var alg = new QAlg() ;
+		alg.checkpointer = checkpointer() ;
+		alg.indexOf("b0") ;
+		alg.indexOf("b1") ;
+		long small = alg.keyOf(new QAlg.LRQstate(new long[] { 7 })) ;
+		long large = alg.keyOf(new QAlg.LRQstate(new long[] { 7, 1 })) ;
+		alg.qtable.put(small, new float[] { 1, Float.NaN }) ;
+		alg.qtable.put(large, new float[] { 2, 3 }) ;
+		alg.model.record(small, 0, 5, large, false) ;
+		alg.checkpoint(false) ;
+		alg.checkpointer.flush() ;
+		assertEquals(1, alg.checkpointer.numberOfWrites.get()) ;
+
+		var restored = new QAlg() ;
+		assertTrue(restored.restoreCheckpoint(alg.checkpointer.file)) ;
+		assertEquals(alg.buttons, restored.buttons) ;
+		assertEquals(large, restored.keyOf(new QAlg.LRQstate(new long[] { 7, 1 }))) ;
+		assertEquals(2, restored.qtable.size()) ;
+		assertArrayEquals(new float[] { 1, Float.NaN }, restored.qtable.get(small), 0) ;
+		assertArrayEquals(new float[] { 2, 3 }, restored.qtable.get(large), 0) ;
+		assertEquals(1, restored.model.size()) ;
+		assertEquals(large, restored.model.to[0]) ;
+		// a checkpoint of another algorithm is refused:
+		assertThrows(java.io.IOException.class, () -> new MCTS().restoreCheckpoint(alg.checkpointer.file)) ;
+		// and so is a checkpoint in another version of the format:
+		var bytes = Files.readAllBytes(alg.checkpointer.file) ;
+		bytes[5] = Checkpointer.VERSION + 1 ;
+		Files.write(alg.checkpointer.file, bytes) ;
+		assertThrows(java.io.IOException.class, () -> new QAlg().restoreCheckpoint(alg.checkpointer.file)) ;
+	}
+
+	@Test
+	public void test_mcts() throws Exception {
+		var alg = new MCTS() ;
+		alg.checkpointer = checkpointer() ;
+		int child = alg.mctree.expand(MCTSNodeStore.ROOT, List.of("b0")) ;
+		alg.mctree.markTerminal(child) ;
+		alg.mctree.backPropagate(child, 4) ;
+		alg.checkpoint(true) ;
+		alg.checkpointer.flush() ;
+
+		var restored = new MCTS() ;
+		assertTrue(restored.restoreCheckpoint(alg.checkpointer.file)) ;
+		assertEquals(alg.mctree.toString(), restored.mctree.toString()) ;
+		int child2 = restored.mctree.child(MCTSNodeStore.ROOT, 0) ;
+		assertEquals(MCTSNodeStore.ROOT, restored.mctree.parent(child2)) ;
+		assertEquals("b0", restored.mctree.action(child2)) ;
+		assertEquals(1, restored.mctree.depth(child2)) ;
+		assertEquals(1, restored.mctree.numberOfPlays(child2)) ;
+		assertEquals(4, restored.mctree.totalReward[child2], 0) ;
+		assertTrue(restored.mctree.isTerminal(child2)) ;
+		assertFalse(restored.mctree.isExpanded(child2)) ;
+	}
+
+	@Test
+	public void test_evolutionary() throws Exception {
+		var alg = new Evolutionary() ;
+		alg.checkpointer = checkpointer() ;
+		alg.generationNr = 3 ;
+		alg.knownButtons.addAll(List.of("b0","b1")) ;
+		alg.myPopulation.add(new Evolutionary.ChromosomeInfo(List.of("b0"), 1, null)) ;
+		alg.myPopulation.add(new Evolutionary.ChromosomeInfo(List.of("b1","b0"), 5, null)) ;
+		alg.checkpoint(true) ;
+		alg.checkpointer.flush() ;
+
+		var restored = new Evolutionary() ;
+		assertFalse(restored.restoreCheckpoint(alg.checkpointer.file.resolveSibling("none"))) ;
+		assertTrue(restored.restoreCheckpoint(alg.checkpointer.file)) ;
+		assertEquals(3, restored.generationNr) ;
+		assertEquals(List.of("b0","b1"), restored.knownButtons) ;
+		assertEquals(List.of("b1","b0"), restored.myPopulation.getBest().chromosome) ;
+		assertEquals(5, restored.myPopulation.getBest().fitness, 0) ;
+		assertFalse(restored.isTopGoalSolved()) ;
+	}
+}
@@ -0,0 +1,44 @@
+package algorithms;
+
+import static org.junit.jupiter.api.Assertions.* ;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import algorithms.XBelief.LinkStatus;
+
+public class ConnectionModelTest {
+
+	@Test
+	public void test_registerAndQuery() {
+		var model = new ConnectionModel() ;
+		assertTrue(model.addButton("b0")) ;
+		assertFalse(model.addButton("b0")) ;
+		// enough doors to need more than one word per row:
+		for (int d = 0 ; d < 40 ; d++)
+			model.addDoor("d" + d) ;
+		model.addButton("b1") ;
+		assertEquals(LinkStatus.UNKNOWN, model.get("b0","d39")) ;
+		assertEquals(LinkStatus.UNKNOWN, model.get("b1","d0")) ;
+		assertNull(model.get("b2","d0")) ;
+
+		model.set("b1","d35",LinkStatus.LINKED) ;
+		model.set("b0","d35",LinkStatus.NOCONNECTON) ;
+		assertEquals(LinkStatus.LINKED, model.get("b1","d35")) ;
+		assertEquals(LinkStatus.NOCONNECTON, model.get("b0","d35")) ;
+		assertEquals(LinkStatus.UNKNOWN, model.get("b0","d34")) ;
+		assertEquals(List.of("b1"), model.linkedButtons("d35")) ;
+		assertTrue(model.unknownButtons("d35").isEmpty()) ;
+		assertEquals(List.of("b0","b1"), model.unknownButtons("d34")) ;
+		assertEquals(1, model.linkedPairs().size()) ;
+
+		// setting a pair with a new button registers it:
+		model.set("b2","d0",LinkStatus.LINKED) ;
+		assertEquals(LinkStatus.UNKNOWN, model.get("b2","d39")) ;
+		assertEquals(2, model.linkedPairs().size()) ;
+		assertEquals(2, model.numberOfLinked()) ;
+		assertEquals(1, model.numberOfNoConnections()) ;
+		assertEquals(3*40 - 3, model.numberOfUnknowns()) ;
+	}
+}
@@ -0,0 +1,80 @@
+package algorithms;
+
+import static org.junit.jupiter.api.Assertions.* ;
+
+import java.nio.file.Paths;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import eu.iv4xr.framework.extensions.pathfinding.SurfaceNavGraph;
+import eu.iv4xr.framework.spatial.Vec3;
+import game.LabRecruitsLevel;
+import game.LabRecruitsSimulator;
+import game.Platform;
+import world.LabEntity;
+
+public class DistanceMatrixTest {
+
+	@Test
+	public void test_lazilyFilledAndCleared() throws Exception {
+		var level = LabRecruitsLevel.load(Paths.get(Platform.LEVEL_PATH, "samira_8room.csv")) ;
+		var nav = new SurfaceNavGraph(new LabRecruitsSimulator(level).navigationMesh(), 0.5f) ;
+		for (int v = 0 ; v < nav.vertices.size() ; v++)
+			nav.markAsSeen(v) ;
+		var M = new DistanceMatrix(nav) ;
+		// more entities than the initial capacity, to also check growing:
+		int n = 12 ;
+		int step = nav.vertices.size() / n ;
+		for (int k = 0 ; k < n ; k++)
+			M.add("e" + k, nav.vertices.get(k * step)) ;
+		M.add("e0", nav.vertices.get(1)) ;
+		assertEquals(n, M.size()) ;
+
+		var flood = new ReachabilityMap(nav, nav.vertices.get(0), Map.of()) ;
+		for (int k = 0 ; k < n ; k++) {
+			assertEquals(flood.cost[k * step], M.get("e0","e" + k), 0.001f) ;
+		}
+		assertEquals(1, M.numberOfFloods) ;
+		// the column was filled along with the row:
+		assertEquals(M.get("e0","e5"), M.get("e5","e0"), 0) ;
+		assertEquals(1, M.numberOfFloods) ;
+		assertEquals(0, M.get("e3","e3"), 0) ;
+		assertEquals(2, M.numberOfFloods) ;
+		assertEquals(Float.POSITIVE_INFINITY, M.get("e0","unknown"), 0) ;
+
+		// after clearing, a row is computed again, and stays consistent after growing:
+		M.clear() ;
+		M.add("e" + n, nav.vertices.get(nav.vertices.size() - 1)) ;
+		var flood2 = new ReachabilityMap(nav, nav.vertices.get(2 * step), Map.of()) ;
+		assertEquals(flood2.cost[nav.vertices.size() - 1], M.get("e2","e" + n), 0.001f) ;
+		assertEquals(flood2.cost[0], M.get("e0","e2"), 0.001f) ;
+		assertEquals(3, M.numberOfFloods) ;
+	}
+
+	@Test
+	public void test_floodWithObstacleIndex() throws Exception {
+		var level = LabRecruitsLevel.load(Paths.get(Platform.LEVEL_PATH, "samira_8room.csv")) ;
+		var sim = new LabRecruitsSimulator(level) ;
+		var nav = new SurfaceNavGraph(sim.navigationMesh(), 0.5f) ;
+		for (int v = 0 ; v < nav.vertices.size() ; v++)
+			nav.markAsSeen(v) ;
+		for (var it : level.itemsOfType("d")) {
+			var d = sim.getEntity(it.id) ;
+			var e = new LabEntity(d.id, LabEntity.DOOR, true) ;
+			e.position = new Vec3(d.x, 0, d.z) ;
+			e.extent = new Vec3(d.extent.x, d.extent.y, d.extent.z) ;
+			nav.addObstacle(e) ;
+			nav.toggleBlockingOn(e) ;
+		}
+		var index = new ObstacleIndex(nav) ;
+		assertTrue(index.size() > 0) ;
+		// the index only narrows down the obstacles to test, so the costs are the same:
+		var flood = new ReachabilityMap(nav, nav.vertices.get(0), Map.of()) ;
+		var indexedFlood = new ReachabilityMap(nav, index, nav.vertices.get(0), Map.of()) ;
+		assertArrayEquals(flood.cost, indexedFlood.cost, 0.001f) ;
+		int unreachable = 0 ;
+		for (float c : flood.cost) if (c == Float.POSITIVE_INFINITY) unreachable++ ;
+		assertTrue(unreachable > 0) ;
+	}
+}
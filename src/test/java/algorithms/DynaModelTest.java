@@ -0,0 +1,46 @@
+package algorithms;
+
+import static org.junit.jupiter.api.Assertions.* ;
+
+import org.junit.jupiter.api.Test;
+
+public class DynaModelTest {
+
+	@Test
+	public void test_record() {
+		var M = new DynaModel() ;
+		for (int k = 0 ; k < 100 ; k++)
+			M.record(k % 10, k / 10, k, k + 1, false) ;
+		assertEquals(100, M.size()) ;
+		// recording the same pair again replaces it:
+		M.record(3, 2, -1, 0, true) ;
+		assertEquals(100, M.size()) ;
+		int found = 0 ;
+		for (int t = M.firstOf.get(3) ; t >= 0 ; t = M.nextOfSameState[t]) {
+			assertEquals(3, M.from[t]) ;
+			if (M.action[t] == 2) {
+				assertEquals(-1, M.reward[t], 0) ;
+				assertTrue(M.terminal[t]) ;
+			}
+			found++ ;
+		}
+		assertEquals(10, found) ;
+	}
+
+	@Test
+	public void test_planningPropagatesTheGoalValue() {
+		var alg = new QAlg() ;
+		alg.rnd = new java.util.Random(1) ;
+		// states 1 -a0-> 2 -a1-> goal, and a dead end 1 -a2-> 3:
+		alg.qtable.put(1, new float[] { 0, Float.NaN, 0 }) ;
+		alg.qtable.put(2, new float[] { Float.NaN, 0, Float.NaN }) ;
+		alg.model.record(1, 0, 0, 2, false) ;
+		alg.model.record(2, 1, alg.maxReward, 4, true) ;
+		alg.model.record(1, 2, -100, 3, true) ;
+		alg.plan(200) ;
+		assertEquals(alg.maxReward, alg.qtable.get(2)[1], 0) ;
+		assertEquals(alg.gamma * alg.maxReward, alg.qtable.get(1)[0], 1) ;
+		assertEquals(-100, alg.qtable.get(1)[2], 0) ;
+		assertEquals(200, alg.numberOfPlanningUpdates) ;
+	}
+}
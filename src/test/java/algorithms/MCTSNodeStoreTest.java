@@ -0,0 +1,120 @@
+package algorithms;
+
+import static org.junit.jupiter.api.Assertions.* ;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+public class MCTSNodeStoreTest {
+
+	static final int ROOT = MCTSNodeStore.ROOT ;
+
+	@Test
+	public void test_expandAndBackPropagate() {
+		var T = new MCTSNodeStore(2) ;
+		assertFalse(T.isExpanded(ROOT)) ;
+		assertEquals(ROOT, T.chooseLeaf(ROOT, new Random(1))) ;
+		int b0 = T.expand(ROOT, List.of("b0","b1","b2")) ;
+		assertEquals(3, T.numberOfChildren(ROOT)) ;
+		assertEquals(b0 + 2, T.findChild(ROOT, "b2")) ;
+		assertEquals(-1, T.findChild(ROOT, "b3")) ;
+		int c = T.expand(b0 + 2, List.of("b0")) ;
+		assertEquals(2, T.depth(c)) ;
+		assertEquals(List.of("b2","b0"), T.traceTo(c)) ;
+		// the action "b0" is interned once:
+		assertEquals(3, T.actions.size()) ;
+
+		T.backPropagate(c, 3) ;
+		T.backPropagate(b0, 1) ;
+		assertEquals(2, T.numberOfPlays(ROOT)) ;
+		assertEquals(2, T.averageReward(ROOT), 0) ;
+		assertEquals(1, T.numberOfPlays(b0 + 2)) ;
+		assertEquals(3, T.averageReward(c), 0) ;
+	}
+
+	@Test
+	public void test_chooseLeaf() {
+		var T = new MCTSNodeStore() ;
+		int b0 = T.expand(ROOT, List.of("b0","b1","b2")) ;
+		// unplayed children come first, and ties are broken at random:
+		Set<Integer> chosen = new HashSet<>() ;
+		var rnd = new Random(1) ;
+		for (int k = 0 ; k < 100 ; k++) chosen.add(T.chooseLeaf(ROOT, rnd)) ;
+		assertEquals(Set.of(b0, b0 + 1, b0 + 2), chosen) ;
+
+		T.backPropagate(b0, 10) ;
+		T.backPropagate(b0 + 1, 0) ;
+		T.backPropagate(b0 + 2, 0) ;
+		assertEquals(b0, T.chooseLeaf(ROOT, rnd)) ;
+		// a virtual loss steers the selection away:
+		for (int k = 0 ; k < 10 ; k++) T.addVirtualLoss(b0) ;
+		assertNotEquals(b0, T.chooseLeaf(ROOT, rnd)) ;
+		for (int k = 0 ; k < 10 ; k++) T.removeVirtualLoss(b0) ;
+		assertEquals(0, T.virtualLoss[ROOT]) ;
+		assertEquals(b0, T.chooseLeaf(ROOT, rnd)) ;
+	}
+
+	@Test
+	public void test_fullyExplored() {
+		var T = new MCTSNodeStore() ;
+		int b0 = T.expand(ROOT, List.of("b0","b1")) ;
+		int c = T.expand(b0, List.of("b1")) ;
+		T.markTerminal(c) ;
+		T.propagateFullyExploredStatus(T.parent(c)) ;
+		assertTrue(T.isFullyExplored(b0)) ;
+		assertFalse(T.isFullyExplored(ROOT)) ;
+		// the fully explored subtree is no longer selected:
+		var rnd = new Random(1) ;
+		T.backPropagate(b0, 100) ;
+		for (int k = 0 ; k < 10 ; k++) assertEquals(b0 + 1, T.chooseLeaf(ROOT, rnd)) ;
+		T.expand(b0 + 1, List.of()) ;
+		T.markTerminal(b0 + 1) ;
+		T.propagateFullyExploredStatus(ROOT) ;
+		assertTrue(T.isFullyExplored(ROOT)) ;
+		assertEquals(-1, T.chooseLeaf(ROOT, rnd)) ;
+	}
+
+	@Test
+	public void test_manyNodes() {
+		var T = new MCTSNodeStore(1) ;
+		var rnd = new Random(1) ;
+		List<String> buttons = List.of("b0","b1","b2","b3") ;
+		for (int k = 0 ; k < 250_000 ; k++) {
+			int leaf = T.chooseLeaf(ROOT, rnd) ;
+			if (T.numberOfPlays(leaf) > 0) leaf = T.expand(leaf, buttons) ;
+			T.backPropagate(leaf, rnd.nextInt(10)) ;
+		}
+		assertEquals(250_000, T.numberOfPlays(ROOT)) ;
+		assertTrue(T.size() > 250_000) ;
+		// the plays of a node are those of its children, plus its own first play:
+		for (int nd = ROOT ; nd >= 0 ; nd = T.nextInPreOrder(nd)) {
+			if (T.numberOfChildren(nd) <= 0) continue ;
+			int sum = 0 ;
+			for (int k = 0 ; k < T.numberOfChildren(nd) ; k++) sum += T.numberOfPlays(T.child(nd, k)) ;
+			assertEquals(T.numberOfPlays(nd), sum + 1) ;
+		}
+		assertEquals(45L * T.totalReward.length, T.memoryInBytes()) ;
+		assertTrue(T.totalReward.length >= T.size()) ;
+		System.out.println("** " + T.memoryReport()) ;
+	}
+
+	@Test
+	public void test_merge() {
+		var T = new MCTSNodeStore() ;
+		int b0 = T.expand(ROOT, List.of("b0")) ;
+		T.backPropagate(b0, 2) ;
+		var S = new MCTSNodeStore() ;
+		int s1 = S.expand(ROOT, List.of("b1","b0")) ;
+		S.backPropagate(s1, 4) ;
+		S.backPropagate(s1 + 1, 6) ;
+		MCTS.mergeTree(T, S) ;
+		assertEquals(3, T.numberOfPlays(ROOT)) ;
+		assertEquals(4, T.averageReward(ROOT), 0) ;
+		assertEquals(2, T.numberOfPlays(b0)) ;
+		assertEquals(4, T.averageReward(b0), 0) ;
+		int t1 = T.findChild(ROOT, "b1") ;
+		assertEquals(1, T.depth(t1)) ;
+		assertEquals(4, T.averageReward(t1), 0) ;
+	}
+}
@@ -0,0 +1,75 @@
+package algorithms;
+
+import static org.junit.jupiter.api.Assertions.* ;
+
+import org.junit.jupiter.api.Test;
+
+public class QAlgTest {
+
+	@Test
+	public void test_goalCreditsTheWholeTrace() {
+		var alg = new QAlg() ;
+		alg.lambda = 0.9f ;
+		float[][] Q = new float[4][] ;
+		for (int k = 0 ; k < 4 ; k++) {
+			Q[k] = new float[] { 0, 0 } ;
+			alg.qtable.put(k, Q[k]) ;
+			alg.eligibleStates.add((long) k) ;
+			alg.eligibleActions.add(1) ;
+		}
+		// the last step reaches the goal:
+		alg.updateQ(3, 1, alg.maxReward, 1) ;
+		assertEquals(alg.maxReward, Q[3][1], 0) ;
+		float e = 1 ;
+		for (int k = 2 ; k >= 0 ; k--) {
+			e *= alg.gamma * alg.lambda ;
+			assertEquals(e * alg.alpha * alg.maxReward, Q[k][1], 0.1f) ;
+			assertEquals(0, Q[k][0], 0) ;
+		}
+
+		// without traces, only the last step is updated:
+		alg.lambda = 0 ;
+		alg.updateQ(3, 0, 100, alg.alpha) ;
+		assertEquals(alg.alpha * 100, Q[3][0], 0.001f) ;
+		assertEquals(0, Q[2][0], 0) ;
+	}
+
+	@Test
+	public void test_evictedStatesAreNotCredited() {
+		var alg = new QAlg() ;
+		alg.lambda = 0.9f ;
+		alg.qtable = new QTable(2) ;
+		float[][] Q = new float[3][] ;
+		for (int k = 0 ; k < 3 ; k++) {
+			Q[k] = new float[] { 0, 0 } ;
+			// the third state evicts one of the first two:
+			alg.qtable.put(k, Q[k]) ;
+			alg.eligibleStates.add((long) k) ;
+			alg.eligibleActions.add(1) ;
+		}
+		assertEquals(1, alg.qtable.evictions) ;
+		alg.updateQ(2, 1, alg.maxReward, 1) ;
+		assertEquals(alg.maxReward, Q[2][1], 0) ;
+		for (int k = 0 ; k < 2 ; k++) {
+			if (alg.qtable.contains(k))
+				assertTrue(Q[k][1] > 0) ;
+			else
+				// the array of an evicted state is no longer written to:
+				assertEquals(0, Q[k][1], 0) ;
+		}
+		// and a state that was evicted is not updated at all:
+		long evicted = alg.qtable.contains(0) ? 1 : 0 ;
+		alg.updateQ(evicted, 0, 100, alg.alpha) ;
+		assertEquals(0, Q[(int) evicted][0], 0) ;
+		assertFalse(alg.qtable.contains(evicted)) ;
+	}
+
+	@Test
+	public void test_isGreedy() {
+		var alg = new QAlg() ;
+		float[] Q = { 1, Float.NaN, 3, 3 } ;
+		assertFalse(alg.isGreedy(Q, 0)) ;
+		assertTrue(alg.isGreedy(Q, 2)) ;
+		assertTrue(alg.isGreedy(Q, 3)) ;
+	}
+}
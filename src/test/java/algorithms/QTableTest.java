@@ -0,0 +1,69 @@
+package algorithms;
+
+import static org.junit.jupiter.api.Assertions.* ;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+public class QTableTest {
+
+	@Test
+	public void test_putAndGet() {
+		var Q = new QTable(1000) ;
+		Map<Long,float[]> reference = new HashMap<>() ;
+		var rnd = new Random(1) ;
+		for (int k = 0 ; k < 1000 ; k++) {
+			// keys that collide a lot on the low bits:
+			long key = ((long) rnd.nextInt(2000)) << 20 ;
+			float[] values = { k } ;
+			Q.put(key, values) ;
+			reference.put(key, values) ;
+		}
+		assertEquals(reference.size(), Q.size()) ;
+		assertEquals(0, Q.evictions) ;
+		for (var e : reference.entrySet())
+			assertSame(e.getValue(), Q.get(e.getKey())) ;
+		assertNull(Q.get(-1)) ;
+		assertEquals(reference.size(), Q.hits) ;
+		assertEquals(1, Q.misses) ;
+	}
+
+	@Test
+	public void test_clockEviction() {
+		var Q = new QTable(4) ;
+		for (long key = 0 ; key < 4 ; key++)
+			Q.put(key, new float[] { key }) ;
+		// all states were just used; one full sweep of the clock clears their
+		// reference bits, and then one of them goes:
+		Q.put(4, new float[] { 4 }) ;
+		assertEquals(1, Q.evictions) ;
+		assertEquals(4, Q.size()) ;
+		long survivor = Q.contains(0) ? 0 : 1 ;
+		// a state that is looked up again gets a second chance:
+		Q.get(survivor) ;
+		Q.put(5, new float[] { 5 }) ;
+		assertTrue(Q.contains(survivor)) ;
+		assertTrue(Q.contains(4)) ;
+		assertTrue(Q.contains(5)) ;
+		assertEquals(4, Q.size()) ;
+
+		// a full table of two states still has a free slot to end a lookup:
+		var Q2 = new QTable(2) ;
+		for (long key = 0 ; key < 3 ; key++)
+			Q2.put(key, new float[] { key }) ;
+		assertEquals(2, Q2.size()) ;
+		assertFalse(Q2.contains(0) && Q2.contains(1)) ;
+
+		// many evictions; the table stays consistent:
+		var rnd = new Random(2) ;
+		for (int k = 0 ; k < 10000 ; k++) {
+			long key = rnd.nextInt(50) ;
+			if (Q.get(key) == null)
+				Q.put(key, new float[] { key }) ;
+			assertEquals(key, Q.get(key)[0], 0) ;
+			assertTrue(Q.size() <= Q.maxSize()) ;
+		}
+		assertTrue(Q.evictions > 0) ;
+	}
+}
@@ -0,0 +1,111 @@
+package game;
+
+import static org.junit.jupiter.api.Assertions.* ;
+
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+import eu.iv4xr.framework.spatial.Vec3;
+import game.LabRecruitsLevel.TileType;
+
+/**
+ * Checks the in-process simulator on the level buttons_doors_1. This does not
+ * need the Lab Recruits binary.
+ */
+public class LabRecruitsSimulatorTest {
+
+    static LabRecruitsSimulator loadSimulator() throws Exception {
+        var level = LabRecruitsLevel.load(Paths.get(Platform.LEVEL_PATH, "buttons_doors_1.csv"));
+        return new LabRecruitsSimulator(level);
+    }
+
+    static void walkTo(LabRecruitsSimulator sim, String agentId, Vec3 target, int maxTicks) {
+        for (int k = 0; k < maxTicks; k++)
+            sim.moveToward(agentId, target);
+    }
+
+    @Test
+    public void test_parseLevel() throws Exception {
+        var sim = loadSimulator();
+        var level = sim.level;
+        assertEquals(TileType.WALL, level.tileAt(0, 0));
+        assertEquals(TileType.FLOOR, level.tileAt(2, 1));
+        assertEquals(3, level.doorsConnectedTo("button3").size());
+        assertTrue(level.doorsConnectedTo("button2").isEmpty());
+        var agent = level.findItem("agent1");
+        assertEquals(2, agent.x);
+        assertEquals(1, agent.z);
+        // every floor tile contributes two triangles to the navigation mesh:
+        int floorTiles = 0;
+        for (int z = 0; z < level.depth; z++)
+            for (int x = 0; x < level.width; x++)
+                if (level.tiles[z][x] == TileType.FLOOR)
+                    floorTiles++;
+        assertEquals(2 * floorTiles, sim.navigationMesh().faces.size());
+    }
+
+    @Test
+    public void test_wallsBlockMovement() throws Exception {
+        var sim = loadSimulator();
+        // (2,2) is a wall, right below the agent:
+        walkTo(sim, "agent1", new Vec3(2, 0, 3), 30);
+        assertTrue(sim.getAgent("agent1").z <= 1.5f);
+        // but it can walk to button2 around the wall:
+        walkTo(sim, "agent1", new Vec3(4, 0, 1), 30);
+        walkTo(sim, "agent1", new Vec3(4, 0, 2), 30);
+        var obs = sim.observe("agent1");
+        assertEquals(4f, obs.x, 0.01f);
+        assertEquals(2f, obs.z, 0.01f);
+    }
+
+    @Test
+    public void test_buttonTogglesConnectedDoors() throws Exception {
+        var sim = loadSimulator();
+        assertFalse(sim.getEntity("door1").isOpen);
+        // too far away; this should have no effect:
+        sim.interact("agent1", "button3");
+        assertFalse(sim.getEntity("button3").isOn);
+        var agent = sim.getAgent("agent1");
+        agent.x = 2;
+        agent.z = 6;
+        sim.interact("agent1", "button3");
+        assertTrue(sim.getEntity("button3").isOn);
+        assertTrue(sim.getEntity("door1").isOpen);
+        assertTrue(sim.getEntity("door2").isOpen);
+        assertTrue(sim.getEntity("door3").isOpen);
+        // toggling it again closes the doors:
+        sim.interact("agent1", "button3");
+        assertFalse(sim.getEntity("door1").isOpen);
+        sim.reset();
+        assertFalse(sim.getEntity("button3").isOn);
+        assertEquals(2f, sim.getAgent("agent1").x);
+    }
+
+    @Test
+    public void test_closedDoorBlocksMovementAndSight() throws Exception {
+        var sim = loadSimulator();
+        var agent = sim.getAgent("agent1");
+        agent.x = 2;
+        agent.z = 6;
+        // door1 at (2,4) is closed:
+        walkTo(sim, "agent1", new Vec3(2, 0, 3), 30);
+        assertTrue(agent.z > 4.5f);
+        var obs = sim.observe("agent1");
+        assertTrue(obs.entities.stream().noneMatch(e -> e.id.equals("button2")));
+        assertTrue(obs.entities.stream().anyMatch(e -> e.id.equals("door1")));
+
+        // walk back to button3 to open the door:
+        walkTo(sim, "agent1", new Vec3(2, 0, 6), 30);
+        sim.interact("agent1", "button3");
+        walkTo(sim, "agent1", new Vec3(2, 0, 3), 30);
+        assertEquals(3f, agent.z, 0.01f);
+    }
+
+    @Test
+    public void test_fireHurts() throws Exception {
+        var sim = loadSimulator();
+        walkTo(sim, "agent1", new Vec3(1, 0, 1), 20);
+        assertTrue(sim.getAgent("agent1").health < 100);
+    }
+}
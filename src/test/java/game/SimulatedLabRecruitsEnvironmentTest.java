@@ -0,0 +1,45 @@
+package game;
+
+import static org.junit.jupiter.api.Assertions.* ;
+
+import org.junit.jupiter.api.Test;
+
+import agents.LabRecruitsTestAgent;
+import agents.tactics.GoalLib;
+import algorithms.XBelief;
+
+/**
+ * Checks that the simulated environment can be created and played by an agent on
+ * the level buttons_doors_1, without a running Lab Recruits.
+ */
+public class SimulatedLabRecruitsEnvironmentTest {
+
+    @Test
+    public void test_createWithoutGame() throws Exception {
+        var env = SimulatedLabRecruitsEnvironment.load(Platform.LEVEL_PATH, "buttons_doors_1");
+        assertNotNull(env.worldNavigableMesh);
+        var wom = env.observe("agent1");
+        assertEquals("agent1", wom.agentId);
+        assertEquals(2f, wom.position.x, 0.01f);
+        assertEquals(1f, wom.position.z, 0.01f);
+        assertTrue(wom.visibleNavigationNodes.length > 0);
+        assertTrue(env.close());
+    }
+
+    @Test
+    public void test_agentTogglesButton() throws Exception {
+        var env = SimulatedLabRecruitsEnvironment.load(Platform.LEVEL_PATH, "buttons_doors_1");
+        var agent = new LabRecruitsTestAgent("agent1")
+                .attachState(new XBelief())
+                .attachEnvironment(env);
+        var G = GoalLib.entityInteracted("button2");
+        agent.setGoal(G);
+        for (int k = 0; k < 200 && G.getStatus().inProgress(); k++)
+            agent.update();
+        assertTrue(G.getStatus().success());
+        assertTrue(env.simulator.getEntity("button2").isOn);
+        // after a reset the level is back in its initial state:
+        env.reset();
+        assertFalse(env.simulator.getEntity("button2").isOn);
+    }
+}
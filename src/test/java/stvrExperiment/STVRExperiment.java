@@ -20,6 +20,8 @@ import algorithms.XBelief;
 import environments.LabRecruitsConfig;
 import environments.LabRecruitsEnvironment;
 import environments.SocketReaderWriter;
+import game.LabRecruitsServerPool;
+import game.LabRecruitsSession;
 import game.LabRecruitsTestServer;
 import game.Platform;
 import gameTestingContest.MyConfig;
@@ -27,6 +29,7 @@ import gameTestingContest.MyTestingAI;
 import leveldefUtil.LRFloorMap;
 import leveldefUtil.LRconnectionLogic;
 import nl.uu.cs.aplib.utils.Pair;
+import world.NavMeshCache;
 
 
 /**
@@ -215,6 +218,23 @@ public class STVRExperiment {
 		
 	static LabRecruitsTestServer labRecruitsBinding;
 	
+	/**
+	 * If true, a single instance of Lab Recruits is kept alive during a run of an
+	 * algorithm, and the level is reloaded on it for every episode. Else, LR is 
+	 * killed after every episode and relaunched for the next.
+	 */
+	static boolean reuseLabRecruitsProcess = true ;
+	
+	static LabRecruitsSession labRecruitsSession ;
+	
+	/**
+	 * Instances of LR used by the workers of the algorithms when running episodes
+	 * in parallel, see {@link MyConfig#numberOfWorkers}.
+	 */
+	static LabRecruitsServerPool labRecruitsPool ;
+	
+	static int labRecruitsPoolBasePort = 8100 ;
+	
 	static class Result1 {
 		String level ;
 		String alg ;
@@ -342,7 +362,7 @@ public class STVRExperiment {
 			int episodeLength,
 			int budget_per_task,
 			int exploration_budget
-			) {
+			) throws IOException {
 		
 		// Configure the algorithm:
 		MyConfig.ALG = algorithmName ;
@@ -361,13 +381,58 @@ public class STVRExperiment {
         // instantiating the algoritm, using the params as in MyConfig:
         MyTestingAI myTestingAI = new MyTestingAI() ;
         
+        if (MyConfig.numberOfWorkers > 1) {
+        	if (! MyConfig.useSimulator) {
+        		labRecruitsPool = new LabRecruitsServerPool(MyConfig.numberOfWorkers, 
+        				Platform.PathToLabRecruitsExecutable(projectRootDir), 
+        				labRecruitsPoolBasePort) ;
+        		labRecruitsPool.launchAll();
+        	}
+        	for (int k = 0 ; k < MyConfig.numberOfWorkers ; k++) {
+        		if (MyConfig.useSimulator) {
+        			myTestingAI.workerAgentConstructors.add(
+        					MyTestingAI.simulatedAgentConstructor(levelsDir, levelName, agentId)) ;
+        		}
+        		else {
+        			try {
+        				myTestingAI.workerAgentConstructors.add(
+        					MyTestingAI.pooledAgentConstructor(labRecruitsPool.lease(), levelsDir, levelName, agentId)) ;
+        			}
+        			catch(InterruptedException e) {
+        				throw new IOException(e) ;
+        			}
+        		}
+        	}
+        }
+        
+        if (MyConfig.useSimulator) {
+        	// play the level in-process; no need to wait between update cycles:
+        	MyConfig.delayBetweenAgentUpateCycles = 0 ;
+        	myTestingAI.agentConstructor = MyTestingAI.simulatedAgentConstructor(levelsDir, levelName, agentId) ;
+        	return myTestingAI ;
+        }
+        
+        if (reuseLabRecruitsProcess) {
+        	labRecruitsSession = new LabRecruitsSession(false, Platform.PathToLabRecruitsExecutable(projectRootDir)) ;
+        	myTestingAI.agentConstructor = dummy -> {
+        		// LR is launched on the first episode; afterwards the level is
+        		// just reloaded:
+        		LabRecruitsEnvironment env = labRecruitsSession.startEpisode(config) ;
+        		LabRecruitsTestAgent agent = new LabRecruitsTestAgent(agentId) // matches the ID in the CSV file
+        				.attachState(new XBelief())
+        				.attachEnvironment(env);
+        		return agent ;
+        	} ;
+        	return myTestingAI ;
+        }
+        
         myTestingAI.agentConstructor = dummy -> {
         	// create an instance of LabRecruitsEnvironment; it will bind to the
             // Lab Recruits instance you launched above. It will also load the
             // level specified in the passed LR-config:
         	System.out.println(">>>> Launching LR") ;
         	launchLabRcruits() ;
-        	LabRecruitsEnvironment env = new LabRecruitsEnvironment(config);
+        	LabRecruitsEnvironment env = NavMeshCache.newEnvironment(config);
         	LabRecruitsTestAgent agent = new LabRecruitsTestAgent(agentId) // matches the ID in the CSV file
     				.attachState(new XBelief())
     				.attachEnvironment(env);
@@ -403,14 +468,16 @@ public class STVRExperiment {
 					timeBudget,episodeLength,
 					budget_per_task, exploration_budget) ;
 		
-		alg.closeSUT = dummy -> {
-			if (labRecruitsBinding != null) {
-				labRecruitsBinding.close();
-				labRecruitsBinding = null ;
-			}
-        	System.out.println(">>>> Closing LR") ;
-			return null ;
-		} ;
+		if (!reuseLabRecruitsProcess && !MyConfig.useSimulator) {
+			alg.closeSUT = dummy -> {
+				if (labRecruitsBinding != null) {
+					labRecruitsBinding.close();
+					labRecruitsBinding = null ;
+				}
+				System.out.println(">>>> Closing LR") ;
+				return null ;
+			} ;
+		}
 		
 		// run the algorithm:
 		long t0 = System.currentTimeMillis() ;
@@ -419,11 +486,23 @@ public class STVRExperiment {
 		long runtime = (System.currentTimeMillis() - t0)/1000 ;
 		
 		// just to make sure that LR is closed:
+		if (labRecruitsSession != null) {
+			System.out.println(">>>> LR was launched " + labRecruitsSession.numberOfLaunches 
+					+ "x, the level was reloaded " + labRecruitsSession.numberOfReloads + "x") ;
+			labRecruitsSession.close() ;
+			labRecruitsSession = null ;
+			Thread.sleep(3000);
+		}
 		if (labRecruitsBinding != null) {
 			labRecruitsBinding.close();
 			labRecruitsBinding = null ;
 			Thread.sleep(3000);
 		}
+		if (labRecruitsPool != null) {
+			labRecruitsPool.close() ;
+			labRecruitsPool = null ;
+			Thread.sleep(3000);
+		}
 		
 		Result1 R = new Result1() ;
 		R.alg = algorithmName ;
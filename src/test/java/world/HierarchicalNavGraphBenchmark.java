@@ -0,0 +1,134 @@
+package world;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+import eu.iv4xr.framework.extensions.pathfinding.SurfaceNavGraph;
+import eu.iv4xr.framework.spatial.Vec3;
+import game.LabRecruitsLevel;
+import game.LabRecruitsSimulator;
+import game.Platform;
+
+/**
+ * Measures reachability queries on {@link HierarchicalNavGraph} against a plain
+ * Dijkstra over the whole navigation graph, on FBK_largerandom_R9 and on a level ten
+ * times as large, made by putting ten copies of it side by side. The navigation graph
+ * is built from the simulator's nav-mesh; every node counts as seen, and every door
+ * is closed. Run as a main; this does not need the Lab Recruits binary.
+ */
+public class HierarchicalNavGraphBenchmark {
+
+    static int numberOfQueries = 1000;
+
+    static LabRecruitsLevel level(int copies) throws Exception {
+        var lines = Files.readAllLines(Paths.get(Platform.LEVEL_PATH, "STVR", "FBK_largerandom_R9.csv"));
+        List<String> wide = new ArrayList<>();
+        boolean floor = false;
+        for (String line : lines) {
+            if (line.startsWith("|")) {
+                if (floor)
+                    break;
+                floor = true;
+                line = line.substring(1);
+                wide.add("|" + String.join(",", Collections.nCopies(copies, line)));
+            } else if (floor) {
+                wide.add(String.join(",", Collections.nCopies(copies, line)));
+            }
+        }
+        return LabRecruitsLevel.parse("R9x" + copies, wide);
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int copies : new int[] { 1, 10 }) {
+            var level = level(copies);
+            long t0 = System.nanoTime();
+            var nav = new SurfaceNavGraph(new LabRecruitsSimulator(level).navigationMesh(), 0.5f);
+            for (int v = 0; v < nav.vertices.size(); v++)
+                nav.markAsSeen(v);
+            List<Vec3> doors = new ArrayList<>();
+            for (var it : level.items)
+                if (it.type.equals("d"))
+                    doors.add(new Vec3(it.x, 0, it.z));
+            Set<Long> doorTiles = new HashSet<>();
+            for (Vec3 d : doors)
+                doorTiles.add(((long) d.x << 32) | ((long) d.z & 0xffffffffL));
+            HierarchicalNavGraph.EdgeFilter blocked = (v, w) -> onDoorTile(nav.vertices.get(v), doorTiles)
+                    || onDoorTile(nav.vertices.get(w), doorTiles);
+            System.out.println("** " + level.name + ": " + nav.vertices.size() + " nodes, " + doors.size()
+                    + " doors; graph built in " + (System.nanoTime() - t0) / 1000000 + " ms");
+
+            var H = new HierarchicalNavGraph(nav, blocked);
+            var rnd = new Random(1);
+            int N = nav.vertices.size();
+            int[][] queries = new int[numberOfQueries][];
+            for (int k = 0; k < numberOfQueries; k++)
+                queries[k] = new int[] { rnd.nextInt(N), rnd.nextInt(N) };
+
+            t0 = System.nanoTime();
+            int reachable = 0;
+            for (int[] q : queries)
+                if (H.pathExists(q[0], q[1], null, null))
+                    reachable++;
+            long cold = System.nanoTime() - t0;
+            t0 = System.nanoTime();
+            for (int[] q : queries)
+                H.pathExists(q[0], q[1], null, null);
+            long warm = System.nanoTime() - t0;
+            System.out.println("   hierarchical reachability: " + H.numberOfClusters() + " clusters; " + reachable + "/"
+                    + numberOfQueries + " reachable; first pass " + (cold / 1000 / numberOfQueries)
+                    + " us/query (computing " + H.clusterComputations.get() + " clusters), then "
+                    + (warm / 1000 / numberOfQueries) + " us/query");
+            int costQueries = Math.min(numberOfQueries, 100);
+            t0 = System.nanoTime();
+            for (int k = 0; k < costQueries; k++)
+                H.cost(queries[k][0], queries[k][1]);
+            cold = System.nanoTime() - t0;
+            t0 = System.nanoTime();
+            for (int k = 0; k < costQueries; k++)
+                H.cost(queries[k][0], queries[k][1]);
+            warm = System.nanoTime() - t0;
+            System.out.println("   hierarchical path cost: first pass " + (cold / 1000 / costQueries)
+                    + " us/query, then " + (warm / 1000 / costQueries) + " us/query");
+
+            int flatQueries = Math.min(numberOfQueries, 20);
+            t0 = System.nanoTime();
+            for (int k = 0; k < flatQueries; k++)
+                flatPathExists(nav, blocked, queries[k][0], queries[k][1]);
+            System.out.println("   flat Dijkstra: " + ((System.nanoTime() - t0) / 1000 / flatQueries) + " us/query");
+        }
+    }
+
+    static boolean onDoorTile(Vec3 p, Set<Long> doorTiles) {
+        for (int x = Math.round(p.x - 0.01f); x <= Math.round(p.x + 0.01f); x++)
+            for (int z = Math.round(p.z - 0.01f); z <= Math.round(p.z + 0.01f); z++)
+                if (doorTiles.contains(((long) x << 32) | ((long) z & 0xffffffffL))
+                        && Math.abs(p.x - x) <= 0.5f && Math.abs(p.z - z) <= 0.5f)
+                    return true;
+        return false;
+    }
+
+    static boolean flatPathExists(SurfaceNavGraph nav, HierarchicalNavGraph.EdgeFilter blocked, int s, int t) {
+        float[] cost = new float[nav.vertices.size()];
+        Arrays.fill(cost, Float.POSITIVE_INFINITY);
+        PriorityQueue<float[]> queue = new PriorityQueue<>((a, b) -> Float.compare(a[0], b[0]));
+        cost[s] = 0;
+        queue.add(new float[] { 0, s });
+        while (!queue.isEmpty()) {
+            var top = queue.poll();
+            int v = (int) top[1];
+            if (v == t)
+                return true;
+            if (top[0] > cost[v])
+                continue;
+            for (int w : nav.edges.neighbours(v)) {
+                float d = cost[v] + Vec3.dist(nav.vertices.get(v), nav.vertices.get(w));
+                if (d < cost[w] && !blocked.isBlocked(v, w)) {
+                    cost[w] = d;
+                    queue.add(new float[] { d, w });
+                }
+            }
+        }
+        return false;
+    }
+}
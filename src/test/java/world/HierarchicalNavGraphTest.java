@@ -0,0 +1,136 @@
+package world;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Paths;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import eu.iv4xr.framework.extensions.pathfinding.SurfaceNavGraph;
+import eu.iv4xr.framework.spatial.Vec3;
+import game.LabRecruitsLevel;
+import game.LabRecruitsSimulator;
+import game.Platform;
+
+/**
+ * Compares the answers of {@link HierarchicalNavGraph} with a plain Dijkstra over the
+ * whole navigation graph, on a level with several rooms. Doors are emulated by an edge
+ * filter that blocks the edges touching the door's tile.
+ */
+public class HierarchicalNavGraphTest {
+
+    SurfaceNavGraph nav;
+    List<Vec3> doors = new ArrayList<>();
+    Set<Integer> closed = new HashSet<>();
+
+    void load() throws Exception {
+        var level = LabRecruitsLevel.load(Paths.get(Platform.LEVEL_PATH, "samira_8room.csv"));
+        nav = new SurfaceNavGraph(new LabRecruitsSimulator(level).navigationMesh(), 0.5f);
+        for (int v = 0; v < nav.vertices.size(); v++)
+            nav.markAsSeen(v);
+        for (var it : level.items) {
+            if (it.type.equals("d")) {
+                closed.add(doors.size());
+                doors.add(new Vec3(it.x, 0, it.z));
+            }
+        }
+    }
+
+    boolean blockedBy(Set<Integer> closedDoors, int v, int w) {
+        for (int d : closedDoors) {
+            Vec3 c = doors.get(d);
+            for (Vec3 p : List.of(nav.vertices.get(v), nav.vertices.get(w)))
+                if (Math.abs(p.x - c.x) <= 0.5f && Math.abs(p.z - c.z) <= 0.5f)
+                    return true;
+        }
+        return false;
+    }
+
+    float[] flatDijkstra(int s, Set<Integer> closedDoors) {
+        float[] cost = new float[nav.vertices.size()];
+        Arrays.fill(cost, Float.POSITIVE_INFINITY);
+        PriorityQueue<float[]> queue = new PriorityQueue<>((a, b) -> Float.compare(a[0], b[0]));
+        cost[s] = 0;
+        queue.add(new float[] { 0, s });
+        while (!queue.isEmpty()) {
+            var top = queue.poll();
+            int v = (int) top[1];
+            if (top[0] > cost[v])
+                continue;
+            for (int w : nav.edges.neighbours(v)) {
+                float d = cost[v] + Vec3.dist(nav.vertices.get(v), nav.vertices.get(w));
+                if (d < cost[w] && !blockedBy(closedDoors, v, w)) {
+                    cost[w] = d;
+                    queue.add(new float[] { d, w });
+                }
+            }
+        }
+        return cost;
+    }
+
+    void checkAgainstFlat(HierarchicalNavGraph H, Set<Integer> closedDoors, HierarchicalNavGraph.EdgeFilter filter,
+            BitSet affected, Random rnd) {
+        int N = nav.vertices.size();
+        for (int k = 0; k < 30; k++) {
+            int s = rnd.nextInt(N);
+            float[] flat = flatDijkstra(s, closedDoors);
+            for (int m = 0; m < 20; m++) {
+                int t = rnd.nextInt(N);
+                float c = H.cost(s, t, filter, affected);
+                assertEquals(flat[t] < Float.POSITIVE_INFINITY, H.pathExists(s, t, filter, affected));
+                if (flat[t] == Float.POSITIVE_INFINITY) {
+                    assertEquals(Float.POSITIVE_INFINITY, c, 0);
+                    assertNull(H.findPath(s, t, filter, affected));
+                    continue;
+                }
+                assertEquals(flat[t], c, 0.001f);
+                var path = H.findPath(s, t, filter, affected);
+                assertEquals(s, (int) path.get(0));
+                assertEquals(t, (int) path.get(path.size() - 1));
+                float length = 0;
+                for (int i = 1; i < path.size(); i++) {
+                    int v = path.get(i - 1);
+                    int w = path.get(i);
+                    boolean adjacent = false;
+                    for (int u : nav.edges.neighbours(v))
+                        adjacent |= u == w;
+                    assertTrue(adjacent);
+                    assertFalse(blockedBy(closedDoors, v, w));
+                    length += Vec3.dist(nav.vertices.get(v), nav.vertices.get(w));
+                }
+                assertEquals(flat[t], length, 0.001f);
+            }
+        }
+    }
+
+    @Test
+    public void test_sameAnswersAsFlatSearch() throws Exception {
+        load();
+        float size = HierarchicalNavGraph.clusterSize;
+        HierarchicalNavGraph.clusterSize = 4;
+        try {
+            var H = new HierarchicalNavGraph(nav, (v, w) -> blockedBy(closed, v, w));
+            assertTrue(H.numberOfClusters() > 1);
+            var rnd = new Random(1);
+            checkAgainstFlat(H, closed, null, null, rnd);
+
+            // open the first door; only the clusters around it are recomputed:
+            closed.remove(0);
+            int before = H.clusterComputations.get();
+            H.invalidateArea(doors.get(0), new Vec3(1, 1, 1));
+            checkAgainstFlat(H, closed, null, null, rnd);
+            assertTrue(H.clusterComputations.get() - before < H.numberOfClusters());
+
+            // a hypothetical query that pretends the second door is open too:
+            Set<Integer> hypothetical = new HashSet<>(closed);
+            hypothetical.remove(1);
+            var affected = H.clustersNear(doors.get(1), new Vec3(1, 1, 1));
+            checkAgainstFlat(H, hypothetical, (v, w) -> blockedBy(hypothetical, v, w), affected, rnd);
+            // ... which leaves the abstract graph of the actual state intact:
+            checkAgainstFlat(H, closed, null, null, rnd);
+        } finally {
+            HierarchicalNavGraph.clusterSize = size;
+        }
+    }
+}
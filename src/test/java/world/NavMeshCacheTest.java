@@ -0,0 +1,44 @@
+package world;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import eu.iv4xr.framework.spatial.Vec3;
+import eu.iv4xr.framework.spatial.meshes.Mesh;
+
+public class NavMeshCacheTest {
+
+    @Test
+    public void test_saveAndLoad() throws Exception {
+        // two triangles sharing the edge 0-2; vertex 4 is a twin of vertex 0:
+        Vec3[] vertices = { new Vec3(0, 0, 0), new Vec3(1, 0, 0), new Vec3(1, 0, 1), new Vec3(0, 0, 1),
+                new Vec3(0.0005f, 0, 0) };
+        int[] indices = { 0, 1, 2, 4, 2, 3 };
+        Mesh mesh = new LabRecruitsRawNavMesh(indices.clone(), vertices).covertToMesh();
+        assertEquals(5, mesh.edges.size());
+
+        var dir = Files.createTempDirectory("navmeshcache");
+        var file = dir.resolve("level.navmesh");
+        NavMeshCache.save(file, mesh, vertices.length, indices.length);
+        Mesh loaded = NavMeshCache.load(file, vertices.length, indices.length);
+        assertNotNull(loaded);
+        assertEquals(mesh.vertices, loaded.vertices);
+        assertEquals(mesh.faces.size(), loaded.faces.size());
+        for (int f = 0; f < mesh.faces.size(); f++)
+            assertArrayEquals(mesh.faces.get(f).vertices, loaded.faces.get(f).vertices);
+        assertEquals(mesh.edges.size(), loaded.edges.size());
+        for (int e = 0; e < mesh.edges.size(); e++) {
+            assertEquals(mesh.edges.get(e).i, loaded.edges.get(e).i);
+            assertEquals(mesh.edges.get(e).j, loaded.edges.get(e).j);
+        }
+
+        // a file converted from a raw mesh of another size is not used:
+        assertNull(NavMeshCache.load(file, vertices.length + 1, indices.length));
+
+        Files.delete(file);
+        Files.delete(dir);
+    }
+}
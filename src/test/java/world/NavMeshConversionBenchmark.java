@@ -0,0 +1,130 @@
+package world;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.iv4xr.framework.spatial.Vec3;
+import eu.iv4xr.framework.spatial.meshes.Edge;
+import eu.iv4xr.framework.spatial.meshes.Mesh;
+import game.LabRecruitsLevel;
+import game.LabRecruitsLevel.TileType;
+import game.Platform;
+
+/**
+ * Measures {@link LabRecruitsRawNavMesh#covertToMesh()} on raw meshes built from the
+ * largest STVR levels. This does not need the Lab Recruits binary: the raw mesh is
+ * generated from the floor tiles of the level's CSV, two triangles per tile, and some
+ * corners are split in near-duplicate twins, as Unity sometimes does.
+ *
+ * <p>For comparison it also runs the old quadratic conversion, on meshes small enough
+ * for that to finish. It also reports how much {@link NavMeshSimplifier} shrinks the
+ * resulting navigation graph.
+ */
+public class NavMeshConversionBenchmark {
+
+    static String[] levels = { "FBK_largerandom_R9", "durk_1", "sanctuary_1", "BM2021_diff3_R7_3_3" };
+
+    static int repetitions = 5;
+
+    /**
+     * The old conversion is only run when the raw mesh has at most this many indices.
+     */
+    static int maxIndicesForQuadraticBaseline = 30000;
+
+    /**
+     * Build a raw mesh from the floor tiles of the level. Every 7th corner gets a twin
+     * a tiny bit away, which is used by one of the triangles sharing the corner.
+     */
+    static LabRecruitsRawNavMesh rawMeshOf(LabRecruitsLevel level) {
+        List<Vec3> vertices = new ArrayList<>();
+        int[][] corner = new int[level.depth + 1][level.width + 1];
+        int[][] twin = new int[level.depth + 1][level.width + 1];
+        for (int z = 0; z <= level.depth; z++)
+            for (int x = 0; x <= level.width; x++) {
+                corner[z][x] = vertices.size();
+                vertices.add(new Vec3(x - 0.5f, 0, z - 0.5f));
+                twin[z][x] = corner[z][x];
+                if ((z * (level.width + 1) + x) % 7 == 0) {
+                    twin[z][x] = vertices.size();
+                    vertices.add(new Vec3(x - 0.5f + 0.0004f, 0, z - 0.5f));
+                }
+            }
+        List<Integer> indices = new ArrayList<>();
+        for (int z = 0; z < level.depth; z++)
+            for (int x = 0; x < level.width; x++) {
+                if (level.tiles[z][x] != TileType.FLOOR)
+                    continue;
+                indices.add(corner[z][x]);
+                indices.add(corner[z][x + 1]);
+                indices.add(corner[z + 1][x + 1]);
+                indices.add(twin[z][x]);
+                indices.add(corner[z + 1][x + 1]);
+                indices.add(corner[z + 1][x]);
+            }
+        return new LabRecruitsRawNavMesh(indices.stream().mapToInt(i -> i).toArray(), vertices.toArray(new Vec3[0]));
+    }
+
+    /**
+     * The conversion as it was before: pairwise welding, and edges deduplicated with
+     * a linear search in the list of edges.
+     */
+    static Mesh quadraticBaseline(int[] indices, Vec3[] vertices) {
+        for (int i = 0; i < indices.length; i++)
+            for (int j = i + 1; j < indices.length; j++) {
+                int k = indices[i];
+                int n = indices[j];
+                if (Vec3.dist(vertices[k], vertices[n]) <= 0.001f && k != n)
+                    indices[j] = k;
+            }
+        Mesh mesh = new Mesh();
+        for (Vec3 v : vertices)
+            mesh.vertices.add(v);
+        for (int tr = 0; tr < indices.length / 3; tr++)
+            for (int from = 3 * tr; from < 3 * tr + 3; from++)
+                for (int to = from + 1; to < 3 * tr + 3; to++) {
+                    int a = indices[from];
+                    int b = indices[to];
+                    boolean found = false;
+                    for (Edge e : mesh.edges)
+                        if ((e.i == a && e.j == b) || (e.i == b && e.j == a)) {
+                            found = true;
+                            break;
+                        }
+                    if (!found)
+                        mesh.edges.add(new Edge(a, b));
+                }
+        return mesh;
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (String name : levels) {
+            var level = LabRecruitsLevel.load(Paths.get(Platform.LEVEL_PATH, "STVR", name + ".csv"));
+            var raw = rawMeshOf(level);
+            int[] originalIndices = raw.indices.clone();
+            long best = Long.MAX_VALUE;
+            Mesh mesh = null;
+            for (int r = 0; r < repetitions; r++) {
+                var copy = new LabRecruitsRawNavMesh(originalIndices.clone(), raw.vertices);
+                long t0 = System.nanoTime();
+                mesh = copy.covertToMesh();
+                best = Math.min(best, System.nanoTime() - t0);
+            }
+            System.out.println("** " + name + ": " + raw.vertices.length + " vertices, "
+                    + originalIndices.length / 3 + " triangles, " + mesh.edges.size() + " edges; conversion: "
+                    + (best / 1000000.0) + " ms");
+            var simplifier = NavMeshSimplifier.forLevel(level);
+            long t1 = System.nanoTime();
+            simplifier.simplify(mesh);
+            System.out.println("   simplification: " + ((System.nanoTime() - t1) / 1000000.0) + " ms, " + simplifier.report);
+            if (originalIndices.length <= maxIndicesForQuadraticBaseline) {
+                long t0 = System.nanoTime();
+                var baseline = quadraticBaseline(originalIndices.clone(), raw.vertices);
+                long t = System.nanoTime() - t0;
+                System.out.println("   old conversion: " + (t / 1000000.0) + " ms, " + baseline.edges.size() + " edges");
+            } else {
+                System.out.println("   old conversion: skipped, too large");
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package world;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import eu.iv4xr.framework.spatial.Vec3;
+import eu.iv4xr.framework.spatial.meshes.Face;
+import eu.iv4xr.framework.spatial.meshes.Mesh;
+import game.LabRecruitsLevel;
+import game.LabRecruitsSimulator;
+import game.Platform;
+
+public class NavMeshSimplifierTest {
+
+    static Mesh meshOf(String... rows) {
+        return new LabRecruitsSimulator(LabRecruitsLevel.parse("test", List.of(rows))).navigationMesh();
+    }
+
+    static float area(Mesh mesh) {
+        float area = 0;
+        for (Face f : mesh.faces) {
+            int n = f.vertices.length;
+            for (int k = 0; k < n; k++) {
+                Vec3 p = mesh.vertices.get(f.vertices[k]);
+                Vec3 q = mesh.vertices.get(f.vertices[(k + 1) % n]);
+                area += p.x * q.z - q.x * p.z;
+            }
+        }
+        return Math.abs(area) / 2;
+    }
+
+    @Test
+    public void test_corridorBecomesOnePolygon() {
+        Mesh mesh = meshOf("|w,w,w,w,w", "w,f,f,f,w", "w,w,w,w,w");
+        var simplifier = new NavMeshSimplifier();
+        Mesh simplified = simplifier.simplify(mesh);
+        assertEquals(1, simplified.faces.size());
+        assertEquals(8, simplified.faces.get(0).vertices.length);
+        assertEquals(8, simplified.edges.size());
+        // the vertices keep their indices:
+        assertEquals(mesh.vertices, simplified.vertices);
+        assertEquals(area(mesh), area(simplified), 0.001f);
+        assertTrue(simplifier.report.nodeRatio() < 1);
+        assertTrue(simplifier.report.edgeRatio() < 1);
+    }
+
+    @Test
+    public void test_dropRedundantVertices() {
+        Mesh mesh = meshOf("|w,w,w,w", "w,f,f,w", "w,f,f,w", "w,w,w,w");
+        assertEquals(9, mesh.vertices.size());
+
+        // without dropping vertices, the vertex in the middle must stay on a border:
+        var simplifier = new NavMeshSimplifier();
+        Mesh simplified = simplifier.simplify(mesh);
+        assertTrue(simplified.faces.size() > 1);
+        assertEquals(area(mesh), area(simplified), 0.001f);
+
+        simplifier.dropRedundantVertices = true;
+        simplified = simplifier.simplify(mesh);
+        assertEquals(1, simplified.faces.size());
+        assertEquals(4, simplified.vertices.size());
+        assertEquals(4, simplified.edges.size());
+        assertEquals(area(mesh), area(simplified), 0.001f);
+        int dropped = 0;
+        for (int v : simplifier.vertexMap)
+            if (v < 0)
+                dropped++;
+        assertEquals(5, dropped);
+    }
+
+    @Test
+    public void test_doorsAreProtected() {
+        Mesh mesh = meshOf("|w,w,w,w,w,w,w,w,w", "w,f,f,f,f:d^door1,f,f,f,w", "w,w,w,w,w,w,w,w,w");
+        var simplifier = new NavMeshSimplifier().protect(new Vec3(4, 0, 1));
+        Mesh simplified = simplifier.simplify(mesh);
+        assertEquals(area(mesh), area(simplified), 0.001f);
+        for (Face f : simplified.faces) {
+            boolean nearDoor = false;
+            for (int v : f.vertices)
+                nearDoor |= Math.abs(simplified.vertices.get(v).x - 4) <= 1;
+            if (nearDoor)
+                assertEquals(3, f.vertices.length);
+        }
+        // the corridors at both sides of the door are still merged:
+        assertTrue(simplified.faces.size() < mesh.faces.size());
+    }
+
+    @Test
+    public void test_keepsEveryVertexOnALevel() throws Exception {
+        var level = LabRecruitsLevel.load(Paths.get(Platform.LEVEL_PATH, "buttons_doors_1.csv"));
+        Mesh mesh = new LabRecruitsSimulator(level).navigationMesh();
+        var simplifier = NavMeshSimplifier.forLevel(level);
+        Mesh simplified = simplifier.simplify(mesh);
+        assertEquals(area(mesh), area(simplified), 0.01f);
+        boolean[] used = new boolean[mesh.vertices.size()];
+        for (Face f : simplified.faces)
+            for (int v : f.vertices)
+                used[v] = true;
+        for (Face f : mesh.faces)
+            for (int v : f.vertices)
+                assertTrue(used[v]);
+        assertTrue(simplifier.report.nodeRatio() < 1);
+    }
+}